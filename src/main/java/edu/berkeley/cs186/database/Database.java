@@ -15,9 +15,11 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
+import edu.berkeley.cs186.database.memory.VersionStore;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.query.SortOperator;
@@ -37,6 +39,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 /**
@@ -79,6 +82,7 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    private static final String WAL_DIRECTORY = "wal";
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -97,6 +101,10 @@ public class Database implements AutoCloseable {
     private final BufferManager bufferManager;
     // recovery manager
     private final RecoveryManager recoveryManager;
+    // Old versions of pages, for snapshot transactions
+    private final VersionStore versionStore = new VersionStore();
+    // Optimistic concurrency control, or null if transactions rely on locking
+    private final OptimisticConcurrencyControl concurrencyControl;
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
@@ -173,21 +181,101 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, () -> policy, 1, useRecoveryManager);
+    }
+
+    /**
+     * Creates a new database whose buffer cache is split into independently
+     * locked partitions, each with its own eviction policy.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policies supplier of eviction policies, called once per buffer partition
+     * @param numBufferPartitions number of partitions to split the buffer cache into
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    Supplier<EvictionPolicy> policies, int numBufferPartitions,
+                    boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policies, numBufferPartitions, useRecoveryManager, false);
+    }
+
+    /**
+     * Creates a new database whose buffer cache is split into independently
+     * locked partitions, each with its own eviction policy.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policies supplier of eviction policies, called once per buffer partition
+     * @param numBufferPartitions number of partitions to split the buffer cache into
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param useDedicatedLog flag to keep the log in dedicated WAL segment files (in the
+     *                        wal subdirectory of fileDir) instead of on the log partition,
+     *                        bypassing the buffer cache; only used with the recovery manager
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    Supplier<EvictionPolicy> policies, int numBufferPartitions,
+                    boolean useRecoveryManager, boolean useDedicatedLog) {
+        this(fileDir, numMemoryPages, lockManager, policies, numBufferPartitions, useRecoveryManager,
+             useDedicatedLog, null);
+    }
+
+    /**
+     * Creates a new database with defaults:
+     * - Clock eviction policy
+     * - Recovery manager disabled (DummyRecoverManager)
+     * that runs transactions under optimistic concurrency control instead of
+     * locking.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param concurrencyControl optimistic concurrency control to validate transactions with
+     */
+    public Database(String fileDir, int numMemoryPages, OptimisticConcurrencyControl concurrencyControl) {
+        this(fileDir, numMemoryPages, new DummyLockManager(), ClockEvictionPolicy::new, 1, false, false,
+             concurrencyControl);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policies supplier of eviction policies, called once per buffer partition
+     * @param numBufferPartitions number of partitions to split the buffer cache into
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param useDedicatedLog flag to keep the log in dedicated WAL segment files (in the
+     *                        wal subdirectory of fileDir) instead of on the log partition,
+     *                        bypassing the buffer cache; only used with the recovery manager
+     * @param concurrencyControl optimistic concurrency control to validate transactions'
+     *                           record reads and writes with, or null to rely on locking
+     *                           alone (use a DummyLockManager with it)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    Supplier<EvictionPolicy> policies, int numBufferPartitions,
+                    boolean useRecoveryManager, boolean useDedicatedLog,
+                    OptimisticConcurrencyControl concurrencyControl) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
+        this.concurrencyControl = concurrencyControl;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
 
         if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            String walDir = useDedicatedLog ? fileDir + "/" + WAL_DIRECTORY : null;
+            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction, walDir);
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
 
         diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+                                              policies, numBufferPartitions);
+        bufferManager.setVersionStore(versionStore);
 
         // create log partition
         if (!initialized) diskSpaceManager.allocPart(0);
@@ -572,7 +660,7 @@ public class Database implements AutoCloseable {
      * @return the new Transaction
      */
     public synchronized Transaction beginTransaction() {
-        TransactionImpl t = new TransactionImpl(this.numTransactions, false);
+        TransactionImpl t = new TransactionImpl(this.numTransactions, false, false);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
@@ -583,6 +671,58 @@ public class Database implements AutoCloseable {
         return t;
     }
 
+    /**
+     * Start a new snapshot transaction: a read-only transaction that sees the
+     * database as it was when it began, i.e. the changes of every transaction
+     * that had ended by then and none of the changes of transactions still
+     * running. Snapshot transactions do not take locks, so they never block
+     * (and are never blocked by) writers.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginSnapshotTransaction() {
+        TransactionImpl t = new TransactionImpl(this.numTransactions, false, true);
+        activeTransactions.register();
+        if (activeTransactions.isTerminated()) {
+            activeTransactions = new Phaser(1);
+        }
+        this.recoveryManager.startTransaction(t);
+        ++this.numTransactions;
+        TransactionContext.setTransaction(t.getTransactionContext());
+        return t;
+    }
+
+    /**
+     * @return the optimistic concurrency control that transactions are
+     * validated with, or null if they rely on locking
+     */
+    public OptimisticConcurrencyControl getConcurrencyControl() {
+        return concurrencyControl;
+    }
+
+    /**
+     * @return the store of old versions of pages read by snapshot transactions
+     */
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
+    /**
+     * @return statistics of the `n` resources whose locks transactions have
+     * spent the most time waiting for, most contended first
+     */
+    public List<LockStats.ResourceStats> getMostContendedLocks(int n) {
+        return lockManager.getMostContendedResources(n);
+    }
+
+    /**
+     * @return the `n` lock requests that have been waiting the longest,
+     * longest waiting first
+     */
+    public List<LockStats.Waiter> getLongestLockWaiters(int n) {
+        return lockManager.getLongestWaiters(n);
+    }
+
     /**
      * Start a transaction for recovery.
      *
@@ -592,7 +732,7 @@ public class Database implements AutoCloseable {
     private synchronized Transaction beginRecoveryTransaction(Long transactionNum) {
         this.numTransactions = Math.max(this.numTransactions, transactionNum + 1);
 
-        TransactionImpl t = new TransactionImpl(transactionNum, true);
+        TransactionImpl t = new TransactionImpl(transactionNum, true, false);
         activeTransactions.register();
         if (activeTransactions.isTerminated()) {
             activeTransactions = new Phaser(1);
@@ -607,13 +747,56 @@ public class Database implements AutoCloseable {
         Map<String, Table> tempTables;
         long tempTableCounter;
         boolean recoveryTransaction;
+        VersionStore.Snapshot snapshot;
+        OptimisticConcurrencyControl.TransactionState occState;
 
-        private TransactionContextImpl(long tNum, boolean recoveryTransaction) {
+        private TransactionContextImpl(long tNum, boolean recoveryTransaction, boolean snapshot,
+                                       OptimisticConcurrencyControl.TransactionState occState) {
             this.transNum = tNum;
             this.aliases = new HashMap<>();
             this.tempTables = new HashMap<>();
             this.tempTableCounter = 0;
             this.recoveryTransaction = recoveryTransaction;
+            if (snapshot) {
+                this.snapshot = versionStore.beginSnapshot(tNum);
+            }
+            this.occState = occState;
+        }
+
+        /**
+         * @return whether reads and writes of `tab` are validated, i.e. whether
+         * this transaction runs under optimistic concurrency control and `tab`
+         * is not one of its temporary tables
+         */
+        private boolean isValidated(Table tab) {
+            return occState != null && !tempTables.containsValue(tab);
+        }
+
+        /**
+         * Gets a table that is about to be scanned, adding it to the read set
+         * under optimistic concurrency control.
+         */
+        private Table scanTable(String tableName) {
+            Table tab = getTable(tableName);
+            if (isValidated(tab)) {
+                occState.readTable(tab.getName());
+            }
+            return tab;
+        }
+
+        @Override
+        public VersionStore.Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Throws if this is a snapshot transaction and `tab` is not one of its
+         * temporary tables.
+         */
+        private void checkWritable(Table tab) {
+            if (snapshot != null && (tab == null || !tempTables.containsValue(tab))) {
+                throw new DatabaseException("snapshot transaction " + transNum + " is read-only");
+            }
         }
 
         @Override
@@ -669,6 +852,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {
+            checkWritable(null);
             Record updated = metadata.toRecord();
             String tableName = normalize(metadata.getTableName());
             String columnName = normalize(metadata.getColName());
@@ -690,7 +874,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public Iterator<Record> sortedScan(String tableName, String columnName) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             // Since we'll likely scan multiple pages of records, its better
             // to get an S lock on the whole table up front
@@ -712,7 +896,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
             // Since we'll likely scan multiple pages of records, its better
@@ -723,7 +907,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
             return tab.recordIterator(tree.scanEqual(key));
@@ -731,12 +915,20 @@ public class Database implements AutoCloseable {
 
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
-            return getTable(tableName).iterator();
+            return scanTable(tableName).iterator();
+        }
+
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy) {
+            return scanTable(tableName).iterator(strategy);
         }
 
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             tableName = aliases.getOrDefault(tableName, tableName);
+            if (occState != null) {
+                scanTable(tableName);
+            }
             BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
             return tree.get(key).isPresent();
         }
@@ -748,6 +940,7 @@ public class Database implements AutoCloseable {
             if (tab == null) {
                 throw new DatabaseException("table `" + tableName + "` does not exist!");
             }
+            checkWritable(tab);
             RecordId rid = tab.addRecord(record);
             Schema s = tab.getSchema();
             List<String> colNames = s.getFieldNames();
@@ -758,13 +951,31 @@ public class Database implements AutoCloseable {
                 DataBox key = record.getValue(colNames.indexOf(column));
                 tree.put(key, rid);
             }
+            if (isValidated(tab)) {
+                String name = tableName;
+                occState.writeRecord(tableName, rid, () -> removeRecord(getTable(name), rid));
+            }
             return rid;
         }
 
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             Table tab = getTable(tableName);
-            tableName = tab.getName();
+            checkWritable(tab);
+            if (isValidated(tab)) {
+                // Deleted records can't be restored in place, so deletes are
+                // only made once the transaction is known to commit
+                getRecord(tableName, rid);
+                String name = tab.getName();
+                occState.deleteRecord(name, rid, () -> removeRecord(getTable(name), rid));
+                return rid;
+            }
+            removeRecord(tab, rid);
+            return rid;
+        }
+
+        private void removeRecord(Table tab, RecordId rid) {
+            String tableName = tab.getName();
             Schema s = tab.getSchema();
             Record record = tab.deleteRecord(rid);
             List<String> colNames = s.getFieldNames();
@@ -775,18 +986,38 @@ public class Database implements AutoCloseable {
                 DataBox key = record.getValue(colNames.indexOf(column));
                 tree.remove(key);
             }
-            return rid;
         }
 
         @Override
         public Record getRecord(String tableName, RecordId rid) {
-            return getTable(tableName).getRecord(rid);
+            Table tab = getTable(tableName);
+            if (isValidated(tab)) {
+                if (occState.isDeleted(tab.getName(), rid)) {
+                    throw new DatabaseException(String.format("Record %s does not exist.", rid));
+                }
+                occState.readRecord(tab.getName(), rid);
+            }
+            return tab.getRecord(rid);
         }
 
         @Override
         public RecordId updateRecord(String tableName, RecordId rid, Record updated) {
             Table tab = getTable(tableName);
-            tableName = tab.getName();
+            checkWritable(tab);
+            if (isValidated(tab)) {
+                if (occState.isDeleted(tab.getName(), rid)) {
+                    throw new DatabaseException(String.format("Record %s does not exist.", rid));
+                }
+                String name = tab.getName();
+                Record old = tab.getRecord(rid);
+                occState.writeRecord(name, rid, () -> replaceRecord(getTable(name), rid, old));
+            }
+            replaceRecord(tab, rid, updated);
+            return rid;
+        }
+
+        private void replaceRecord(Table tab, RecordId rid, Record updated) {
+            String tableName = tab.getName();
             Schema s = tab.getSchema();
 
             Record old = tab.updateRecord(rid, updated);
@@ -800,7 +1031,6 @@ public class Database implements AutoCloseable {
                 tree.remove(oldKey);
                 tree.put(newKey, rid);
             }
-            return rid;
         }
 
         @Override
@@ -808,7 +1038,7 @@ public class Database implements AutoCloseable {
         public void updateRecordWhere(String tableName, String targetColumnName,
                                       UnaryOperator<DataBox> targetValue,
                                       String predColumnName, PredicateOperator predOperator, DataBox predValue) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             Iterator<RecordId> recordIds = tab.ridIterator();
 
@@ -819,6 +1049,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isValidated(tab) && occState.isDeleted(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
 
@@ -830,7 +1061,7 @@ public class Database implements AutoCloseable {
         }
 
         public void updateRecordWhere(String tableName, String targetColumnName, Function<Record, DataBox> targetValue, Function<Record, DataBox> condition) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             Iterator<RecordId> recordIds = tab.ridIterator();
             Schema s = tab.getSchema();
@@ -838,6 +1069,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isValidated(tab) && occState.isDeleted(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
                 DataBox cond = condition.apply(cur);
@@ -851,7 +1083,7 @@ public class Database implements AutoCloseable {
         @Deprecated
         public void deleteRecordWhere(String tableName, String predColumnName,
                                       PredicateOperator predOperator, DataBox predValue) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             Iterator<RecordId> recordIds = tab.ridIterator();
 
@@ -860,6 +1092,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isValidated(tab) && occState.isDeleted(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
 
@@ -870,12 +1103,13 @@ public class Database implements AutoCloseable {
         }
 
         public void deleteRecordWhere(String tableName, Function<Record, DataBox> condition) {
-            Table tab = getTable(tableName);
+            Table tab = scanTable(tableName);
             tableName = tab.getName();
             Iterator<RecordId> recordIds = tab.ridIterator();
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isValidated(tab) && occState.isDeleted(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 DataBox cond = condition.apply(cur);
                 if (!Expression.toBool(cond)) continue;
@@ -979,11 +1213,26 @@ public class Database implements AutoCloseable {
         private long transNum;
         private boolean recoveryTransaction;
         private TransactionContext transactionContext;
+        // Read and write sets, if this transaction runs under optimistic concurrency control
+        private OptimisticConcurrencyControl.TransactionState occState;
 
-        private TransactionImpl(long transNum, boolean recovery) {
+        private TransactionImpl(long transNum, boolean recovery, boolean snapshot) {
             this.transNum = transNum;
             this.recoveryTransaction = recovery;
-            this.transactionContext = new TransactionContextImpl(transNum, recovery);
+            if (concurrencyControl != null && !recovery && !snapshot) {
+                this.occState = concurrencyControl.begin(transNum);
+            }
+            this.transactionContext = new TransactionContextImpl(transNum, recovery, snapshot, occState);
+        }
+
+        /**
+         * Throws if this is a snapshot transaction, for statements that change
+         * tables or indices.
+         */
+        private void checkWritable() {
+            if (transactionContext.getSnapshot() != null) {
+                throw new DatabaseException("snapshot transaction " + transNum + " is read-only");
+            }
         }
 
         @Override
@@ -1004,12 +1253,29 @@ public class Database implements AutoCloseable {
         @Override
         protected void startCommit() {
             transactionContext.deleteAllTempTables();
+            if (occState != null) {
+                try {
+                    occState.commit();
+                } catch (ValidationException e) {
+                    // The transaction's writes were undone
+                    this.cleanup();
+                    throw e;
+                }
+            }
             recoveryManager.commit(transNum);
             this.cleanup();
         }
 
         @Override
         protected void startRollback() {
+            if (occState != null) {
+                // Under optimistic concurrency control the transaction undoes
+                // its own writes
+                transactionContext.deleteAllTempTables();
+                occState.abort();
+                this.cleanup();
+                return;
+            }
             recoveryManager.abort(transNum);
             this.cleanup();
         }
@@ -1024,6 +1290,13 @@ public class Database implements AutoCloseable {
                 recoveryManager.end(transNum);
             }
 
+            VersionStore.Snapshot snapshot = transactionContext.getSnapshot();
+            if (snapshot != null) {
+                snapshot.close();
+            } else {
+                versionStore.endTransaction(transNum);
+            }
+
             transactionContext.close();
             activeTransactions.arriveAndDeregister();
         }
@@ -1035,6 +1308,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1058,6 +1332,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropTable(String tableName) {
+            checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1084,6 +1359,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropAllTables() {
+            checkWritable();
             // For something as drastic as dropping all tables we'll want
             // to get an exclusive lock on the entire database.
             LockUtil.ensureSufficientLockHeld(lockManager.databaseContext(), LockType.X);
@@ -1094,6 +1370,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1147,6 +1424,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropIndex(String tableName, String columnName) {
+            checkWritable();
             // We need exclusive write access on an index to drop it.
             LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
             Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
@@ -4,6 +4,8 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
+import edu.berkeley.cs186.database.memory.VersionStore;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -88,6 +90,15 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return the snapshot that this transaction reads as of, or null if it
+     * reads the current state of the database. Snapshot transactions are
+     * read-only and do not take locks.
+     */
+    public VersionStore.Snapshot getSnapshot() {
+        return null;
+    }
+
     @Override
     public abstract void close();
 
@@ -156,6 +167,12 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract BacktrackingIterator<Record> getRecordIterator(String tableName);
 
+    /**
+     * Returns a backtracking iterator over all of the records in `tableName`,
+     * loading its data pages through `strategy`.
+     */
+    public abstract BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy);
+
     public abstract boolean contains(String tableName, String columnName, DataBox key);
 
     // Record Operations ///////////////////////////////////////////////////////
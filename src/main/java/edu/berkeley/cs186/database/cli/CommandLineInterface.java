@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.parser.TokenMgrError;
 import edu.berkeley.cs186.database.cli.visitor.StatementListVisitor;
 import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.concurrency.LockStats;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -165,6 +166,31 @@ public class CommandLineInterface {
         new PrettyPrinter(out).printSchema(s);
     }
 
+    /**
+     * Prints the `n` most contended resources, and the `n` lock requests that
+     * have been waiting the longest.
+     */
+    private void printLockStats(Database db, int n) {
+        List<Record> contended = new ArrayList<>();
+        for (LockStats.ResourceStats stats : db.getMostContendedLocks(n)) {
+            contended.add(new Record(stats.getName().toString(), stats.getNumRequests(), stats.getNumWaits(),
+                    stats.getTotalWaitNanos() / 1000, stats.getQueueLength(), stats.getMaxQueueLength(),
+                    stats.getWaitHistogram().toString()));
+        }
+        this.out.println("Most contended resources");
+        new PrettyPrinter(out).printRecords(Arrays.asList("resource", "requests", "waits", "wait_us",
+                "queued", "max_queued", "wait_histogram"), contended.iterator());
+
+        List<Record> waiters = new ArrayList<>();
+        for (LockStats.Waiter waiter : db.getLongestLockWaiters(n)) {
+            waiters.add(new Record(waiter.getTransNum(), waiter.getLockType().toString(),
+                    waiter.getName().toString(), waiter.getWaitNanos() / 1000));
+        }
+        this.out.println("Longest waiting requests");
+        new PrettyPrinter(out).printRecords(Arrays.asList("transaction", "lock_type", "resource", "wait_us"),
+                waiters.iterator());
+    }
+
     private void parseMetaCommand(String input, Database db) {
         input = input.substring(1); // Shave off the initial slash
         String[] tokens = input.split("\\s+");
@@ -195,6 +221,20 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("lockstats")) {
+            int n = 10;
+            if (tokens.length > 1) {
+                try {
+                    n = Integer.parseInt(tokens[1]);
+                } catch (NumberFormatException e) {
+                    n = -1;
+                }
+            }
+            if (n < 0 || tokens.length > 2) {
+                this.out.println("usage: \\lockstats [number of resources and waiters to show]");
+            } else {
+                printLockStats(db, n);
+            }
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
@@ -0,0 +1,78 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Periodic deadlock detector for the lock manager. Every `intervalMillis`,
+ * aborts a victim of each cycle in the waits-for graph, and (if
+ * `lockWaitTimeoutMillis` is positive) every lock request that has been
+ * waiting for longer than that. See LockManager#detectDeadlocks and
+ * LockManager#abortTimedOutRequests.
+ */
+class DeadlockDetector implements AutoCloseable {
+    private final LockManager lockManager;
+    private final long intervalMillis;
+    private final long lockWaitTimeoutMillis;
+    private final Thread thread;
+    // guarded by this
+    private boolean running;
+
+    /**
+     * Starts the deadlock detector thread.
+     *
+     * @param lockManager lock manager to detect deadlocks in
+     * @param intervalMillis time between checks
+     * @param lockWaitTimeoutMillis time a lock request may wait before it is
+     *                              aborted, or 0 to wait until granted
+     */
+    DeadlockDetector(LockManager lockManager, long intervalMillis, long lockWaitTimeoutMillis) {
+        if (intervalMillis < 1 || lockWaitTimeoutMillis < 0) {
+            throw new IllegalArgumentException("deadlock detector needs a positive interval and a " +
+                                               "non-negative lock wait timeout, got " + intervalMillis +
+                                               "ms and " + lockWaitTimeoutMillis + "ms");
+        }
+        this.lockManager = lockManager;
+        this.intervalMillis = intervalMillis;
+        this.lockWaitTimeoutMillis = lockWaitTimeoutMillis;
+        this.running = true;
+        this.thread = new Thread(this::run, "deadlock-detector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                if (!this.running) {
+                    return;
+                }
+                try {
+                    this.wait(this.intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!this.running) {
+                    return;
+                }
+            }
+            this.lockManager.detectDeadlocks();
+            if (this.lockWaitTimeoutMillis > 0) {
+                this.lockManager.abortTimedOutRequests(this.lockWaitTimeoutMillis);
+            }
+        }
+    }
+
+    /**
+     * Stops the deadlock detector, waiting for the current check to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.running = false;
+            this.notifyAll();
+        }
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
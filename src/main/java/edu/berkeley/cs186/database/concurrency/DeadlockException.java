@@ -0,0 +1,13 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction waiting for a lock when it is chosen as the victim
+ * of a deadlock. The lock was not granted, and the transaction should be
+ * aborted.
+ */
+@SuppressWarnings("serial")
+public class DeadlockException extends RuntimeException {
+    DeadlockException(String message) {
+        super(message);
+    }
+}
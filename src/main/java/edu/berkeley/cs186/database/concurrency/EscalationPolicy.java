@@ -0,0 +1,59 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Policy for automatically escalating a transaction's locks on the children of
+ * a context (e.g. the pages of a table) to a single lock on the context. A
+ * transaction's locks are escalated when it holds at least `maxChildLocks`
+ * child locks, or when the context has at least `minCapacity` children and
+ * the transaction holds locks on at least a `maxSaturation` fraction of them.
+ * See LockContext#enableAutoEscalate.
+ */
+public class EscalationPolicy {
+    // Escalates once 20% of a table of at least 10 pages is locked, or 1000 pages.
+    public static final EscalationPolicy DEFAULT = new EscalationPolicy(1000, 0.2, 10);
+
+    private final int maxChildLocks;
+    private final double maxSaturation;
+    private final int minCapacity;
+
+    /**
+     * @param maxChildLocks number of child locks at which to escalate
+     * @param maxSaturation fraction of children locked at which to escalate
+     * @param minCapacity number of children a context needs for maxSaturation
+     *                    to apply
+     */
+    public EscalationPolicy(int maxChildLocks, double maxSaturation, int minCapacity) {
+        if (maxChildLocks < 1 || maxSaturation <= 0 || minCapacity < 1) {
+            throw new IllegalArgumentException("escalation policy needs positive thresholds, got " +
+                                               maxChildLocks + " locks, saturation " + maxSaturation +
+                                               " and capacity " + minCapacity);
+        }
+        this.maxChildLocks = maxChildLocks;
+        this.maxSaturation = maxSaturation;
+        this.minCapacity = minCapacity;
+    }
+
+    /**
+     * @param numChildLocks number of child locks a transaction holds
+     * @param capacity number of children of the context
+     * @return whether the transaction's child locks should be escalated
+     */
+    public boolean shouldEscalate(int numChildLocks, int capacity) {
+        if (numChildLocks <= 0) {
+            return false;
+        }
+        if (numChildLocks >= maxChildLocks) {
+            return true;
+        }
+        return capacity >= minCapacity && (double) numChildLocks / capacity >= maxSaturation;
+    }
+
+    @Override
+    public String toString() {
+        return "EscalationPolicy{" +
+               "maxChildLocks=" + maxChildLocks +
+               ", maxSaturation=" + maxSaturation +
+               ", minCapacity=" + minCapacity +
+               '}';
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
 
 /**
  * LockContext wraps around LockManager to provide the hierarchical structure
@@ -41,6 +42,14 @@ public class LockContext {
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // Policy for escalating locks on children automatically, or null if
+    // locks are only escalated by calling escalate.
+    protected volatile EscalationPolicy escalationPolicy;
+
+    // Number of children of this context (e.g. pages of a table), for the
+    // escalation policy.
+    protected volatile IntSupplier capacity = () -> 0;
+
     public LockContext(LockManager lockman, LockContext parent, String name) {
         this(lockman, parent, name, false);
     }
@@ -298,8 +307,57 @@ public class LockContext {
             lockman.acquireAndRelease(transaction, name, LockType.S, releaseNames);
         } else if (levelLT == LockType.IX) {
             lockman.acquireAndRelease(transaction, name, LockType.X, releaseNames);
+        } else {
+            return;
         }
         numChildLocks.put(transaction.getTransNum(), 0);
+        lockman.recordEscalation(releaseNames.size() - 1);
+    }
+
+    /**
+     * Escalates automatically: turns on escalation of `transaction`'s locks on
+     * children of this context to a lock on this context (see escalate), once
+     * `policy` says the transaction holds too many of them. Escalation is then
+     * checked by LockUtil#ensureSufficientLockHeld before locking a child.
+     * Tables do not turn this on: they only request NL locks on their pages,
+     * so no policy would ever fire through them.
+     *
+     * @param policy when to escalate
+     * @param capacity number of children of this context
+     */
+    public void enableAutoEscalate(EscalationPolicy policy, IntSupplier capacity) {
+        this.capacity = capacity;
+        this.escalationPolicy = policy;
+    }
+
+    /**
+     * Turns off automatic escalation.
+     */
+    public void disableAutoEscalate() {
+        this.escalationPolicy = null;
+    }
+
+    /**
+     * Escalates `transaction`'s locks on children of this context if automatic
+     * escalation is enabled and its policy says to.
+     *
+     * @return true if the transaction's locks were escalated
+     */
+    public boolean autoEscalate(TransactionContext transaction) {
+        EscalationPolicy policy = this.escalationPolicy;
+        if (policy == null || readonly || transaction == null) {
+            return false;
+        }
+        LockType explicitLockType = getExplicitLockType(transaction);
+        if (explicitLockType != LockType.IS && explicitLockType != LockType.IX &&
+                explicitLockType != LockType.SIX) {
+            return false;
+        }
+        if (!policy.shouldEscalate(getNumChildren(transaction), capacity.getAsInt())) {
+            return false;
+        }
+        escalate(transaction);
+        return true;
     }
 
     /**
@@ -308,15 +366,7 @@ public class LockContext {
      */
     public LockType getExplicitLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
-        // TODO(proj4_part2): implement
-        LockType explicitLockType = LockType.NL;
-        List<Lock> resourceLocks = lockman.getLocks(name);
-        for (Lock resourceLock : resourceLocks) {
-            if (resourceLock.transactionNum == transaction.getTransNum()) {
-                explicitLockType = resourceLock.lockType;
-            }
-        }
-        return explicitLockType;
+        return lockman.getLockType(transaction, name);
     }
 
     /**
@@ -324,11 +374,28 @@ public class LockContext {
      * implicitly (e.g. explicit S lock at higher level implies S lock at this
      * level) or explicitly. Returns NL if there is no explicit nor implicit
      * lock.
+     *
+     * Effective lock types are cached per transaction by the lock manager
+     * until the transaction's locks change, so that checking a lock already
+     * held takes one lookup and no locking.
      */
     public LockType getEffectiveLockType(TransactionContext transaction) {
         if (transaction == null) return LockType.NL;
-        // TODO(proj4_part2): implement
+        // fetched before the lock type is worked out: if the locks change in
+        // the meantime, the result goes into a cache that is no longer used
+        Map<ResourceName, LockType> cache = lockman.getEffectiveLockTypeCache(transaction);
+        if (cache == null) {
+            return computeEffectiveLockType(transaction);
+        }
+        LockType effectiveLockType = cache.get(name);
+        if (effectiveLockType == null) {
+            effectiveLockType = computeEffectiveLockType(transaction);
+            cache.put(name, effectiveLockType);
+        }
+        return effectiveLockType;
+    }
 
+    private LockType computeEffectiveLockType(TransactionContext transaction) {
         // retrieve explicit lock, if exists, return explicit
         LockType explicitLockType = getExplicitLockType(transaction);
         if (explicitLockType != LockType.NL) {
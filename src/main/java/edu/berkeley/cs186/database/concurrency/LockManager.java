@@ -2,8 +2,12 @@ package edu.berkeley.cs186.database.concurrency;
 
 import edu.berkeley.cs186.database.TransactionContext;
 
-import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongUnaryOperator;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have what locks
@@ -30,28 +34,97 @@ import java.util.*;
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is
  * processed.
+ *
+ * Resource entries are partitioned into stripes by the hash of their resource
+ * name, and each stripe is guarded by its own lock, so that operations on
+ * unrelated resources do not contend. An operation on several resources (an
+ * acquire-and-release) locks all the stripes involved, in stripe order. The
+ * locks held by each transaction are kept separately from the stripes, along
+ * with a map from resource to lock type that is read without locking, and a
+ * cache of effective lock types for LockContext that is cleared whenever the
+ * transaction's locks change.
+ *
+ * Transactions that deadlock wait until a victim is aborted, either by calling
+ * detectDeadlocks or by a deadlock detector started with
+ * startDeadlockDetector, which can also time out lock waits. The request of
+ * an aborted transaction is taken off its queue, and the transaction throws
+ * from the call that made the request.
+ *
+ * Contention is recorded per resource in a LockStats (see getLockStats): the
+ * number of requests, the length of the queue, and the time each queued
+ * request waited, once it is granted or aborted.
  */
 public class LockManager {
-    // transactionLocks is a mapping from transaction number to a list of lock
-    // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
+    // Default number of stripes resource entries are partitioned into.
+    static final int DEFAULT_NUM_STRIPES = 64;
+
+    // transactionLocks is a mapping from transaction number to the locks held
+    // by that transaction. Transactions holding no locks have no entry.
+    private final Map<Long, TransactionLocks> transactionLocks = new ConcurrentHashMap<>();
+
+    // The locks held by a transaction. Changes are made while holding the
+    // stripe of the resource and then the TransactionLocks object itself.
+    private static class TransactionLocks {
+        // Locks held, in order of acquisition. Guarded by this.
+        final List<Lock> locks = new ArrayList<>();
+        // Type of the lock held on each resource; read without locking.
+        final Map<ResourceName, LockType> lockTypes = new ConcurrentHashMap<>();
+        // Effective lock types cached by LockContext; replaced by an empty map
+        // whenever a lock is granted, changed or released.
+        volatile Map<ResourceName, LockType> effectiveLockTypes = new ConcurrentHashMap<>();
+
+        synchronized void add(Lock lock) {
+            locks.add(lock);
+            lockTypes.put(lock.name, lock.lockType);
+            effectiveLockTypes = new ConcurrentHashMap<>();
+        }
+
+        synchronized void update(Lock lock, LockType lockType) {
+            lock.lockType = lockType;
+            lockTypes.put(lock.name, lockType);
+            effectiveLockTypes = new ConcurrentHashMap<>();
+        }
+
+        synchronized void remove(Lock lock) {
+            locks.remove(lock);
+            lockTypes.remove(lock.name);
+            effectiveLockTypes = new ConcurrentHashMap<>();
+        }
+
+        synchronized List<Lock> getLocks() {
+            return new ArrayList<>(locks);
+        }
+
+        synchronized boolean isEmpty() {
+            return locks.isEmpty();
+        }
+    }
 
-    // resourceEntries is a mapping from resource names to a ResourceEntry
-    // object, which contains a list of Locks on the object, as well as a
+    // stripes partitions the mapping from resource names to ResourceEntry
+    // objects, which contain a list of Locks on the object, as well as a
     // queue for requests on that resource.
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    private final LockStripe[] stripes;
+
+    // A stripe of resource entries, guarded by the stripe's lock.
+    private class LockStripe {
+        final int index;
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+
+        LockStripe(int index) {
+            this.index = index;
+        }
+    }
 
     // A ResourceEntry contains the list of locks on a resource, as well as
-    // the queue for requests for locks on the resource.
+    // the queue for requests for locks on the resource. Must only be used while
+    // holding the lock of its stripe.
     private class ResourceEntry {
         // List of currently granted locks on the resource.
         List<Lock> locks = new ArrayList<>();
         // Queue for yet-to-be-satisfied lock requests on this resource.
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
 
-        // Below are a list of helper methods we suggest you implement.
-        // You're free to modify their type signatures, delete, or ignore them.
-
         /**
          * Check if `lockType` is compatible with preexisting locks. Allows
          * conflicts for locks held by transaction with id `except`, which is
@@ -59,9 +132,8 @@ public class LockManager {
          * the resource.
          */
         public boolean checkCompatible(LockType lockType, long except) {
-            // TODO(proj4_part1): implement
             for (Lock lock : locks) {
-                if ((lock.transactionNum != except) && (!LockType.compatible(lockType, lock.lockType))) { // checks the lock has a different transaction than that of except and checks that the input locktype is not compatible with lock's locktype
+                if (lock.transactionNum != except && !LockType.compatible(lockType, lock.lockType)) {
                     return false;
                 }
             }
@@ -74,42 +146,38 @@ public class LockManager {
          * lock.
          */
         public void grantOrUpdateLock(Lock lock) {
-            // TODO(proj4_part1): implement
-            Long input_tNum = lock.transactionNum;
-            boolean alreadyHasLock = false;
             for (Lock resourceLock : locks) {
-                // scan the resource's locks 
-                if (resourceLock.transactionNum == input_tNum) {
-                    // the resourceLock and input lock share transaction
-                    // implies some transaction already has a lock
-                    resourceLock.lockType = lock.lockType; // update the lock type on resource
-                    alreadyHasLock = true;
+                if (resourceLock.transactionNum.equals(lock.transactionNum)) {
+                    // the same Lock object is in the transaction's list, so this
+                    // keeps its acquisition time there too
+                    transactionLocks.get(lock.transactionNum).update(resourceLock, lock.lockType);
+                    return;
                 }
             }
-            if (!alreadyHasLock) {
-                // the transaction currently does not have a lock on the resource
-                if (transactionLocks.keySet().contains(input_tNum)) {
-                    // if the LockManager has previously worked with this transasction
-                    transactionLocks.get(input_tNum).add(lock);  // add the new lock to this transaction
-                    locks.add(lock);
-                } else {
-                    // the lockManager is working with the transaction for the first time, and so it must add it to transactionLocks Map
-                    List<Lock> newLockList = new ArrayList<>(); // create a new List<Lock>
-                    newLockList.add(lock); // add the new Lock to the newly created list
-                    transactionLocks.put(input_tNum, newLockList); // add this Pair to the Map
-                    locks.add(lock);
+            locks.add(lock);
+            transactionLocks.compute(lock.transactionNum, (transNum, heldLocks) -> {
+                if (heldLocks == null) {
+                    heldLocks = new TransactionLocks();
                 }
-            }
+                heldLocks.add(lock);
+                return heldLocks;
+            });
+            maxNumLocks.accumulateAndGet(numLocks.incrementAndGet(), Math::max);
         }
 
         /**
-         * Releases the lock `lock` and processes the queue. Assumes that the
-         * lock has been granted before.
+         * Releases the lock `lock`. Assumes that the lock has been granted
+         * before. The queue is processed separately, see processQueue.
          */
         public void releaseLock(Lock lock) {
-            // TODO(proj4_part1): implement
-            locks.remove(lock); // we release the lock
-            transactionLocks.get(lock.transactionNum).remove(lock);
+            locks.remove(lock);
+            // drop the transaction's entry with its last lock, atomically with
+            // respect to a lock being granted to it on another stripe
+            transactionLocks.computeIfPresent(lock.transactionNum, (transNum, heldLocks) -> {
+                heldLocks.remove(lock);
+                return heldLocks.isEmpty() ? null : heldLocks;
+            });
+            numLocks.decrementAndGet();
         }
 
         /**
@@ -117,47 +185,43 @@ public class LockManager {
          * the end otherwise.
          */
         public void addToQueue(LockRequest request, boolean addFront) {
-            // TODO(proj4_part1): implement
             if (addFront) {
                 waitingQueue.addFirst(request);
             } else {
                 waitingQueue.addLast(request);
             }
-            return;
+            lockStats.recordQueued(request.lock.name);
         }
 
         /**
          * Grant locks to requests from front to back of the queue, stopping
-         * when the next lock cannot be granted. Once a request is completely
-         * granted, the transaction that made the request can be unblocked.
+         * when the next lock cannot be granted. Granted requests are added to
+         * `granted`: the locks they release and the transactions to unblock are
+         * left to the caller, see finishRequests.
          */
-        private void processQueue() {
-            while (!waitingQueue.isEmpty() && checkCompatible(waitingQueue.getFirst().lock.lockType, waitingQueue.getFirst().lock.transactionNum)) {
-                waitingQueue.getFirst().transaction.unblock();
+        private void processQueue(List<LockRequest> granted) {
+            while (!waitingQueue.isEmpty()) {
+                LockRequest request = waitingQueue.getFirst();
+                if (!checkCompatible(request.lock.lockType, request.lock.transactionNum)) {
+                    return;
+                }
                 waitingQueue.removeFirst();
+                lockStats.recordWait(request.lock.name, System.nanoTime() - request.requestTime);
+                grantOrUpdateLock(request.lock);
+                granted.add(request);
             }
-            // // TODO(proj4_part1): implement
-            // while (notEmpty)
-            // while (requests.hasNext()) {
-            //     LockRequest lockRequest = requests.next();
-            //     boolean compatible = checkCompatible(lockRequest.lock.lockType, lockRequest.lock.transactionNum);
-            //     if (compatible) {
-            //         lockRequest.transaction.unblock();
-            //     }
-            // }
         }
 
         /**
-         * Gets the type of lock `transaction` has on this resource.
+         * Gets the lock `transaction` has on this resource, or null if none.
          */
-        public LockType getTransactionLockType(long transaction) {
-            // TODO(proj4_part1): implement
+        public Lock getTransactionLock(long transaction) {
             for (Lock lock : locks) {
                 if (lock.transactionNum == transaction) {
-                    return lock.lockType;
+                    return lock;
                 }
             }
-            return LockType.NL;
+            return null;
         }
 
         @Override
@@ -170,13 +234,348 @@ public class LockManager {
     // You should not modify or use this directly.
     private Map<String, LockContext> contexts = new HashMap<>();
 
+    // Cost of aborting a transaction, by transaction number: the cheapest
+    // transaction in a deadlock is its victim.
+    private volatile LongUnaryOperator victimCost = transNum -> 0L;
+
+    // Periodic deadlock detector, or null if it is not running. Guarded by this.
+    private DeadlockDetector deadlockDetector;
+
+    // Metrics: number of granted locks, the most there have been at once, and
+    // the number of escalations and of locks they released.
+    private final AtomicLong numLocks = new AtomicLong();
+    private final AtomicLong maxNumLocks = new AtomicLong();
+    private final AtomicLong numEscalations = new AtomicLong();
+    private final AtomicLong numEscalatedLocks = new AtomicLong();
+    private final LockStats lockStats = new LockStats();
+
+    public LockManager() {
+        this(DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Creates a lock manager whose resource entries are partitioned into
+     * `numStripes` stripes.
+     */
+    LockManager(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("lock manager needs at least one stripe, got " + numStripes);
+        }
+        this.stripes = new LockStripe[numStripes];
+        for (int i = 0; i < numStripes; ++i) {
+            this.stripes[i] = new LockStripe(i);
+        }
+    }
+
+    private LockStripe getStripe(ResourceName name) {
+        return stripes[Math.floorMod(name.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Locks the stripes of all the given resources, in stripe order.
+     * @return the stripes locked, to be passed to unlockStripes
+     */
+    private List<LockStripe> lockStripes(Collection<ResourceName> names) {
+        SortedMap<Integer, LockStripe> toLock = new TreeMap<>();
+        for (ResourceName name : names) {
+            LockStripe stripe = getStripe(name);
+            toLock.put(stripe.index, stripe);
+        }
+        List<LockStripe> locked = new ArrayList<>(toLock.values());
+        for (LockStripe stripe : locked) {
+            stripe.lock.lock();
+        }
+        return locked;
+    }
+
+    private void unlockStripes(List<LockStripe> locked) {
+        for (LockStripe stripe : locked) {
+            stripe.lock.unlock();
+        }
+    }
+
     /**
      * Helper method to fetch the resourceEntry corresponding to `name`.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
+     * The stripe of `name` must be locked.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return getStripe(name).resourceEntries.computeIfAbsent(name, k -> new ResourceEntry());
+    }
+
+    /**
+     * Helper method to fetch the lock `transNum` holds on `name`, or null if
+     * none. The stripe of `name` must be locked.
+     */
+    private Lock getTransactionLock(ResourceName name, long transNum) {
+        ResourceEntry resource = getStripe(name).resourceEntries.get(name);
+        return resource == null ? null : resource.getTransactionLock(transNum);
+    }
+
+    /**
+     * Releases `lock` and processes its resource's queue, dropping the
+     * resource's entry once it has neither locks nor requests. The stripe of
+     * the lock's resource must be locked.
+     */
+    private void releaseAndProcess(Lock lock, List<LockRequest> granted) {
+        ResourceEntry resource = getResourceEntry(lock.name);
+        resource.releaseLock(lock);
+        resource.processQueue(granted);
+        if (resource.locks.isEmpty() && resource.waitingQueue.isEmpty()) {
+            getStripe(lock.name).resourceEntries.remove(lock.name);
+        }
+    }
+
+    /**
+     * Completes requests granted off a queue: releases the locks each request
+     * gives up (processing those resources' queues in turn, which may grant
+     * more requests), and then unblocks the request's transaction. Must be
+     * called while holding no stripe locks.
+     */
+    private void finishRequests(List<LockRequest> granted) {
+        Deque<LockRequest> toFinish = new ArrayDeque<>(granted);
+        while (!toFinish.isEmpty()) {
+            LockRequest request = toFinish.removeFirst();
+            for (Lock released : request.releasedLocks) {
+                if (released.name.equals(request.lock.name)) {
+                    // replaced by the granted lock
+                    continue;
+                }
+                LockStripe stripe = getStripe(released.name);
+                List<LockRequest> more = new ArrayList<>();
+                stripe.lock.lock();
+                try {
+                    releaseAndProcess(released, more);
+                } finally {
+                    stripe.lock.unlock();
+                }
+                toFinish.addAll(more);
+            }
+            request.transaction.unblock();
+        }
+    }
+
+    /**
+     * Blocks the transaction that made a queued request until the request is
+     * granted or aborted. prepareBlock must have been called on the transaction.
+     * @throws DeadlockException if the request was aborted to break a deadlock
+     * @throws LockWaitTimeoutException if the request was aborted after waiting
+     * too long
+     */
+    private static void awaitRequest(LockRequest request) {
+        request.transaction.block();
+        if (request.abortCause != null) {
+            throw request.abortCause;
+        }
+    }
+
+    /**
+     * Takes `request` off its resource's queue without granting it, to be
+     * thrown `cause` once its transaction is unblocked, and processes the
+     * queue. The stripe of the request's resource must be locked.
+     * @return false if the request is no longer queued
+     */
+    private boolean abortRequest(LockRequest request, RuntimeException cause, List<LockRequest> granted) {
+        ResourceName name = request.lock.name;
+        ResourceEntry resource = getStripe(name).resourceEntries.get(name);
+        if (resource == null || !resource.waitingQueue.remove(request)) {
+            return false;
+        }
+        lockStats.recordWait(name, System.nanoTime() - request.requestTime);
+        request.abortCause = cause;
+        resource.processQueue(granted);
+        if (resource.locks.isEmpty() && resource.waitingQueue.isEmpty()) {
+            getStripe(name).resourceEntries.remove(name);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the cost of aborting a transaction, by transaction number. The
+     * victim of a deadlock is its cheapest transaction; of equally cheap
+     * transactions, the one with the highest transaction number. By default
+     * every transaction costs the same, so the youngest is aborted.
+     */
+    public void setDeadlockVictimCost(LongUnaryOperator victimCost) {
+        this.victimCost = victimCost;
+    }
+
+    /**
+     * Builds the waits-for graph of all queued requests, and aborts a victim
+     * of each cycle in it with a DeadlockException (see
+     * setDeadlockVictimCost). A queued transaction waits for every other
+     * transaction holding a conflicting lock on the resource, and for every
+     * other transaction ahead of it in the resource's queue. All stripes are
+     * locked while the graph is built.
+     *
+     * @return number of transactions aborted
+     */
+    public int detectDeadlocks() {
+        Map<Long, Set<Long>> waitsFor = new HashMap<>();
+        Map<Long, LockRequest> requests = new HashMap<>();
+        List<LockRequest> victims = new ArrayList<>();
+        List<LockRequest> granted = new ArrayList<>();
+        List<LockStripe> locked = Arrays.asList(stripes);
+        for (LockStripe stripe : locked) {
+            stripe.lock.lock();
+        }
+        try {
+            for (LockStripe stripe : stripes) {
+                for (ResourceEntry resource : stripe.resourceEntries.values()) {
+                    List<LockRequest> ahead = new ArrayList<>();
+                    for (LockRequest request : resource.waitingQueue) {
+                        long transNum = request.lock.transactionNum;
+                        Set<Long> edges = waitsFor.computeIfAbsent(transNum, k -> new HashSet<>());
+                        requests.put(transNum, request);
+                        for (Lock lock : resource.locks) {
+                            if (lock.transactionNum != transNum &&
+                                    !LockType.compatible(request.lock.lockType, lock.lockType)) {
+                                edges.add(lock.transactionNum);
+                            }
+                        }
+                        for (LockRequest other : ahead) {
+                            if (other.lock.transactionNum != transNum) {
+                                edges.add(other.lock.transactionNum);
+                            }
+                        }
+                        ahead.add(request);
+                    }
+                }
+            }
+
+            List<Long> cycle;
+            while ((cycle = findCycle(waitsFor)) != null) {
+                long victim = cycle.get(0);
+                long victimCost = this.victimCost.applyAsLong(victim);
+                for (long transNum : cycle) {
+                    long cost = this.victimCost.applyAsLong(transNum);
+                    if (cost < victimCost || (cost == victimCost && transNum > victim)) {
+                        victim = transNum;
+                        victimCost = cost;
+                    }
+                }
+                // the victim no longer waits for anything
+                waitsFor.remove(victim);
+                LockRequest request = requests.get(victim);
+                if (abortRequest(request, new DeadlockException("Transaction " + victim +
+                                 " aborted to break deadlock among transactions " + cycle), granted)) {
+                    victims.add(request);
+                }
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        finishRequests(granted);
+        for (LockRequest request : victims) {
+            request.transaction.unblock();
+        }
+        return victims.size();
+    }
+
+    /**
+     * Finds a cycle in a waits-for graph.
+     * @return the transactions in a cycle, or null if there is none
+     */
+    private static List<Long> findCycle(Map<Long, Set<Long>> waitsFor) {
+        Set<Long> visited = new HashSet<>();
+        for (long start : waitsFor.keySet()) {
+            List<Long> cycle = findCycle(waitsFor, start, new ArrayList<>(), visited);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private static List<Long> findCycle(Map<Long, Set<Long>> waitsFor, long transNum, List<Long> path,
+                                        Set<Long> visited) {
+        int index = path.indexOf(transNum);
+        if (index >= 0) {
+            return new ArrayList<>(path.subList(index, path.size()));
+        }
+        if (!visited.add(transNum)) {
+            // every cycle through this transaction has been looked for already
+            return null;
+        }
+        path.add(transNum);
+        for (long next : waitsFor.getOrDefault(transNum, Collections.emptySet())) {
+            List<Long> cycle = findCycle(waitsFor, next, path, visited);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /**
+     * Aborts every queued request that has been waiting for longer than
+     * `timeoutMillis` with a LockWaitTimeoutException.
+     *
+     * @return number of requests aborted
+     */
+    public int abortTimedOutRequests(long timeoutMillis) {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<LockRequest> aborted = new ArrayList<>();
+        for (LockStripe stripe : stripes) {
+            List<LockRequest> granted = new ArrayList<>();
+            stripe.lock.lock();
+            try {
+                List<LockRequest> timedOut = new ArrayList<>();
+                for (ResourceEntry resource : stripe.resourceEntries.values()) {
+                    for (LockRequest request : resource.waitingQueue) {
+                        if (request.requestTime - deadline < 0) {
+                            timedOut.add(request);
+                        }
+                    }
+                }
+                for (LockRequest request : timedOut) {
+                    LockWaitTimeoutException cause = new LockWaitTimeoutException("Transaction " +
+                            request.lock.transactionNum + " waited for more than " + timeoutMillis +
+                            "ms for " + request.lock);
+                    if (abortRequest(request, cause, granted)) {
+                        aborted.add(request);
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+            finishRequests(granted);
+        }
+        for (LockRequest request : aborted) {
+            request.transaction.unblock();
+        }
+        return aborted.size();
+    }
+
+    /**
+     * Starts a deadlock detector thread, which calls detectDeadlocks every
+     * intervalMillis, and aborts lock requests that have waited for longer than
+     * lockWaitTimeoutMillis (checked at the same interval).
+     *
+     * @param intervalMillis time between checks
+     * @param lockWaitTimeoutMillis time a lock request may wait before it is
+     *                              aborted, or 0 to wait until granted
+     */
+    public synchronized void startDeadlockDetector(long intervalMillis, long lockWaitTimeoutMillis) {
+        if (this.deadlockDetector != null) {
+            throw new IllegalStateException("deadlock detector already running");
+        }
+        this.deadlockDetector = new DeadlockDetector(this, intervalMillis, lockWaitTimeoutMillis);
+    }
+
+    /**
+     * Stops the deadlock detector thread, if it is running.
+     */
+    public void stopDeadlockDetector() {
+        DeadlockDetector detector;
+        synchronized (this) {
+            detector = this.deadlockDetector;
+            this.deadlockDetector = null;
+        }
+        if (detector != null) {
+            detector.close();
+        }
     }
 
     /**
@@ -205,65 +604,48 @@ public class LockManager {
     public void acquireAndRelease(TransactionContext transaction, ResourceName name,
                                   LockType lockType, List<ResourceName> releaseNames)
             throws DuplicateLockRequestException, NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep
-        // all your code within the given synchronized block and are allowed to
-        // move the synchronized block elsewhere if you wish.
-
-        boolean shouldBlock = false;
-
-        synchronized (this) {
-            ResourceEntry resource = getResourceEntry(name); // retrieve the resource of interest from its name
-
-            // ERROR CHECK: check for DuplicateLockRequestException
-            for (Lock resourceLock : resource.locks) { // skims through the resource's locks
-                if (resourceLock.transactionNum == transaction.getTransNum()) { // checks for a resource lock that is held by the transaction
-                    if (!releaseNames.contains(name)) { // checks that releaseNames will not be releasing this resource
-                        throw new DuplicateLockRequestException("A lock on 'name' is already held by 'transaction' and isn't being released");
-                    }
-                }
+        long transNum = transaction.getTransNum();
+        Lock newLock = new Lock(name, lockType, transNum);
+        lockStats.recordRequest(name);
+        List<ResourceName> names = new ArrayList<>(releaseNames);
+        names.add(name);
+        List<LockRequest> granted = new ArrayList<>();
+        LockRequest request = null;
+        List<LockStripe> locked = lockStripes(names);
+        try {
+            ResourceEntry resource = getResourceEntry(name);
+            if (resource.getTransactionLock(transNum) != null && !releaseNames.contains(name)) {
+                throw new DuplicateLockRequestException("A lock on " + name + " is already held by transaction " +
+                                                        transNum + " and isn't being released");
             }
-    
-            // ERROR CHECK: check for NoLockHeldException
-            if (releaseNames.size() > 0) {
-                for (ResourceName releaseName : releaseNames) { // skim through releaseNames for each to-be-released resource
-                    ResourceEntry releaseResource = getResourceEntry(releaseName); // retrieve resourceEntry from resourceName
-                    if (releaseResource.getTransactionLockType(transaction.getTransNum()) == LockType.NL) {
-                        // there is a lock being held on a resource-to-be-released by the transaction
-                        throw new NoLockHeldException("Transaction doesn't hold a lock on one or more of the names in releaseNames.");
-                    }
+            List<Lock> releasedLocks = new ArrayList<>();
+            for (ResourceName releaseName : releaseNames) {
+                Lock released = getTransactionLock(releaseName, transNum);
+                if (released == null) {
+                    throw new NoLockHeldException("Transaction " + transNum + " holds no lock on " + releaseName);
                 }
+                releasedLocks.add(released);
             }
-            
-            // BLOCK CHECK: check for compatibility
-            if (!resource.checkCompatible(lockType, transaction.getTransNum())) {
-                resource.addToQueue(new LockRequest(transaction, new Lock(name, lockType, transaction.getTransNum())), true);
-                shouldBlock = true;
+
+            if (!resource.checkCompatible(lockType, transNum)) {
                 transaction.prepareBlock();
-            }
-        }
-        if (shouldBlock) {
-            transaction.block();
-        }
-        
-        // Acquire
-        ResourceEntry resource = getResourceEntry(name);
-        resource.grantOrUpdateLock(new Lock(name, lockType, transaction.getTransNum()));
-
-        // Release
-        for (ResourceName releasedName : releaseNames) {
-            if (releasedName != name) {
-                ResourceEntry releasedResourceEntry = getResourceEntry(releasedName);
-                Lock toBeRemoved = null;
-                for (Lock releaseLock : releasedResourceEntry.locks) {
-                    if (releaseLock.transactionNum == transaction.getTransNum()) {
-                        toBeRemoved = releaseLock;
+                request = new LockRequest(transaction, newLock, releasedLocks);
+                resource.addToQueue(request, true);
+            } else {
+                resource.grantOrUpdateLock(newLock);
+                for (Lock released : releasedLocks) {
+                    if (!released.name.equals(name)) {
+                        releaseAndProcess(released, granted);
                     }
                 }
-                if (toBeRemoved != null) {
-                    releasedResourceEntry.releaseLock(toBeRemoved);
-                }
             }
+        } finally {
+            unlockStripes(locked);
+        }
+        finishRequests(granted);
+        if (request != null) {
+            // the lock is granted and the old locks released before we are unblocked
+            awaitRequest(request);
         }
     }
 
@@ -280,35 +662,32 @@ public class LockManager {
      */
     public void acquire(TransactionContext transaction, ResourceName name,
                         LockType lockType) throws DuplicateLockRequestException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method. You are not required to keep all your
-        // code within the given synchronized block and are allowed to move the
-        // synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        ResourceEntry resource = getResourceEntry(name);
-        synchronized (this) {
-            // ERROR CHECK: check for DuplicateLockRequestException
-            for (Lock resourceLock : resource.locks) { // skims through the resource's locks
-                if (resourceLock.transactionNum == transaction.getTransNum()) { // checks for a resource lock whose transaction is the same as the input transaction
-                    throw new DuplicateLockRequestException("A lock on 'name' is already held by 'transaction'");
-                }
+        long transNum = transaction.getTransNum();
+        Lock newLock = new Lock(name, lockType, transNum);
+        lockStats.recordRequest(name);
+        LockRequest request = null;
+        LockStripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            ResourceEntry resource = getResourceEntry(name);
+            if (resource.getTransactionLock(transNum) != null) {
+                throw new DuplicateLockRequestException("A lock on " + name + " is already held by transaction " +
+                                                        transNum);
             }
-
-            // BLOCK CHECK: check if the resource cannot accept this new lock or if there are already other locks waiting
-            if ( (!resource.checkCompatible(lockType, transaction.getTransNum())) || (!resource.waitingQueue.isEmpty()) ) {
+            if (!resource.checkCompatible(lockType, transNum) || !resource.waitingQueue.isEmpty()) {
                 transaction.prepareBlock();
-                resource.addToQueue(new LockRequest(transaction, new Lock(name, lockType, transaction.getTransNum())), false);
-                shouldBlock = true;
-                
+                request = new LockRequest(transaction, newLock);
+                resource.addToQueue(request, false);
+            } else {
+                resource.grantOrUpdateLock(newLock);
             }
+        } finally {
+            stripe.lock.unlock();
         }
-        if (shouldBlock) {
-            transaction.block();
+        if (request != null) {
+            // the lock is granted before we are unblocked
+            awaitRequest(request);
         }
-
-        // Once unblocked, grant/update the lock
-        Lock newLock = new Lock(name, lockType, transaction.getTransNum());
-        resource.grantOrUpdateLock(newLock);
     }
 
     /**
@@ -323,18 +702,20 @@ public class LockManager {
      */
     public void release(TransactionContext transaction, ResourceName name)
             throws NoLockHeldException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        synchronized (this) {
-            ResourceEntry resource = getResourceEntry(name);
-
-            if (resource.getTransactionLockType(transaction.getTransNum()) == LockType.NL) {
-                throw new NoLockHeldException("No lock on name is held by transaction");
+        long transNum = transaction.getTransNum();
+        List<LockRequest> granted = new ArrayList<>();
+        LockStripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            Lock lock = getTransactionLock(name, transNum);
+            if (lock == null) {
+                throw new NoLockHeldException("Transaction " + transNum + " holds no lock on " + name);
             }
-
-            resource.releaseLock(new Lock(name, resource.getTransactionLockType(transaction.getTransNum()), transaction.getTransNum()));
-            resource.processQueue();
+            releaseAndProcess(lock, granted);
+        } finally {
+            stripe.lock.unlock();
         }
+        finishRequests(granted);
     }
 
     /**
@@ -361,73 +742,166 @@ public class LockManager {
     public void promote(TransactionContext transaction, ResourceName name,
                         LockType newLockType)
             throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
-        // TODO(proj4_part1): implement
-        // You may modify any part of this method.
-        boolean shouldBlock = false;
-        synchronized (this) {
-            ResourceEntry resource = getResourceEntry(name);
-            List<Lock> resourceLocks = getLocks(name);
-            // ERROR CHECK: throws DuplicateLockRequestException if `transaction` already has a 'newLockType` lock       
-            // ERROR CHECK: throws NoLockHeldException if `transaction` has no lock on `name`  
-            Lock currentTransactionLock = null;
-            for (Lock resourceLock : resourceLocks) {
-                if (resourceLock.transactionNum == transaction.getTransNum()) {
-                    currentTransactionLock = resourceLock;
-                }
+        long transNum = transaction.getTransNum();
+        Lock newLock = new Lock(name, newLockType, transNum);
+        lockStats.recordRequest(name);
+        LockRequest request = null;
+        LockStripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            Lock currentLock = getTransactionLock(name, transNum);
+            if (currentLock == null) {
+                throw new NoLockHeldException("Transaction " + transNum + " holds no lock on " + name);
             }
-            if (currentTransactionLock == null || currentTransactionLock.lockType == LockType.NL) {
-                throw new NoLockHeldException("transaction has no lock");
+            if (currentLock.lockType == newLockType) {
+                throw new DuplicateLockRequestException("Transaction " + transNum + " already holds a " +
+                                                        newLockType + " lock on " + name);
             }
-            if (currentTransactionLock.lockType == newLockType) {
-                throw new DuplicateLockRequestException("Transaction already has a newLockType lock");
+            if (!LockType.substitutable(newLockType, currentLock.lockType)) {
+                throw new InvalidLockException(newLockType + " is not a promotion of " + currentLock.lockType);
             }
-            if (!LockType.substitutable(newLockType, currentTransactionLock.lockType)) {
-                throw new InvalidLockException("requested lock type is not a promotion");
-            }
-            if (!resource.checkCompatible(newLockType, transaction.getTransNum())) {
-                // the lock-to-be-promoted is not compatible with other transactions' locks
-                // we will add the lockrequest to front of queue and prepare to block
-                resource.addToQueue(new LockRequest(transaction, new Lock(name, newLockType, transaction.getTransNum())), true); // 
-                shouldBlock = true;
+            ResourceEntry resource = getResourceEntry(name);
+            if (!resource.checkCompatible(newLockType, transNum)) {
                 transaction.prepareBlock();
+                request = new LockRequest(transaction, newLock);
+                resource.addToQueue(request, true);
+            } else {
+                resource.grantOrUpdateLock(newLock);
             }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (request != null) {
+            // the lock is promoted before we are unblocked
+            awaitRequest(request);
         }
-        if (shouldBlock) {
-            transaction.block();
-        }       
-        // Once unblocked, promote the lock
-        ResourceEntry resource = getResourceEntry(name);
-        resource.grantOrUpdateLock(new Lock(name, newLockType, transaction.getTransNum()));
     }
 
     /**
      * Return the type of lock `transaction` has on `name` or NL if no lock is
-     * held.
-     */
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
-        // TODO(proj4_part1): implement
-        ResourceEntry resourceEntry = getResourceEntry(name);
-        for (Lock resourceLock : resourceEntry.locks) {
-            if (resourceLock.transactionNum == transaction.getTransNum()) {
-                return resourceLock.lockType;
-            }
+     * held. Takes no locks.
+     */
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
+        TransactionLocks heldLocks = transactionLocks.get(transaction.getTransNum());
+        if (heldLocks == null) {
+            return LockType.NL;
         }
-        return LockType.NL;
+        return heldLocks.lockTypes.getOrDefault(name, LockType.NL);
+    }
+
+    /**
+     * Returns the cache of effective lock types of `transaction`, for
+     * LockContext to fill in. The cache is replaced by an empty one whenever
+     * a lock of the transaction is granted, changed or released, so entries
+     * put into the map returned here before such a change are never seen.
+     * Returns null if `transaction` holds no locks: there is nothing to cache.
+     */
+    Map<ResourceName, LockType> getEffectiveLockTypeCache(TransactionContext transaction) {
+        TransactionLocks heldLocks = transactionLocks.get(transaction.getTransNum());
+        return heldLocks == null ? null : heldLocks.effectiveLockTypes;
     }
 
     /**
      * Returns the list of locks held on `name`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        LockStripe stripe = getStripe(name);
+        stripe.lock.lock();
+        try {
+            ResourceEntry resource = stripe.resourceEntries.get(name);
+            return resource == null ? new ArrayList<>() : new ArrayList<>(resource.locks);
+        } finally {
+            stripe.lock.unlock();
+        }
     }
 
     /**
      * Returns the list of locks held by `transaction`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
-        return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
-                Collections.emptyList()));
+    public List<Lock> getLocks(TransactionContext transaction) {
+        TransactionLocks heldLocks = transactionLocks.get(transaction.getTransNum());
+        return heldLocks == null ? new ArrayList<>() : heldLocks.getLocks();
+    }
+
+    /**
+     * Records an escalation (see LockContext#escalate).
+     * @param numReleased number of descendant locks released by the escalation
+     */
+    void recordEscalation(int numReleased) {
+        numEscalations.incrementAndGet();
+        numEscalatedLocks.addAndGet(numReleased);
+    }
+
+    /**
+     * @return number of locks currently granted, over all transactions
+     */
+    public long getNumLocks() {
+        return numLocks.get();
+    }
+
+    /**
+     * @return largest number of locks granted at once
+     */
+    public long getMaxNumLocks() {
+        return maxNumLocks.get();
+    }
+
+    /**
+     * @return number of lock escalations
+     */
+    public long getNumEscalations() {
+        return numEscalations.get();
+    }
+
+    /**
+     * @return number of descendant locks released by lock escalations
+     */
+    public long getNumEscalatedLocks() {
+        return numEscalatedLocks.get();
+    }
+
+    /**
+     * @return contention statistics of the resources
+     */
+    public LockStats getLockStats() {
+        return lockStats;
+    }
+
+    /**
+     * @return the `n` requests that have been waiting the longest, longest
+     * waiting first
+     */
+    public List<LockStats.Waiter> getLongestWaiters(int n) {
+        long now = System.nanoTime();
+        List<LockStats.Waiter> waiters = new ArrayList<>();
+        for (LockStripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (ResourceEntry resource : stripe.resourceEntries.values()) {
+                    for (LockRequest request : resource.waitingQueue) {
+                        waiters.add(new LockStats.Waiter(request.lock.transactionNum, request.lock.name,
+                                                         request.lock.lockType, now - request.requestTime));
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        waiters.sort(Comparator.comparingLong(LockStats.Waiter::getWaitNanos).reversed());
+        return new ArrayList<>(waiters.subList(0, Math.min(n, waiters.size())));
+    }
+
+    /**
+     * @return statistics of the `n` resources that requests have spent the
+     * most time waiting for, counting requests that are still waiting, most
+     * contended first
+     */
+    public List<LockStats.ResourceStats> getMostContendedResources(int n) {
+        Map<ResourceName, Long> currentWaitNanos = new HashMap<>();
+        for (LockStats.Waiter waiter : getLongestWaiters(Integer.MAX_VALUE)) {
+            currentWaitNanos.merge(waiter.getName(), waiter.getWaitNanos(), Long::sum);
+        }
+        return lockStats.getMostContended(n, currentWaitNanos);
     }
 
     /**
@@ -15,6 +15,11 @@ class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    // System.nanoTime() when the request was made.
+    final long requestTime = System.nanoTime();
+    // Set if the request is taken off the queue without being granted, to be
+    // thrown by the transaction once it is unblocked.
+    RuntimeException abortCause;
 
     // Lock request for `lock`, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
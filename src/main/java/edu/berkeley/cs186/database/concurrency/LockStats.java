@@ -0,0 +1,351 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention statistics of a lock manager: for each resource, the number of
+ * lock requests, how many of them had to wait, how long they waited (in a
+ * histogram), and how long the resource's queue got. Counters are updated
+ * without locking, so that recording costs little next to the lock operation
+ * itself. See LockManager#getLockStats.
+ *
+ * Statistics are kept for at most maxResources resources: once there are more,
+ * the resources no request is queued on are dropped, those that never had to
+ * wait first, so that a long run touching many pages does not grow the map
+ * without bound.
+ */
+public class LockStats {
+    /**
+     * Histogram of wait times, in power of two buckets: bucket 0 counts waits
+     * under 2 microseconds, and bucket i > 0 counts waits of [2^i, 2^(i+1))
+     * microseconds, except for the last bucket, which counts all longer waits.
+     */
+    public static class WaitHistogram {
+        static final int NUM_BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+        static int bucket(long waitNanos) {
+            long micros = waitNanos / 1000;
+            int bucket = micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, NUM_BUCKETS - 1);
+        }
+
+        void record(long waitNanos) {
+            buckets.incrementAndGet(bucket(waitNanos));
+        }
+
+        void reset() {
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                buckets.set(i, 0);
+            }
+        }
+
+        /**
+         * @return number of waits in each bucket
+         */
+        public long[] getCounts() {
+            long[] counts = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * @return smallest wait time, in microseconds, that `bucket` counts
+         */
+        public static long getLowerBoundMicros(int bucket) {
+            return bucket == 0 ? 0 : 1L << bucket;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("[");
+            long[] counts = getCounts();
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(">=").append(getLowerBoundMicros(i)).append("us: ").append(counts[i]);
+            }
+            return builder.append("]").toString();
+        }
+    }
+
+    /**
+     * Contention statistics of a single resource.
+     */
+    public static class ResourceStats {
+        private final ResourceName name;
+        private final LongAdder numRequests = new LongAdder();
+        private final LongAdder numWaits = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicLong queueLength = new AtomicLong();
+        private final AtomicLong maxQueueLength = new AtomicLong();
+        private final WaitHistogram waitHistogram = new WaitHistogram();
+
+        ResourceStats(ResourceName name) {
+            this.name = name;
+        }
+
+        public ResourceName getName() {
+            return name;
+        }
+
+        /**
+         * @return number of lock requests (acquires, promotions and
+         * acquire-and-releases) on the resource
+         */
+        public long getNumRequests() {
+            return numRequests.sum();
+        }
+
+        /**
+         * @return number of requests that were queued and have since been
+         * granted or aborted
+         */
+        public long getNumWaits() {
+            return numWaits.sum();
+        }
+
+        /**
+         * @return total time spent waiting by requests counted in getNumWaits
+         */
+        public long getTotalWaitNanos() {
+            return totalWaitNanos.sum();
+        }
+
+        /**
+         * @return number of requests currently queued on the resource
+         */
+        public long getQueueLength() {
+            return queueLength.get();
+        }
+
+        /**
+         * @return longest the resource's queue has been
+         */
+        public long getMaxQueueLength() {
+            return maxQueueLength.get();
+        }
+
+        public WaitHistogram getWaitHistogram() {
+            return waitHistogram;
+        }
+
+        private void reset() {
+            numRequests.reset();
+            numWaits.reset();
+            totalWaitNanos.reset();
+            maxQueueLength.set(queueLength.get());
+            waitHistogram.reset();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + getNumRequests() + " requests, " + getNumWaits() + " waits (" +
+                   getTotalWaitNanos() / 1000 + "us), queue length " + getQueueLength() + " (max " +
+                   getMaxQueueLength() + "), waits " + waitHistogram;
+        }
+    }
+
+    /**
+     * A lock request that is waiting in a queue.
+     */
+    public static class Waiter {
+        private final long transNum;
+        private final ResourceName name;
+        private final LockType lockType;
+        private final long waitNanos;
+
+        Waiter(long transNum, ResourceName name, LockType lockType, long waitNanos) {
+            this.transNum = transNum;
+            this.name = name;
+            this.lockType = lockType;
+            this.waitNanos = waitNanos;
+        }
+
+        public long getTransNum() {
+            return transNum;
+        }
+
+        public ResourceName getName() {
+            return name;
+        }
+
+        public LockType getLockType() {
+            return lockType;
+        }
+
+        /**
+         * @return time the request has waited so far
+         */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Transaction " + transNum + " waiting " + waitNanos / 1000 + "us for " + lockType + "(" + name +
+                   ")";
+        }
+    }
+
+    // default number of resources to keep statistics of
+    static final int DEFAULT_MAX_RESOURCES = 10000;
+
+    private final Map<ResourceName, ResourceStats> resourceStats = new ConcurrentHashMap<>();
+    private final WaitHistogram waitHistogram = new WaitHistogram();
+    private final int maxResources;
+    // set while a thread is dropping statistics, so that only one does
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    public LockStats() {
+        this(DEFAULT_MAX_RESOURCES);
+    }
+
+    /**
+     * @param maxResources number of resources to keep statistics of
+     */
+    LockStats(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    private ResourceStats getResourceStats(ResourceName name) {
+        ResourceStats stats = resourceStats.get(name);
+        if (stats != null) {
+            return stats;
+        }
+        if (resourceStats.size() >= maxResources) {
+            prune();
+        }
+        return resourceStats.computeIfAbsent(name, ResourceStats::new);
+    }
+
+    /**
+     * Drops the statistics of resources with no queued requests that never
+     * had to wait, and then, if there are still too many, of all resources
+     * with no queued requests.
+     */
+    private void prune() {
+        if (!pruning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            dropIdle(true);
+            if (resourceStats.size() >= maxResources) {
+                dropIdle(false);
+            }
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    /**
+     * Drops the statistics of resources with no queued requests (and, if
+     * uncontendedOnly is set, that never had to wait). Queue lengths are only
+     * changed inside compute, so a statistic is never dropped while a request
+     * is being queued on its resource.
+     */
+    private void dropIdle(boolean uncontendedOnly) {
+        for (ResourceName name : resourceStats.keySet()) {
+            resourceStats.computeIfPresent(name, (n, stats) -> {
+                boolean idle = stats.getQueueLength() == 0 && (!uncontendedOnly || stats.getNumWaits() == 0);
+                return idle ? null : stats;
+            });
+        }
+    }
+
+    /**
+     * Records a lock request on `name`.
+     */
+    void recordRequest(ResourceName name) {
+        getResourceStats(name).numRequests.increment();
+    }
+
+    /**
+     * Records a request being queued on `name`.
+     */
+    void recordQueued(ResourceName name) {
+        if (resourceStats.size() >= maxResources && !resourceStats.containsKey(name)) {
+            prune();
+        }
+        resourceStats.compute(name, (n, stats) -> {
+            if (stats == null) {
+                stats = new ResourceStats(n);
+            }
+            stats.maxQueueLength.accumulateAndGet(stats.queueLength.incrementAndGet(), Math::max);
+            return stats;
+        });
+    }
+
+    /**
+     * Records a request taken off the queue of `name` (granted or aborted)
+     * after waiting `waitNanos`.
+     */
+    void recordWait(ResourceName name, long waitNanos) {
+        // the resource has a queued request, so its statistics are still there
+        resourceStats.computeIfPresent(name, (n, stats) -> {
+            stats.queueLength.decrementAndGet();
+            stats.numWaits.increment();
+            stats.totalWaitNanos.add(waitNanos);
+            stats.waitHistogram.record(waitNanos);
+            return stats;
+        });
+        waitHistogram.record(waitNanos);
+    }
+
+    /**
+     * @return statistics of `name`, or null if no lock on it was requested
+     * since the statistics were last reset or dropped
+     */
+    public ResourceStats getStats(ResourceName name) {
+        return resourceStats.get(name);
+    }
+
+    /**
+     * @return histogram of the wait times of all requests that waited
+     */
+    public WaitHistogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
+    /**
+     * @param currentWaitNanos time waited so far by requests still waiting, by resource
+     * @return the `n` resources that requests spent the most time waiting for
+     * (including requests still waiting), most contended first
+     */
+    List<ResourceStats> getMostContended(int n, Map<ResourceName, Long> currentWaitNanos) {
+        Map<ResourceStats, Long> waitNanos = new HashMap<>();
+        for (ResourceStats stats : resourceStats.values()) {
+            long wait = stats.getTotalWaitNanos() + currentWaitNanos.getOrDefault(stats.getName(), 0L);
+            if (wait > 0 || stats.getNumWaits() > 0 || stats.getQueueLength() > 0) {
+                waitNanos.put(stats, wait);
+            }
+        }
+        List<ResourceStats> contended = new ArrayList<>(waitNanos.keySet());
+        contended.sort(Comparator.comparing((ResourceStats stats) -> waitNanos.get(stats)).reversed());
+        return new ArrayList<>(contended.subList(0, Math.min(n, contended.size())));
+    }
+
+    /**
+     * Clears all statistics, except for the lengths of the queues: resources
+     * with no queued requests are dropped.
+     */
+    public void reset() {
+        dropIdle(false);
+        for (ResourceStats stats : resourceStats.values()) {
+            stats.reset();
+        }
+        waitHistogram.reset();
+    }
+}
@@ -42,9 +42,27 @@ public class LockUtil {
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction == null || lockContext == null) return;
 
-        // You may find these variables useful
-        LockContext parentContext = lockContext.parentContext();
+        // Snapshot transactions read old versions of pages, which no one else
+        // writes, so they need no locks
+        if (transaction.getSnapshot() != null) return;
+
+        // The common case, a lock already held, costs one cache lookup
         LockType effectiveLockType = lockContext.getEffectiveLockType(transaction);
+        if (LockType.substitutable(effectiveLockType, requestType)) {
+            return;
+        }
+
+        // Trade the transaction's locks on siblings for a lock on the parent if
+        // the parent's escalation policy says so: that lock may be enough
+        LockContext parentContext = lockContext.parentContext();
+        if (parentContext != null && parentContext.autoEscalate(transaction)) {
+            effectiveLockType = lockContext.getEffectiveLockType(transaction);
+            if (LockType.substitutable(effectiveLockType, requestType)) {
+                return;
+            }
+        }
+
+        // You may find these variables useful
         LockType explicitLockType = lockContext.getExplicitLockType(transaction);
 
         // TODO(proj4_part2): implement
@@ -55,10 +73,6 @@ public class LockUtil {
         //  then it is redundant to acquire a S lock on the current resource because we already have the requested permissions on it)
         // 2) change current lock to S
         // 3)
-        if (LockType.substitutable(effectiveLockType, requestType)) {
-            return;
-        }
-        
         if (requestType == LockType.S) {
             // 1. do all valid operations on the current resource
             // lockContext.escalate(transaction);
@@ -0,0 +1,12 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction that waited for a lock for longer than the lock
+ * manager's lock wait timeout. The lock was not granted.
+ */
+@SuppressWarnings("serial")
+public class LockWaitTimeoutException extends RuntimeException {
+    LockWaitTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,256 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optimistic concurrency control, an alternative to strict two-phase locking
+ * for workloads where transactions rarely conflict (see the Database
+ * constructor taking an OptimisticConcurrencyControl). Transactions take no
+ * locks; instead, each transaction tracks the records and tables it reads and
+ * writes, and is validated when it commits (backward validation): it commits
+ * only if nothing it read was written by a transaction that ended after it
+ * began, or by a transaction that is still running. Validation and the
+ * commit's deferred writes run one transaction at a time.
+ *
+ * Updates and inserts are made in place, and undone if the transaction
+ * aborts; deletes are deferred to commit (until then, the transaction's own
+ * record reads fail, but its scans still return the record). Two running
+ * transactions never write the same record: the second writer fails
+ * immediately. Scans read whole tables, and conflict with every write to the
+ * table. Schema changes are not validated.
+ */
+public class OptimisticConcurrencyControl {
+    // Number of transactions that have ended (the current time). Guarded by this.
+    private long clock = 0;
+    // Time at which a transaction that wrote each table or record last ended
+    private final Map<Object, Long> lastWrites = new ConcurrentHashMap<>();
+    // Running transaction that wrote each record
+    private final Map<Object, Long> recordWriters = new ConcurrentHashMap<>();
+    // Number of running transactions that wrote each table. Guarded by this.
+    private final Map<String, Integer> tableWriters = new HashMap<>();
+    // Number of running transactions by start time. Guarded by this.
+    private final SortedMap<Long, Integer> startTimes = new TreeMap<>();
+    // Size of lastWrites at which to next drop the writes no running transaction
+    // can conflict with. Guarded by this.
+    private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+
+    private static final int MIN_PRUNE_THRESHOLD = 1024;
+
+    private final AtomicLong numCommits = new AtomicLong();
+    private final AtomicLong numAborts = new AtomicLong();
+
+    /**
+     * Begins tracking a transaction.
+     *
+     * @param transNum number of the transaction
+     * @return the transaction's read and write sets
+     */
+    public synchronized TransactionState begin(long transNum) {
+        startTimes.merge(clock, 1, Integer::sum);
+        return new TransactionState(transNum, clock);
+    }
+
+    /**
+     * @return number of transactions that passed validation
+     */
+    public long getNumCommits() {
+        return numCommits.get();
+    }
+
+    /**
+     * @return number of transactions that aborted, because they failed
+     * validation or otherwise
+     */
+    public long getNumAborts() {
+        return numAborts.get();
+    }
+
+    private static Object recordKey(String tableName, RecordId rid) {
+        return new Pair<>(tableName, rid);
+    }
+
+    // Drops the last write times that are no later than every running
+    // transaction's start time, as they fail no validation. Must hold this.
+    private void prune() {
+        if (lastWrites.size() < pruneThreshold) {
+            return;
+        }
+        long horizon = startTimes.isEmpty() ? clock : startTimes.firstKey();
+        lastWrites.values().removeIf(time -> time <= horizon);
+        pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, 2 * lastWrites.size());
+    }
+
+    private boolean writtenSince(Object key, long time) {
+        Long lastWrite = lastWrites.get(key);
+        return lastWrite != null && lastWrite > time;
+    }
+
+    /**
+     * The read and write sets of a transaction.
+     */
+    public class TransactionState {
+        private final long transNum;
+        private final long startTime;
+        private final Set<Object> readRecords = new HashSet<>();
+        private final Set<String> readTables = new HashSet<>();
+        private final Set<Object> writtenRecords = new HashSet<>();
+        private final Set<String> writtenTables = new HashSet<>();
+        // Undoes the in-place writes, in order
+        private final Deque<Runnable> undos = new ArrayDeque<>();
+        // Writes deferred to commit, in order
+        private final List<Runnable> deferredWrites = new ArrayList<>();
+        private final Set<Object> deletedRecords = new HashSet<>();
+        // Write conflict that dooms the transaction, if any
+        private String conflict = null;
+        private boolean ended = false;
+
+        private TransactionState(long transNum, long startTime) {
+            this.transNum = transNum;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Adds a record to the read set.
+         */
+        public void readRecord(String tableName, RecordId rid) {
+            readRecords.add(recordKey(tableName, rid));
+        }
+
+        /**
+         * Adds a whole table (e.g. for a scan) to the read set.
+         */
+        public void readTable(String tableName) {
+            readTables.add(tableName);
+        }
+
+        /**
+         * @return whether the transaction deleted a record (the delete is only
+         * made when the transaction commits)
+         */
+        public boolean isDeleted(String tableName, RecordId rid) {
+            return deletedRecords.contains(recordKey(tableName, rid));
+        }
+
+        /**
+         * Adds a record, written in place, to the write set.
+         *
+         * @param undo undoes the write if the transaction aborts
+         * @throws ValidationException if another running transaction wrote the record
+         */
+        public void writeRecord(String tableName, RecordId rid, Runnable undo) {
+            addWrite(tableName, rid);
+            undos.push(undo);
+        }
+
+        /**
+         * Adds a record, deleted when the transaction commits, to the write set.
+         *
+         * @param delete deletes the record
+         * @throws ValidationException if another running transaction wrote the record
+         */
+        public void deleteRecord(String tableName, RecordId rid, Runnable delete) {
+            addWrite(tableName, rid);
+            deletedRecords.add(recordKey(tableName, rid));
+            deferredWrites.add(delete);
+        }
+
+        private void addWrite(String tableName, RecordId rid) {
+            Object key = recordKey(tableName, rid);
+            if (writtenRecords.add(key)) {
+                Long writer = recordWriters.putIfAbsent(key, transNum);
+                if (writer != null) {
+                    writtenRecords.remove(key);
+                    conflict = "transaction " + writer + " wrote record " + rid + " of " + tableName;
+                    throw new ValidationException("transaction " + transNum + " conflicts with " + conflict);
+                }
+            }
+            if (writtenTables.add(tableName)) {
+                synchronized (OptimisticConcurrencyControl.this) {
+                    tableWriters.merge(tableName, 1, Integer::sum);
+                }
+            }
+        }
+
+        /**
+         * Validates the transaction and, if it is valid, makes its deferred
+         * writes. If it is not, its writes are undone.
+         *
+         * @throws ValidationException if the transaction failed validation
+         */
+        public void commit() {
+            synchronized (OptimisticConcurrencyControl.this) {
+                String conflict = validate();
+                if (conflict == null) {
+                    for (Runnable write : deferredWrites) {
+                        write.run();
+                    }
+                    end();
+                    numCommits.incrementAndGet();
+                    return;
+                }
+                abort();
+                throw new ValidationException("transaction " + transNum + " failed validation: " + conflict);
+            }
+        }
+
+        /**
+         * Undoes the transaction's writes.
+         */
+        public void abort() {
+            while (!undos.isEmpty()) {
+                undos.pop().run();
+            }
+            synchronized (OptimisticConcurrencyControl.this) {
+                if (end()) {
+                    numAborts.incrementAndGet();
+                }
+            }
+        }
+
+        private String validate() {
+            if (conflict != null) {
+                return conflict;
+            }
+            for (Object key : readRecords) {
+                Long writer = recordWriters.get(key);
+                if (writtenSince(key, startTime) || (writer != null && writer != transNum)) {
+                    return "record " + ((Pair<?, ?>) key).getSecond() + " of " +
+                           ((Pair<?, ?>) key).getFirst() + " was written";
+                }
+            }
+            for (String tableName : readTables) {
+                int numWriters = tableWriters.getOrDefault(tableName, 0) - (writtenTables.contains(tableName) ? 1 : 0);
+                if (writtenSince(tableName, startTime) || numWriters > 0) {
+                    return "table " + tableName + " was written";
+                }
+            }
+            return null;
+        }
+
+        // Publishes the transaction's writes (whether made or undone), so that
+        // running transactions that read them fail validation.
+        private boolean end() {
+            if (ended) {
+                return false;
+            }
+            ended = true;
+            ++clock;
+            for (Object key : writtenRecords) {
+                lastWrites.put(key, clock);
+                recordWriters.remove(key);
+            }
+            for (String tableName : writtenTables) {
+                lastWrites.put(tableName, clock);
+                tableWriters.computeIfPresent(tableName, (t, n) -> n == 1 ? null : n - 1);
+            }
+            startTimes.computeIfPresent(startTime, (t, n) -> n == 1 ? null : n - 1);
+            prune();
+            return true;
+        }
+    }
+}
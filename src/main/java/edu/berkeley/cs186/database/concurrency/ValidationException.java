@@ -0,0 +1,15 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown when a transaction running under optimistic concurrency control
+ * conflicts with another transaction: when it writes a record that another
+ * running transaction has written (the transaction should then be rolled
+ * back, as it can no longer commit), or when it fails validation at commit
+ * (its writes have then been undone). Either way, it may be retried.
+ */
+@SuppressWarnings("serial")
+public class ValidationException extends RuntimeException {
+    ValidationException(String message) {
+        super(message);
+    }
+}
@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -271,4 +272,20 @@ abstract class BPlusNode {
             p.unpin();
         }
     }
+
+    /**
+     * Compares the key of type `keySchema` serialized in `buf` at `offset`
+     * with `key`, as DataBox.compareTo would. Int and long keys are compared
+     * in place, without deserializing them.
+     */
+    static int compareSerializedKey(Type keySchema, Buffer buf, int offset, DataBox key) {
+        switch (keySchema.getTypeId()) {
+            case INT:
+                return Integer.compare(buf.getInt(offset), key.getInt());
+            case LONG:
+                return Long.compare(buf.getLong(offset), key.getLong());
+            default:
+                return DataBox.fromBytes(buf.duplicate().position(offset), keySchema).compareTo(key);
+        }
+    }
 }
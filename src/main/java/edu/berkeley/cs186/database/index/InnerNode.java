@@ -213,27 +213,58 @@ class InnerNode extends BPlusNode {
      * a, b, c).
      */
     static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) <= 0) {
-                ++n;
+        // Binary search for the first element greater than x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) <= 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) < 0) {
-                ++n;
+        // Binary search for the first element greater than or equal to x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) < 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
+    }
+
+    /**
+     * Returns the page number of the child to visit when searching for `key`
+     * in the inner node serialized in `buf` (the buffer of its pinned page;
+     * see toBytes), i.e. child numLessThanEqual(key, keys). The serialized
+     * keys are binary searched in place, so that an index probe does not have
+     * to deserialize every key of every inner node on its way down.
+     */
+    static long getChildPageNum(BPlusTreeMetadata metadata, Buffer buf, DataBox key) {
+        Type keySchema = metadata.getKeySchema();
+        int keySize = keySchema.getSizeInBytes();
+        int keysOffset = 1 + Integer.BYTES;
+        int n = buf.getInt(1);
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareSerializedKey(keySchema, buf, keysOffset + mid * keySize, key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return buf.getLong(keysOffset + n * keySize + lo * Long.BYTES);
     }
 
     // Pretty Printing /////////////////////////////////////////////////////////
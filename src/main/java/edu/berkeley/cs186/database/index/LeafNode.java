@@ -187,8 +187,36 @@ class LeafNode extends BPlusNode {
     // Iterators ///////////////////////////////////////////////////////////////
     /** Return the record id associated with `key`. */
     Optional<RecordId> getKey(DataBox key) {
-        int index = keys.indexOf(key);
-        return index == -1 ? Optional.empty() : Optional.of(rids.get(index));
+        int index = Collections.binarySearch(keys, key);
+        return index < 0 ? Optional.empty() : Optional.of(rids.get(index));
+    }
+
+    /**
+     * Returns the record id associated with `key` in the leaf serialized in
+     * `buf` (the buffer of its pinned page; see toBytes). The serialized
+     * entries are binary searched in place, and only the matching record id is
+     * deserialized.
+     */
+    static Optional<RecordId> getKey(BPlusTreeMetadata metadata, Buffer buf, DataBox key) {
+        Type keySchema = metadata.getKeySchema();
+        int keySize = keySchema.getSizeInBytes();
+        int entrySize = keySize + RecordId.getSizeInBytes();
+        int entriesOffset = 1 + Long.BYTES + Integer.BYTES;
+        int lo = 0;
+        int hi = buf.getInt(1 + Long.BYTES) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int offset = entriesOffset + mid * entrySize;
+            int cmp = compareSerializedKey(keySchema, buf, offset, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return Optional.of(RecordId.fromBytes(buf.duplicate().position(offset + keySize)));
+            }
+        }
+        return Optional.empty();
     }
 
     /**
@@ -57,6 +57,22 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void readPage(long page, byte[] buf);
 
+    /**
+     * Reads consecutive pages of a partition. By default the pages are read one
+     * at a time; implementations may read runs of pages with a single I/O.
+     *
+     * @param page number of the first page to be read
+     * @param bufs byte buffers whose contents will be filled with the data of the
+     *             pages, in page order
+     * @return number of I/Os used to read the pages
+     */
+    default int readPages(long page, byte[][] bufs) {
+        for (int i = 0; i < bufs.length; ++i) {
+            readPage(page + i, bufs[i]);
+        }
+        return bufs.length;
+    }
+
     /**
      * Writes to a page.
      *
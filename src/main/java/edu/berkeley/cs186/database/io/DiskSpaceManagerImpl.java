@@ -89,6 +89,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                if (f.isDirectory()) {
+                    // e.g. the dedicated log directory
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -288,6 +292,32 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public int readPages(long page, byte[][] bufs) {
+        for (byte[] buf : bufs) {
+            if (buf.length != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        this.managerLock.lock();
+        PartitionHandle pi;
+        try {
+            pi = getPartInfo(partNum);
+            pi.partitionLock.lock();
+        } finally {
+            this.managerLock.unlock();
+        }
+        try {
+            return pi.readPages(pageNum, bufs);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
     @Override
     public void writePage(long page, byte[] buf) {
         if (buf.length != PAGE_SIZE) {
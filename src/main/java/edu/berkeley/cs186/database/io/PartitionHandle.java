@@ -243,6 +243,41 @@ class PartitionHandle implements AutoCloseable {
         this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
     }
 
+    /**
+     * Reads in consecutive data pages, with a single read for each run of them
+     * that is not broken up by a header page. Assumes that the partition lock is
+     * held.
+     * @param pageNum data page number of the first page to read in
+     * @param bufs output buffers to be filled with the pages - assumed to be page size
+     * @return number of reads
+     */
+    int readPages(int pageNum, byte[][] bufs) throws IOException {
+        for (int i = 0; i < bufs.length; ++i) {
+            if (this.isNotAllocatedPage(pageNum + i)) {
+                throw new PageException("page " + (pageNum + i) + " is not allocated");
+            }
+        }
+        int numReads = 0;
+        int i = 0;
+        while (i < bufs.length) {
+            int end = Math.min(bufs.length, i + DATA_PAGES_PER_HEADER - (pageNum + i) % DATA_PAGES_PER_HEADER);
+            ByteBuffer b = ByteBuffer.allocate((end - i) * PAGE_SIZE);
+            long offset = PartitionHandle.dataPageOffset(pageNum + i);
+            while (b.hasRemaining()) {
+                if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                    // pages past the end of the file have never been written
+                    break;
+                }
+            }
+            for (int j = i; j < end; ++j) {
+                System.arraycopy(b.array(), (j - i) * PAGE_SIZE, bufs[j], 0, PAGE_SIZE);
+            }
+            ++numReads;
+            i = end;
+        }
+        return numReads;
+    }
+
     /**
      * Writes to a data page. Assumes that the partition lock is held.
      * @param pageNum data page number to write to
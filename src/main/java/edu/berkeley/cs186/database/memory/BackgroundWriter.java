@@ -0,0 +1,76 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Background writer for the buffer manager. Every `intervalMillis`, writes out
+ * the dirty pages among the next `numCleanFrames` frames of each buffer
+ * partition that the eviction policy would evict, so that a foreground miss
+ * usually finds a clean victim and can reuse its frame without first flushing
+ * the log and writing the page. See BufferManager#writeAhead.
+ */
+class BackgroundWriter implements AutoCloseable {
+    private final BufferManager bufferManager;
+    private final int numCleanFrames;
+    private final long intervalMillis;
+    private final Thread thread;
+    // guarded by this
+    private boolean running;
+
+    /**
+     * Starts the background writer thread.
+     *
+     * @param bufferManager buffer manager to write pages of
+     * @param numCleanFrames number of frames per partition to keep clean
+     * @param intervalMillis time between rounds
+     */
+    BackgroundWriter(BufferManager bufferManager, int numCleanFrames, long intervalMillis) {
+        if (numCleanFrames < 1 || intervalMillis < 1) {
+            throw new IllegalArgumentException("background writer needs a positive number of frames " +
+                                               "and interval, got " + numCleanFrames + " frames every " +
+                                               intervalMillis + "ms");
+        }
+        this.bufferManager = bufferManager;
+        this.numCleanFrames = numCleanFrames;
+        this.intervalMillis = intervalMillis;
+        this.running = true;
+        this.thread = new Thread(this::run, "background-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            this.bufferManager.writeAhead(this.numCleanFrames);
+            synchronized (this) {
+                if (!this.running) {
+                    return;
+                }
+                try {
+                    // not Thread.sleep + interrupt: interrupting a thread in the middle of
+                    // a write closes the partition's file channel
+                    this.wait(this.intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!this.running) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background writer, waiting for the current round to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.running = false;
+            this.notifyAll();
+        }
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Buffer access strategy for operators that touch a large number of pages
+ * once, such as sequential scans, sort runs and hash partitions.
+ *
+ * Pages that such an operator loads into the buffer pool are kept in a small
+ * private ring of frames. Once the ring is full, a page loaded through the
+ * strategy reuses a frame of the ring (if it is unpinned) instead of a frame
+ * chosen by the eviction policy, so the operator can only ever push
+ * `ringSize` pages of everyone else's working set out of the buffer pool.
+ * Pages that are already loaded are hit as usual and never join the ring.
+ *
+ * A strategy is not thread-safe, and should be used by one operator at a time.
+ */
+public class BufferAccessStrategy {
+    // default number of frames in a ring
+    public static final int DEFAULT_RING_SIZE = 8;
+
+    // frames loaded through this strategy, oldest at ring[next]
+    private final BufferManager.Frame[] ring;
+    private int next;
+
+    public BufferAccessStrategy() {
+        this(DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param ringSize number of frames in the ring
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ring must have at least one frame, got " + ringSize);
+        }
+        this.ring = new BufferManager.Frame[ringSize];
+        this.next = 0;
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int getRingSize() {
+        return this.ring.length;
+    }
+
+    /**
+     * @param i position in the ring, 0 being the oldest frame
+     * @return the i-th oldest frame of the ring, or null if there is none. The frame
+     * may since have been evicted or reused by the buffer manager.
+     */
+    BufferManager.Frame getFrame(int i) {
+        return this.ring[(this.next + i) % this.ring.length];
+    }
+
+    /**
+     * Puts a newly loaded frame into the ring, in place of the frame it reused.
+     * @param i position in the ring of the reused frame, 0 being the oldest frame
+     * @param frame newly loaded frame
+     */
+    void replace(int i, BufferManager.Frame frame) {
+        this.ring[(this.next + i) % this.ring.length] = frame;
+        if (i == 0) {
+            this.next = (this.next + 1) % this.ring.length;
+        }
+    }
+
+    /**
+     * Puts a newly loaded frame into the ring, in place of the oldest frame. The
+     * oldest frame is left in the buffer pool, to be evicted normally.
+     * @param frame newly loaded frame
+     */
+    void add(BufferManager.Frame frame) {
+        this.replace(0, frame);
+    }
+}
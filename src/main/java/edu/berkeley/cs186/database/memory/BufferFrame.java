@@ -1,35 +1,83 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
+    // pin count of a frame that is claimed (see claim)
+    private static final int CLAIMED = Integer.MIN_VALUE;
+
     Object tag = null;
-    private int pinCount = 0;
+    // Number of pins, or CLAIMED. Changed with compare-and-set, so that frames
+    // can be pinned without locking them, and read without locking (e.g. by
+    // eviction policies).
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        if (!pinUnlessClaimed()) {
+            throw new IllegalStateException("cannot pin claimed frame");
+        }
+    }
+
+    /**
+     * Pins the buffer frame, unless it is claimed.
+     * @return whether the frame was pinned
+     */
+    boolean pinUnlessClaimed() {
+        int count;
+        do {
+            count = pinCount.get();
+            if (count == CLAIMED) {
+                return false;
+            }
+        } while (!pinCount.compareAndSet(count, count + 1));
+        return true;
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
-        }
-        --pinCount;
+        int count;
+        do {
+            count = pinCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+        } while (!pinCount.compareAndSet(count, count - 1));
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
+    }
+
+    /**
+     * Claims the buffer frame if it is not pinned: a claimed frame cannot be
+     * pinned until the claim is released. Frames are claimed while a page is
+     * loaded into them, and for good once they are picked for eviction.
+     * @return whether the frame was claimed
+     */
+    boolean claim() {
+        return pinCount.compareAndSet(0, CLAIMED);
+    }
+
+    /**
+     * Releases the claim on the buffer frame.
+     * @param pins number of times to leave the frame pinned
+     */
+    void releaseClaim(int pins) {
+        if (!pinCount.compareAndSet(CLAIMED, pins)) {
+            throw new IllegalStateException("cannot release claim on unclaimed frame");
+        }
     }
 
     /**
@@ -10,8 +10,13 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
@@ -19,6 +24,18 @@ import java.util.function.BiConsumer;
  * to the page loaded (evicting and loading a new page into the frame will result in
  * a new Frame object, with the same underlying byte array), with old Frame objects
  * backed by the same byte array marked as invalid.
+ *
+ * The frames are split into one or more partitions. Every page hashes to exactly one
+ * partition, and each partition has its own lock, page table, free list and eviction
+ * policy, so that fetches of pages in different partitions never contend with each
+ * other. A page can only ever be loaded into a frame of its own partition.
+ *
+ * Fetching a page that is already loaded (a hit) does not take the partition lock:
+ * the frame is looked up in the partition's concurrent page table and pinned
+ * optimistically. Since every load of a page creates a new Frame object, and frames
+ * are only invalidated while holding their frame lock, a frame that is still valid
+ * and holds the requested page once pinned can be returned as is. Otherwise the page
+ * was evicted or freed in the meantime, and the fetch falls back to the locked path.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,54 +46,118 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Maximum number of pages that loadPages reads with a single I/O.
+    static final int MAX_READ_PAGES = 32;
+
+    // Longest that eviction waits for a frame that is locked for a moment (see
+    // evictFrame) before giving up.
+    static final long EVICTION_WAIT_MILLIS = 100;
+
+    // Partitions of the buffer frames
+    private Partition[] partitions;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Recovery manager
+    private RecoveryManager recoveryManager;
 
-    // Lock on buffer manager
-    private ReentrantLock managerLock;
+    // Count of number of I/Os
+    private AtomicLong numIOs = new AtomicLong();
 
-    // Eviction policy
-    private EvictionPolicy evictionPolicy;
+    // Read-ahead prefetcher, or null if read-ahead is disabled
+    private volatile ReadAheadPrefetcher prefetcher;
 
-    // Index of first free frame
-    private int firstFreeIndex;
+    // Background writer, or null if it is not running
+    private BackgroundWriter backgroundWriter;
 
-    // Recovery manager
-    private RecoveryManager recoveryManager;
+    // Count of pages written by the background writer, and by everything else
+    // (evictions and explicit flushes)
+    private AtomicLong numBackgroundWrites = new AtomicLong();
+    private AtomicLong numForegroundWrites = new AtomicLong();
 
-    // Count of number of I/Os
-    private long numIOs = 0;
+    // Store of old page versions for snapshot reads, or null if they are disabled
+    private volatile VersionStore versionStore;
+
+    /**
+     * A partition of the buffer frames. Pages are assigned to partitions by hashing
+     * their page number; all bookkeeping for a page (which frame it is loaded in,
+     * the free list, and the eviction policy) is local to its partition and guarded
+     * by the partition's lock.
+     */
+    class Partition {
+        // Buffer frames of this partition
+        Frame[] frames;
+
+        // Map of page number to the frame the page is loaded in. Read without
+        // holding the partition lock on buffer hits, but only modified while
+        // holding it.
+        Map<Long, Frame> pageToFrame;
+
+        // Lock on this partition
+        ReentrantLock partitionLock;
+
+        // Eviction policy for the frames of this partition
+        EvictionPolicy evictionPolicy;
+
+        // Index of first free frame
+        int firstFreeIndex;
+
+        // Map of page number to the evicted frame of the page, while the evicted
+        // frame is being written back outside the partition lock. Loading the page
+        // again must wait for the write back, or it would read a stale page.
+        Map<Long, Frame> writingBack;
+
+        Partition(int numFrames, EvictionPolicy evictionPolicy) {
+            this.frames = new Frame[numFrames];
+            for (int i = 0; i < numFrames; ++i) {
+                this.frames[i] = new Frame(this, new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+            }
+            this.firstFreeIndex = 0;
+            this.pageToFrame = new ConcurrentHashMap<>();
+            this.writingBack = new ConcurrentHashMap<>();
+            this.partitionLock = new ReentrantLock();
+            this.evictionPolicy = evictionPolicy;
+        }
+    }
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
      * underlying byte array. Free frames use the index field to create a (singly) linked
      * list between free frames.
+     *
+     * A frame only ever holds one page: when the page is evicted, its contents move
+     * to a new Frame object and the old one is invalidated for good. Buffer hits pin
+     * frames without locking them (see tryPin). The frame lock is held only while
+     * the page is read or written, flushed, loaded in, or evicted; loading in and
+     * evicting also claim the frame (see BufferFrame#claim), so that it cannot be
+     * pinned in the meantime.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
         byte[] contents;
-        private int index;
+        private final Partition partition;
+        private volatile int index;
         private long pageNum;
         private boolean dirty;
         private ReentrantLock frameLock;
         private boolean logPage;
+        // whether the page was loaded by read-ahead, and has not been fetched since
+        private volatile boolean prefetched;
+        // pageLSN of the copy of the page on disk, as of when it was last read or written
+        private volatile long diskPageLSN;
 
-        Frame(byte[] contents, int nextFree) {
-            this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
+        Frame(Partition partition, byte[] contents, int nextFree) {
+            this(partition, contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
         Frame(Frame frame) {
-            this(frame.contents, frame.index, frame.pageNum);
+            this(frame.partition, frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(Partition partition, byte[] contents, int index, long pageNum) {
+            this.partition = partition;
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
@@ -93,21 +174,47 @@ public class BufferManager implements AutoCloseable {
         @Override
         public void pin() {
             this.frameLock.lock();
-
-            if (!this.isValid()) {
-                throw new IllegalStateException("pinning invalidated frame");
+            try {
+                if (!this.isValid()) {
+                    throw new IllegalStateException("pinning invalidated frame");
+                }
+                super.pin();
+            } finally {
+                this.frameLock.unlock();
             }
-
-            super.pin();
         }
 
         /**
-         * Unpin buffer frame.
+         * Pins the buffer frame if it is still valid and holds page `pageNum`.
+         * Used on buffer hits, where the frame was looked up without holding
+         * the partition lock and may have been evicted or freed since.
+         *
+         * The pin count is bumped with a compare-and-set, without locking, unless
+         * the frame is claimed. Eviction can only claim an unpinned frame, and an
+         * evicted frame stays claimed, so once pinned the frame is checked to still
+         * be valid and hold `pageNum`. A claimed frame is being loaded in or
+         * evicted by the thread holding its lock: we wait for that thread, and try
+         * once more.
+         *
+         * @param pageNum page number the caller expects this frame to hold
+         * @return whether the frame was pinned
          */
-        @Override
-        public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+        boolean tryPin(long pageNum) {
+            if (!this.pinUnlessClaimed()) {
+                this.frameLock.lock();
+                try {
+                    if (!this.pinUnlessClaimed()) {
+                        return false;
+                    }
+                } finally {
+                    this.frameLock.unlock();
+                }
+            }
+            if (!this.isValid() || this.pageNum != pageNum) {
+                super.unpin();
+                return false;
+            }
+            return true;
         }
 
         /**
@@ -143,8 +250,8 @@ public class BufferManager implements AutoCloseable {
             if (isFreed()) {
                 throw new IllegalStateException("cannot free free frame");
             }
-            int nextFreeIndex = firstFreeIndex;
-            firstFreeIndex = this.index;
+            int nextFreeIndex = partition.firstFreeIndex;
+            partition.firstFreeIndex = this.index;
             this.index = ~nextFreeIndex;
         }
 
@@ -152,8 +259,8 @@ public class BufferManager implements AutoCloseable {
             if (!isFreed()) {
                 throw new IllegalStateException("cannot unfree used frame");
             }
-            int index = firstFreeIndex;
-            firstFreeIndex = ~this.index;
+            int index = partition.firstFreeIndex;
+            partition.firstFreeIndex = ~this.index;
             this.index = index;
         }
 
@@ -165,13 +272,31 @@ public class BufferManager implements AutoCloseable {
             return this.pageNum;
         }
 
+        /**
+         * @return the buffer partition this frame belongs to
+         */
+        Partition getPartition() {
+            return this.partition;
+        }
+
         /**
          * Flushes this buffer frame to disk, but does not unload it.
          */
         @Override
         void flush() {
+            this.flush(false);
+        }
+
+        /**
+         * Flushes this buffer frame to disk, but does not unload it.
+         * @param background whether this is the background writer cleaning the
+         *                   frame ahead of eviction
+         */
+        private void flush(boolean background) {
             this.frameLock.lock();
-            super.pin();
+            // pinned so that the log pages loaded by the flush hook aren't loaded
+            // into this frame; a frame being evicted by this thread is claimed instead
+            boolean pinned = this.pinUnlessClaimed();
             try {
                 if (!this.isValid()) {
                     return;
@@ -184,9 +309,17 @@ public class BufferManager implements AutoCloseable {
                 }
                 BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
                 BufferManager.this.incrementIOs();
+                this.diskPageLSN = this.getPageLSN();
+                if (background) {
+                    BufferManager.this.numBackgroundWrites.incrementAndGet();
+                } else {
+                    BufferManager.this.numForegroundWrites.incrementAndGet();
+                }
                 this.dirty = false;
             } finally {
-                super.unpin();
+                if (pinned) {
+                    super.unpin();
+                }
                 this.frameLock.unlock();
             }
         }
@@ -199,15 +332,28 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void readBytes(short position, short num, byte[] buf) {
-            this.pin();
+            this.frameLock.lock();
+            boolean pinned = this.pinUnlessClaimed();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
-                BufferManager.this.evictionPolicy.hit(this);
+                VersionStore versionStore = BufferManager.this.versionStore;
+                TransactionContext transaction = TransactionContext.getTransaction();
+                if (versionStore != null && transaction != null && transaction.getSnapshot() != null && !logPage) {
+                    // Copied and rolled back under the frame lock, as writes are
+                    // recorded and made under it (see writeBytes)
+                    System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                    versionStore.rollBack(transaction.getSnapshot(), pageNum, position, buf, num);
+                } else {
+                    System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                }
+                partition.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                if (pinned) {
+                    super.unpin();
+                }
+                this.frameLock.unlock();
             }
         }
 
@@ -219,15 +365,25 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
-            this.pin();
+            // pinned while logging the write, so that log pages loaded meanwhile
+            // aren't loaded into this frame
+            this.frameLock.lock();
+            boolean pinned = this.pinUnlessClaimed();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
+                VersionStore versionStore = null;
+                List<Pair<Integer, Integer>> changedRanges = Collections.emptyList();
+                List<byte[]> befores = new ArrayList<>();
+                List<byte[]> afters = new ArrayList<>();
                 if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
+                    // Snapshot transactions only write their own temporary tables,
+                    // which no other transaction reads
+                    versionStore = transaction.getSnapshot() == null ? BufferManager.this.versionStore : null;
+                    changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
@@ -236,13 +392,28 @@ public class BufferManager implements AutoCloseable {
                         long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
                                        after);
                         this.setPageLSN(pageLSN);
+                        befores.add(before);
+                        afters.add(after);
+                    }
+                }
+                if (versionStore != null) {
+                    // Recorded and made under the frame lock, so that a snapshot
+                    // read of the bytes (see readBytes) never sees the write
+                    // without the version that rolls it back
+                    for (int i = 0; i < changedRanges.size(); ++i) {
+                        versionStore.recordWrite(transaction.getTransNum(), pageNum,
+                                                 changedRanges.get(i).getFirst() + position, befores.get(i),
+                                                 afters.get(i));
                     }
                 }
                 System.arraycopy(buf, 0, this.contents, offset, num);
                 this.dirty = true;
-                BufferManager.this.evictionPolicy.hit(this);
+                partition.evictionPolicy.hit(this);
             } finally {
-                this.unpin();
+                if (pinned) {
+                    super.unpin();
+                }
+                this.frameLock.unlock();
             }
         }
 
@@ -258,7 +429,7 @@ public class BufferManager implements AutoCloseable {
                     throw new PageException("page already freed");
                 }
                 if (this.isValid()) {
-                    this.pin();
+                    super.pin();
                     return this;
                 }
                 return BufferManager.this.fetchPageFrame(this.pageNum);
@@ -342,7 +513,7 @@ public class BufferManager implements AutoCloseable {
     }
 
     /**
-     * Creates a new buffer manager.
+     * Creates a new buffer manager with a single partition.
      *
      * @param diskSpaceManager the underlying disk space manager
      * @param bufferSize size of buffer (in pages)
@@ -350,40 +521,213 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
-        this.frames = new Frame[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+        this(diskSpaceManager, recoveryManager, bufferSize, () -> evictionPolicy, 1);
+    }
+
+    /**
+     * Creates a new buffer manager whose frames are split into `numPartitions`
+     * independently locked partitions. Each partition gets its own eviction policy
+     * instance from `evictionPolicies`.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicies supplier of eviction policies, called once per partition
+     * @param numPartitions number of partitions to split the buffer into
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, Supplier<EvictionPolicy> evictionPolicies,
+                         int numPartitions) {
+        if (numPartitions < 1 || numPartitions > bufferSize) {
+            throw new IllegalArgumentException("number of buffer partitions must be between 1 and " +
+                                               "the buffer size, got " + numPartitions);
+        }
+        this.partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; ++i) {
+            int numFrames = bufferSize / numPartitions + (i < bufferSize % numPartitions ? 1 : 0);
+            this.partitions[i] = new Partition(numFrames, evictionPolicies.get());
         }
-        this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
-        this.managerLock = new ReentrantLock();
-        this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
     @Override
     public void close() {
-        this.managerLock.lock();
-        try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
-                try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
+        if (this.backgroundWriter != null) {
+            this.backgroundWriter.close();
+        }
+        if (this.prefetcher != null) {
+            this.prefetcher.close();
+        }
+        for (Partition partition : this.partitions) {
+            partition.partitionLock.lock();
+            try {
+                for (Frame frame : partition.frames) {
+                    frame.frameLock.lock();
+                    try {
+                        if (!frame.isValid()) {
+                            continue;
+                        }
+                        if (!frame.claim()) {
+                            throw new IllegalStateException("closing buffer manager but frame still pinned");
+                        }
+                        this.cleanup(partition, frame);
+                        frame.invalidate();
+                    } finally {
+                        frame.frameLock.unlock();
                     }
-                    if (!frame.isValid()) {
-                        continue;
+                }
+            } finally {
+                partition.partitionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Turns on asynchronous read-ahead: once pages of a disk partition are fetched
+     * sequentially, the next `depth` pages are read into the buffer pool on a
+     * background thread.
+     *
+     * @param depth number of pages to read ahead of a sequential reader
+     */
+    public synchronized void enableReadAhead(int depth) {
+        if (this.prefetcher != null) {
+            throw new IllegalStateException("read-ahead already enabled");
+        }
+        this.prefetcher = new ReadAheadPrefetcher(this, depth);
+    }
+
+    /**
+     * @return the read-ahead prefetcher, for its metrics, or null if read-ahead
+     * is disabled
+     */
+    public ReadAheadPrefetcher getReadAhead() {
+        return this.prefetcher;
+    }
+
+    /**
+     * Sets the store that records every transaction's changes to pages, so that
+     * reads by snapshot transactions (see TransactionContext#getSnapshot) can be
+     * rolled back to their snapshot.
+     *
+     * @param versionStore version store, or null to stop recording changes
+     */
+    public void setVersionStore(VersionStore versionStore) {
+        this.versionStore = versionStore;
+    }
+
+    /**
+     * Hints that pages are about to be fetched, so that they can be read into the
+     * buffer pool in the background. Does nothing if read-ahead is disabled.
+     *
+     * @param pageNum page number of the first page
+     * @param numPages number of consecutive pages (of the same partition)
+     */
+    public void prefetch(long pageNum, int numPages) {
+        ReadAheadPrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            prefetcher.prefetch(pageNum, numPages);
+        }
+    }
+
+    /**
+     * Starts a background writer thread, which periodically writes out dirty pages
+     * that are about to be evicted, so that evictions on the foreground path find
+     * clean frames and do not have to write (or flush the log) first.
+     *
+     * @param numCleanFrames number of frames per partition, in eviction order, to
+     *                       keep clean
+     * @param intervalMillis time between rounds of the background writer
+     */
+    public synchronized void startBackgroundWriter(int numCleanFrames, long intervalMillis) {
+        if (this.backgroundWriter != null) {
+            throw new IllegalStateException("background writer already running");
+        }
+        this.backgroundWriter = new BackgroundWriter(this, numCleanFrames, intervalMillis);
+    }
+
+    /**
+     * @return number of pages written out by the background writer
+     */
+    public long getNumBackgroundWrites() {
+        return this.numBackgroundWrites.get();
+    }
+
+    /**
+     * @return number of pages written out by evictions and explicit flushes
+     */
+    public long getNumForegroundWrites() {
+        return this.numForegroundWrites.get();
+    }
+
+    /**
+     * Writes out the dirty pages among the next `numCleanFrames` frames of each
+     * partition that the eviction policy would evict. Frames that are pinned, or
+     * locked by someone else, are skipped. Each page goes through the recovery
+     * manager's pageFlushHook first, so the log is flushed up to its pageLSN.
+     *
+     * @param numCleanFrames number of frames per partition to keep clean
+     * @return number of pages written
+     */
+    int writeAhead(int numCleanFrames) {
+        int numWritten = 0;
+        for (Partition partition : this.partitions) {
+            List<BufferFrame> victims;
+            partition.partitionLock.lock();
+            try {
+                victims = partition.evictionPolicy.peekVictims(partition.frames, numCleanFrames);
+            } finally {
+                partition.partitionLock.unlock();
+            }
+            // write outside of the partition lock, so that misses aren't held up by I/O
+            for (BufferFrame victim : victims) {
+                Frame frame = (Frame) victim;
+                if (!frame.frameLock.tryLock()) {
+                    continue;
+                }
+                try {
+                    if (frame.isValid() && !frame.isPinned() && frame.dirty) {
+                        frame.flush(true);
+                        ++numWritten;
                     }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
                 } finally {
                     frame.frameLock.unlock();
                 }
             }
-        } finally {
-            this.managerLock.unlock();
         }
+        return numWritten;
+    }
+
+    /**
+     * @return the number of buffer frames
+     */
+    public int getBufferSize() {
+        int bufferSize = 0;
+        for (Partition partition : this.partitions) {
+            bufferSize += partition.frames.length;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of partitions the buffer frames are split into
+     */
+    public int getNumPartitions() {
+        return this.partitions.length;
+    }
+
+    /**
+     * @param pageNum page number
+     * @return the partition that the page is loaded into
+     */
+    Partition getPartition(long pageNum) {
+        if (this.partitions.length == 1) {
+            return this.partitions[0];
+        }
+        // mix the high bits (partition number) into the low bits (page index)
+        // so that consecutive pages of a partition are spread out
+        long h = pageNum ^ (pageNum >>> 32);
+        h ^= (h >>> 16);
+        return this.partitions[(int) ((h * 0x9E3779B97F4A7C15L) >>> 33) % this.partitions.length];
     }
 
     /**
@@ -395,60 +739,339 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
+        return this.fetchPageFrame(pageNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, loading it through
+     * a buffer access strategy if it is not already in memory. Pins the buffer
+     * frame. Cannot be used outside the package.
+     *
+     * @param pageNum page number
+     * @param strategy buffer access strategy to load the page through, or null to
+     *                 load it into a frame picked by the eviction policy
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, BufferAccessStrategy strategy) {
+        ReadAheadPrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            prefetcher.accessed(pageNum);
+        }
+        return this.loadPageFrame(pageNum, strategy, false, true);
+    }
+
+    /**
+     * Reads a page into the buffer pool for read-ahead, unless it is already
+     * loaded. Cannot be used outside the package.
+     *
+     * @param pageNum page number
+     * @return the pinned buffer frame the page was read into, or null if the page
+     * was already loaded
+     */
+    Frame prefetchPageFrame(long pageNum) {
+        return this.loadPageFrame(pageNum, null, true, true);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, loading it if it
+     * isn't in memory yet. Pins the buffer frame.
+     *
+     * @param pageNum page number
+     * @param strategy buffer access strategy to load the page through, or null
+     * @param prefetch whether this is a read-ahead, which does nothing if the page
+     *                 is already loaded, and flags the frame as prefetched otherwise
+     * @param read whether to read the page in; if not, this does nothing if the
+     *             page is already loaded, and otherwise returns the frame for the
+     *             page still locked, for the caller to read the page into and then
+     *             unlock (see loadPages)
+     * @return buffer frame with specified page loaded, or null for a read-ahead (or
+     * a load without reading) of a page that is already loaded
+     */
+    private Frame loadPageFrame(long pageNum, BufferAccessStrategy strategy, boolean prefetch,
+                                boolean read) {
+        Partition partition = this.getPartition(pageNum);
         Frame newFrame;
         Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
+        Frame pendingWriteBack;
+        int ringIndex = -1;
+        while (true) {
+            // fast path: the page is already loaded
+            Frame loadedFrame = partition.pageToFrame.get(pageNum);
+            if (loadedFrame != null && (prefetch || !read)) {
+                return null;
             }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+            if (loadedFrame != null && loadedFrame.tryPin(pageNum)) {
+                if (loadedFrame.prefetched) {
+                    loadedFrame.prefetched = false;
+                    this.prefetcher.recordHit();
+                }
+                return loadedFrame;
             }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+            // figure out what frame to load data to, and update manager state
+            partition.partitionLock.lock();
+            try {
+                if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                    throw new PageException("page " + pageNum + " not allocated");
+                }
+                if (partition.pageToFrame.containsKey(pageNum)) {
+                    if (prefetch || !read) {
+                        return null;
+                    }
+                    // loaded in the meantime; pin it without holding the partition lock
+                    continue;
+                }
+                // prioritize the strategy's own frames, then free frames, over eviction
+                if (strategy != null && (ringIndex = this.lockRingFrame(partition, strategy)) >= 0) {
+                    evictedFrame = strategy.getFrame(ringIndex);
+                    partition.pageToFrame.remove(evictedFrame.pageNum, evictedFrame);
+                    partition.writingBack.put(evictedFrame.pageNum, evictedFrame);
+                    this.cleanup(partition, evictedFrame);
+                } else if (partition.firstFreeIndex < partition.frames.length) {
+                    evictedFrame = partition.frames[partition.firstFreeIndex];
+                    evictedFrame.frameLock.lock();
+                    evictedFrame.claim();
+                    evictedFrame.setUsed();
+                } else {
+                    evictedFrame = this.evictFrame(partition);
+                    partition.pageToFrame.remove(evictedFrame.pageNum, evictedFrame);
+                    partition.writingBack.put(evictedFrame.pageNum, evictedFrame);
+                    this.cleanup(partition, evictedFrame);
+                }
+                pendingWriteBack = partition.writingBack.get(pageNum);
+                int frameIndex = evictedFrame.index;
+                newFrame = partition.frames[frameIndex] = new Frame(partition, evictedFrame.contents,
+                                                                    frameIndex, pageNum);
+                newFrame.prefetched = prefetch;
+                partition.evictionPolicy.init(newFrame);
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+                // hits on the page wait for it to be read in
+                newFrame.frameLock.lock();
+                newFrame.claim();
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+                partition.pageToFrame.put(pageNum, newFrame);
+                if (strategy != null) {
+                    if (ringIndex >= 0) {
+                        strategy.replace(ringIndex, newFrame);
+                    } else {
+                        strategy.add(newFrame);
+                    }
+                }
+                break;
+            } finally {
+                partition.partitionLock.unlock();
+            }
         }
         // flush evicted frame
+        long evictedPageNum = evictedFrame.pageNum;
         try {
             evictedFrame.invalidate();
         } finally {
+            partition.writingBack.remove(evictedPageNum, evictedFrame);
             evictedFrame.frameLock.unlock();
         }
         // read new page into frame
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
+            if (pendingWriteBack != null) {
+                // the page was just evicted by another thread; the evicting thread
+                // holds the frame lock of the evicted frame until it is written back
+                pendingWriteBack.frameLock.lock();
+                pendingWriteBack.frameLock.unlock();
+            }
+            if (!read) {
+                // locked and claimed until the caller has read the page in
+                newFrame.frameLock.lock();
+                return newFrame;
+            }
             BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
             this.incrementIOs();
+            newFrame.diskPageLSN = newFrame.getPageLSN();
+            newFrame.releaseClaim(1);
             return newFrame;
         } catch (PageException e) {
-            newFrame.unpin();
+            newFrame.releaseClaim(0);
             throw e;
         } finally {
             newFrame.frameLock.unlock();
         }
     }
 
+    /**
+     * Reads pages into the buffer pool ahead of their use, in page number order.
+     * Each run of consecutive pages of a disk partition is read with a single
+     * multi-page read (see DiskSpaceManager#readPages), rather than a read per
+     * page. Pages that are already loaded or not allocated are skipped, as are
+     * pages that no frame can be found for.
+     *
+     * @param pageNums page numbers of the pages to load
+     * @return number of pages read in
+     */
+    public int loadPages(Collection<Long> pageNums) {
+        long[] sorted = pageNums.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        // the frames of a run are pinned until it is read, so keep runs short
+        // enough not to pin a whole buffer partition
+        int minFrames = Integer.MAX_VALUE;
+        for (Partition partition : this.partitions) {
+            minFrames = Math.min(minFrames, partition.frames.length);
+        }
+        int maxRunLength = Math.max(1, Math.min(MAX_READ_PAGES, minFrames / 2));
+
+        int numLoaded = 0;
+        List<Frame> run = new ArrayList<>();
+        for (long pageNum : sorted) {
+            if (!run.isEmpty() && (pageNum != run.get(0).pageNum + run.size() || run.size() == maxRunLength)) {
+                numLoaded += this.readRun(run);
+            }
+            Frame frame;
+            try {
+                frame = this.loadPageFrame(pageNum, null, false, false);
+            } catch (IllegalStateException e) {
+                // everything pinned, possibly by this run: read it in and try once more
+                numLoaded += this.readRun(run);
+                try {
+                    frame = this.loadPageFrame(pageNum, null, false, false);
+                } catch (IllegalStateException e2) {
+                    continue;
+                }
+            } catch (PageException e) {
+                continue;
+            }
+            if (frame == null) {
+                // already loaded, so the run can't continue past it
+                numLoaded += this.readRun(run);
+            } else {
+                run.add(frame);
+            }
+        }
+        numLoaded += this.readRun(run);
+        return numLoaded;
+    }
+
+    /**
+     * Reads pages into the frames returned for them by loadPageFrame without reading,
+     * and releases the frames. The frames must hold consecutive pages of a partition.
+     *
+     * @param run frames to read into, in page order; cleared afterwards
+     * @return number of pages read
+     */
+    private int readRun(List<Frame> run) {
+        if (run.isEmpty()) {
+            return 0;
+        }
+        int numPages = run.size();
+        byte[][] bufs = new byte[numPages][];
+        for (int i = 0; i < numPages; ++i) {
+            bufs[i] = run.get(i).contents;
+        }
+        try {
+            int numIOs = this.diskSpaceManager.readPages(run.get(0).pageNum, bufs);
+            for (int i = 0; i < numIOs; ++i) {
+                this.incrementIOs();
+            }
+            for (Frame frame : run) {
+                frame.diskPageLSN = frame.getPageLSN();
+            }
+        } finally {
+            for (Frame frame : run) {
+                frame.releaseClaim(0);
+                frame.frameLock.unlock();
+            }
+            run.clear();
+        }
+        return numPages;
+    }
+
+    /**
+     * Picks a frame to evict from a partition, and locks it. Must be called while
+     * holding the partition lock. The frame chosen by the eviction policy may be
+     * locked for a moment (by a buffer hit pinning it, a flush, or iterPageNums)
+     * when we get to it. Asking a deterministic policy such as LRU again would
+     * only return the same frame, so we then go down the frames the policy would
+     * evict next (see EvictionPolicy#peekVictims), and only if all of them are
+     * locked too wait for the policy's choice, for up to EVICTION_WAIT_MILLIS.
+     *
+     * @param partition partition to evict a frame from
+     * @return the locked, claimed frame to evict
+     * @throws IllegalStateException if everything is pinned
+     */
+    private Frame evictFrame(Partition partition) {
+        Frame victim = (Frame) partition.evictionPolicy.evict(partition.frames);
+        if (victim.frameLock.tryLock()) {
+            if (victim.claim()) {
+                return victim;
+            }
+            victim.frameLock.unlock();
+        }
+        for (BufferFrame candidate : partition.evictionPolicy.peekVictims(partition.frames,
+                                                                          partition.frames.length)) {
+            Frame frame = (Frame) candidate;
+            if (frame != victim && frame.frameLock.tryLock()) {
+                if (frame.claim()) {
+                    return frame;
+                }
+                frame.frameLock.unlock();
+            }
+        }
+        try {
+            if (victim.frameLock.tryLock(EVICTION_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (victim.claim()) {
+                    return victim;
+                }
+                victim.frameLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new IllegalStateException("cannot evict - everything pinned");
+    }
+
+    /**
+     * Finds a frame of a buffer access strategy's ring that can be reused to load
+     * a page of a partition, and locks it. Must be called while holding the
+     * partition lock.
+     *
+     * @param partition partition that the page is being loaded into
+     * @param strategy buffer access strategy that the page is being loaded through
+     * @return position in the ring of the locked, claimed frame, or -1 if no frame
+     * in the ring can be reused
+     */
+    private int lockRingFrame(Partition partition, BufferAccessStrategy strategy) {
+        if (strategy.getFrame(0) == null) {
+            // the ring isn't full yet
+            return -1;
+        }
+        for (int i = 0; i < strategy.getRingSize(); ++i) {
+            Frame frame = strategy.getFrame(i);
+            if (frame == null || frame.partition != partition) {
+                continue;
+            }
+            // skip frames that were evicted (whose index is INVALID_INDEX) or
+            // freed (whose index is negative) since, or replaced in the partition
+            int index = frame.index;
+            if (index < 0 || partition.frames[index] != frame) {
+                continue;
+            }
+            if (frame.frameLock.tryLock()) {
+                if (frame.isValid() && frame.claim()) {
+                    return i;
+                }
+                frame.frameLock.unlock();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a frame from its partition's eviction policy, when its page is
+     * unloaded or freed. Must be called while holding the partition lock.
+     */
+    private void cleanup(Partition partition, Frame frame) {
+        partition.evictionPolicy.cleanup(frame);
+        if (frame.prefetched) {
+            frame.prefetched = false;
+            this.prefetcher.recordWaste();
+        }
+    }
+
     /**
      * Fetches the specified page, with a loaded and pinned buffer frame.
      *
@@ -457,7 +1080,20 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
-        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
+        return this.fetchPage(parentContext, pageNum, null);
+    }
+
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame. If the page
+     * is not in memory, it is loaded through the given buffer access strategy.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param strategy      buffer access strategy, or null for the default
+     * @return specified page
+     */
+    public Page fetchPage(LockContext parentContext, long pageNum, BufferAccessStrategy strategy) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, strategy));
     }
 
     /**
@@ -467,13 +1103,20 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame for the new page
      */
     Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page, loaded through a buffer access strategy.
+     * Pins the buffer frame. Cannot be used outside the package.
+     *
+     * @param partNum partition number for new page
+     * @param strategy buffer access strategy, or null for the default
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum, BufferAccessStrategy strategy) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum, strategy);
     }
 
     /**
@@ -484,10 +1127,36 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, null);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame taken from the
+     * given buffer access strategy.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param strategy      buffer access strategy, or null for the default
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, BufferAccessStrategy strategy) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, strategy);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
+    /**
+     * Fetches a new page with a specific page number, with a loaded and pinned
+     * buffer frame.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param pageNum       page number of new page
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, long pageNum) {
+        this.diskSpaceManager.allocPage(pageNum);
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, null));
+    }
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -496,21 +1165,27 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
-        this.managerLock.lock();
+        Partition partition = this.getPartition(page.getPageNum());
+        // the page is pinned, so it stays clean once written out here, without
+        // the partition lock (see flushFrames)
+        if (TransactionContext.getTransaction() != null) page.flush();
+        partition.partitionLock.lock();
         try {
-            TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            Frame frame = partition.pageToFrame.get(page.getPageNum());
+            int frameIndex = frame.index;
 
-            Frame frame = this.frames[frameIndex];
-            if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
-            evictionPolicy.cleanup(frame);
+            partition.pageToFrame.remove(page.getPageNum(), frame);
+            this.cleanup(partition, frame);
             frame.setFree();
 
-            this.frames[frameIndex] = new Frame(frame);
+            partition.frames[frameIndex] = new Frame(frame);
+            VersionStore versionStore = this.versionStore;
+            if (versionStore != null) {
+                versionStore.dropPage(page.getPageNum());
+            }
             diskSpaceManager.freePage(page.getPageNum());
         } finally {
-            this.managerLock.unlock();
+            partition.partitionLock.unlock();
         }
     }
 
@@ -522,23 +1197,41 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
-        this.managerLock.lock();
-        try {
-            for (int i = 0; i < frames.length; ++i) {
-                Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
-                    frame.flush();
-                    frame.setFree();
-                    frames[i] = new Frame(frame);
+        Predicate<Frame> inPart = frame -> DiskSpaceManager.getPartNum(frame.pageNum) == partNum;
+        for (Partition partition : this.partitions) {
+            boolean dirtied;
+            do {
+                this.flushFrames(partition, inPart);
+                dirtied = false;
+                partition.partitionLock.lock();
+                try {
+                    Frame[] frames = partition.frames;
+                    for (int i = 0; i < frames.length; ++i) {
+                        Frame frame = frames[i];
+                        if (!inPart.test(frame)) {
+                            continue;
+                        }
+                        if (frame.isValid() && frame.dirty) {
+                            // written to since flushFrames; write it out again first
+                            dirtied = true;
+                            continue;
+                        }
+                        partition.pageToFrame.remove(frame.getPageNum(), frame);
+                        this.cleanup(partition, frame);
+                        frame.setFree();
+                        frames[i] = new Frame(frame);
+                    }
+                } finally {
+                    partition.partitionLock.unlock();
                 }
-            }
+            } while (dirtied);
+        }
 
-            diskSpaceManager.freePart(partNum);
-        } finally {
-            this.managerLock.unlock();
+        VersionStore versionStore = this.versionStore;
+        if (versionStore != null) {
+            versionStore.dropPartition(partNum);
         }
+        diskSpaceManager.freePart(partNum);
     }
 
     /**
@@ -547,41 +1240,138 @@ public class BufferManager implements AutoCloseable {
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
-        managerLock.lock();
+        Partition partition = this.getPartition(pageNum);
+        while (true) {
+            this.flushPage(pageNum);
+            partition.partitionLock.lock();
+            try {
+                Frame frame = partition.pageToFrame.get(pageNum);
+                if (frame == null || evict(partition, frame.index)) {
+                    return;
+                }
+            } finally {
+                partition.partitionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out a page if it is loaded and dirty, without unloading it. Pages that
+     * are locked by someone else (being read, written, loaded in or evicted) are
+     * skipped rather than waited for.
+     * @param pageNum page number of page to write out
+     * @return whether the page was written
+     */
+    public boolean flushPage(long pageNum) {
+        Frame frame = this.getPartition(pageNum).pageToFrame.get(pageNum);
+        if (frame == null || !frame.frameLock.tryLock()) {
+            return false;
+        }
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
-                return;
+            // the frame may have been evicted and reused since the lookup
+            if (!frame.isValid() || frame.pageNum != pageNum || !frame.dirty) {
+                return false;
             }
-            evict(pageToFrame.get(pageNum));
+            frame.flush();
+            return true;
         } finally {
-            managerLock.unlock();
+            frame.frameLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the pageLSN of the copy of a page on disk, as of when the page was
+     * last read or written out: every change to the page up to this LSN is on disk.
+     * @param pageNum page number
+     * @return pageLSN of the page on disk, or 0 if the page is not loaded
+     */
+    public long getDiskPageLSN(long pageNum) {
+        Frame frame = this.getPartition(pageNum).pageToFrame.get(pageNum);
+        if (frame == null || !frame.isValid() || frame.pageNum != pageNum) {
+            return 0L;
         }
+        return frame.diskPageLSN;
     }
 
-    private void evict(int i) {
-        Frame frame = frames[i];
-        frame.frameLock.lock();
+    /**
+     * Unloads the page in frame i of a partition, unless the frame is pinned. Must
+     * be called while holding the partition lock. Dirty frames are left alone, as
+     * writing them out flushes the log, which may load log pages into the
+     * partition: they have to be written out without the partition lock first
+     * (see flushFrames). So are frames locked by another thread, which may be
+     * writing to the page and logging the write.
+     *
+     * @return false if the frame was left loaded because it is dirty or locked
+     */
+    private boolean evict(Partition partition, int i) {
+        Frame frame = partition.frames[i];
+        if (!frame.frameLock.tryLock()) {
+            return false;
+        }
         try {
             if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
+                if (frame.dirty) {
+                    return false;
+                }
+                if (!frame.claim()) {
+                    // pinned in the meantime
+                    return true;
+                }
+                partition.pageToFrame.remove(frame.pageNum, frame);
+                this.cleanup(partition, frame);
 
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
+                partition.frames[i] = new Frame(partition, frame.contents, partition.firstFreeIndex);
+                partition.firstFreeIndex = i;
 
                 frame.invalidate();
             }
+            return true;
         } finally {
             frame.frameLock.unlock();
         }
     }
 
+    /**
+     * Writes out the dirty frames of a partition that `filter` accepts, skipping
+     * frames locked by another thread. Must be called without holding the partition
+     * lock: writing a page out flushes the log (see RecoveryManager#pageFlushHook),
+     * which may load log pages into the partition while holding the log manager's
+     * monitor, so writing out under the partition lock could deadlock with it.
+     */
+    private void flushFrames(Partition partition, Predicate<Frame> filter) {
+        for (Frame frame : partition.frames) {
+            if (!filter.test(frame) || !frame.frameLock.tryLock()) {
+                continue;
+            }
+            try {
+                if (frame.isValid() && frame.dirty) {
+                    frame.flush();
+                }
+            } finally {
+                frame.frameLock.unlock();
+            }
+        }
+    }
+
     /**
      * Calls evict on every frame in sequence.
      */
     public void evictAll() {
-        for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+        for (Partition partition : this.partitions) {
+            boolean dirtied;
+            do {
+                this.flushFrames(partition, frame -> true);
+                dirtied = false;
+                partition.partitionLock.lock();
+                try {
+                    for (int i = 0; i < partition.frames.length; ++i) {
+                        // frames written to since flushFrames, or locked, are tried again on the next pass
+                        dirtied |= !evict(partition, i);
+                    }
+                } finally {
+                    partition.partitionLock.unlock();
+                }
+            } while (dirtied);
         }
     }
 
@@ -592,14 +1382,16 @@ public class BufferManager implements AutoCloseable {
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
-            frame.frameLock.lock();
-            try {
-                if (frame.isValid()) {
-                    process.accept(frame.pageNum, frame.dirty);
+        for (Partition partition : partitions) {
+            for (Frame frame : partition.frames) {
+                frame.frameLock.lock();
+                try {
+                    if (frame.isValid()) {
+                        process.accept(frame.pageNum, frame.dirty);
+                    }
+                } finally {
+                    frame.frameLock.unlock();
                 }
-            } finally {
-                frame.frameLock.unlock();
             }
         }
     }
@@ -611,7 +1403,7 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
     }
 
     public static boolean logIOs;
@@ -626,7 +1418,7 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
     }
 
     /**
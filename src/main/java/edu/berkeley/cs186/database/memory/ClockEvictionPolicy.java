@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of clock eviction policy, which works by adding a reference
  * bit to each frame, and running the algorithm.
@@ -58,6 +61,35 @@ public class ClockEvictionPolicy implements EvictionPolicy {
         return evicted;
     }
 
+    /**
+     * Called by the background writer to find the frames that are likely to be
+     * evicted next: the unpinned frames ahead of the clock hand, those with their
+     * reference bit unset first. Reference bits are left as they are.
+     * @param frames Array of all frames (same length every call)
+     * @param count maximum number of frames to return
+     * @return up to `count` unpinned frames, in the order they would be evicted
+     */
+    @Override
+    public List<BufferFrame> peekVictims(BufferFrame[] frames, int count) {
+        List<BufferFrame> victims = new ArrayList<>();
+        List<BufferFrame> referenced = new ArrayList<>();
+        for (int i = 0; i < frames.length && victims.size() < count; ++i) {
+            BufferFrame frame = frames[(this.arm + i) % frames.length];
+            if (frame.isPinned()) {
+                continue;
+            }
+            if (frame.tag == ACTIVE) {
+                referenced.add(frame);
+            } else {
+                victims.add(frame);
+            }
+        }
+        for (int i = 0; i < referenced.size() && victims.size() < count; ++i) {
+            victims.add(referenced.get(i));
+        }
+        return victims;
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
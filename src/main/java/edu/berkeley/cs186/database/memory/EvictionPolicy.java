@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Interface for eviction policies for the buffer manager.
  */
@@ -31,4 +34,26 @@ public interface EvictionPolicy {
      * @param frame frame being removed
      */
     void cleanup(BufferFrame frame);
+
+    /**
+     * Called by the background writer to find the frames that are likely to be
+     * evicted next, so that they can be written out ahead of time. Must not change
+     * which frames get evicted. The default implementation returns unpinned frames
+     * in array order.
+     * @param frames Array of all frames (same length every call)
+     * @param count maximum number of frames to return
+     * @return up to `count` unpinned frames, in the order they would be evicted
+     */
+    default List<BufferFrame> peekVictims(BufferFrame[] frames, int count) {
+        List<BufferFrame> victims = new ArrayList<>();
+        for (BufferFrame frame : frames) {
+            if (victims.size() == count) {
+                break;
+            }
+            if (!frame.isPinned()) {
+                victims.add(frame);
+            }
+        }
+        return victims;
+    }
 }
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Implementation of LRU eviction policy, which works by creating a
  * doubly-linked list between frames in order of ascending use time.
@@ -79,6 +82,25 @@ public class LRUEvictionPolicy implements EvictionPolicy {
         return frameTag.cur;
     }
 
+    /**
+     * Called by the background writer to find the frames that are likely to be
+     * evicted next: the least recently used unpinned frames.
+     * @param frames Array of all frames (same length every call)
+     * @param count maximum number of frames to return
+     * @return up to `count` unpinned frames, in the order they would be evicted
+     */
+    @Override
+    public List<BufferFrame> peekVictims(BufferFrame[] frames, int count) {
+        List<BufferFrame> victims = new ArrayList<>();
+        for (Tag frameTag = this.listHead.next; frameTag.cur != null && victims.size() < count;
+                frameTag = frameTag.next) {
+            if (!frameTag.cur.isPinned()) {
+                victims.add(frameTag.cur);
+            }
+        }
+        return victims;
+    }
+
     /**
      * Called when a frame is removed, either because it
      * was returned from a call to evict, or because of other constraints
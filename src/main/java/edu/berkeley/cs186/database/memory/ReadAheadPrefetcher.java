@@ -0,0 +1,210 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous read-ahead for the buffer manager.
+ *
+ * The prefetcher watches the pages fetched from each disk partition. Once a
+ * partition is read sequentially (SEQUENTIAL_THRESHOLD consecutive pages in a
+ * row), it reads the next `depth` pages of the partition into the buffer pool
+ * on a background thread, and keeps that window ahead of the reader as it
+ * advances. Callers that know what they are about to read can also ask for
+ * pages to be prefetched explicitly, with BufferManager#prefetch.
+ *
+ * Prefetched pages are loaded like any other page (into a free frame if there
+ * is one, and into a frame chosen by the eviction policy otherwise), but are
+ * flagged until they are first fetched. A prefetched page that is fetched
+ * counts as a hit, and one that is evicted or freed before ever being fetched
+ * counts as wasted.
+ */
+public class ReadAheadPrefetcher implements AutoCloseable {
+    // Default number of pages to read ahead of a sequential reader
+    public static final int DEFAULT_DEPTH = 8;
+
+    // Number of consecutive pages that must be fetched from a partition before
+    // it is considered to be read sequentially
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private final BufferManager bufferManager;
+    private final int depth;
+    private final ExecutorService executor;
+    private volatile boolean closed;
+
+    // Sequential access detection state, per disk partition
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    private final AtomicLong numPrefetched = new AtomicLong();
+    private final AtomicLong numHits = new AtomicLong();
+    private final AtomicLong numWasted = new AtomicLong();
+
+    private static class Stream {
+        // index of the last page fetched
+        int lastPage = -1;
+        // number of consecutive pages fetched, ending at lastPage
+        int runLength = 0;
+        // index of the last page that read-ahead has been issued for
+        int prefetchedUpTo = -1;
+    }
+
+    /**
+     * @param bufferManager buffer manager to prefetch pages into
+     * @param depth number of pages to read ahead of a sequential reader
+     */
+    ReadAheadPrefetcher(BufferManager bufferManager, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("read-ahead depth must be positive, got " + depth);
+        }
+        this.bufferManager = bufferManager;
+        this.depth = depth;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return number of pages read ahead of a sequential reader
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * @return number of pages read into the buffer pool by the prefetcher
+     */
+    public long getNumPrefetched() {
+        return this.numPrefetched.get();
+    }
+
+    /**
+     * @return number of prefetched pages that were fetched afterwards
+     */
+    public long getNumHits() {
+        return this.numHits.get();
+    }
+
+    /**
+     * @return number of prefetched pages that were evicted or freed without ever
+     * being fetched
+     */
+    public long getNumWasted() {
+        return this.numWasted.get();
+    }
+
+    /**
+     * Called by the buffer manager every time a page is fetched. Issues read-ahead
+     * if this continues a sequential run of fetches in the page's partition.
+     *
+     * @param pageNum page number of the page being fetched
+     */
+    void accessed(long pageNum) {
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        int pageIndex = DiskSpaceManager.getPageNum(pageNum);
+        Stream stream = this.streams.computeIfAbsent(partNum, p -> new Stream());
+        int from;
+        int to;
+        synchronized (stream) {
+            if (pageIndex == stream.lastPage) {
+                return;
+            }
+            if (pageIndex == stream.lastPage + 1) {
+                ++stream.runLength;
+            } else {
+                stream.runLength = 1;
+                stream.prefetchedUpTo = pageIndex;
+            }
+            stream.lastPage = pageIndex;
+            if (stream.runLength < SEQUENTIAL_THRESHOLD) {
+                return;
+            }
+            // top up the window to `depth` pages past the reader, in batches of at
+            // least half the window so that we don't issue a read-ahead per fetch
+            to = pageIndex + this.depth;
+            from = Math.max(stream.prefetchedUpTo, pageIndex) + 1;
+            if (to - from + 1 < (this.depth + 1) / 2) {
+                return;
+            }
+            stream.prefetchedUpTo = to;
+        }
+        this.schedule(partNum, from, to - from + 1);
+    }
+
+    /**
+     * Asks for pages to be read into the buffer pool in the background.
+     *
+     * @param pageNum page number of the first page to prefetch
+     * @param numPages number of consecutive pages (of the same partition) to prefetch
+     */
+    void prefetch(long pageNum, int numPages) {
+        this.schedule(DiskSpaceManager.getPartNum(pageNum), DiskSpaceManager.getPageNum(pageNum), numPages);
+    }
+
+    /**
+     * Called by the buffer manager when a prefetched page is fetched for the first time.
+     */
+    void recordHit() {
+        this.numHits.incrementAndGet();
+    }
+
+    /**
+     * Called by the buffer manager when a prefetched page is evicted or freed
+     * without having been fetched.
+     */
+    void recordWaste() {
+        this.numWasted.incrementAndGet();
+    }
+
+    private void schedule(int partNum, int fromPage, int numPages) {
+        try {
+            this.executor.execute(() -> this.load(partNum, fromPage, numPages));
+        } catch (RejectedExecutionException e) {
+            // closed; drop the read-ahead
+        }
+    }
+
+    // reads pages into the buffer pool; runs on the background thread
+    private void load(int partNum, int fromPage, int numPages) {
+        for (int i = 0; i < numPages && !this.closed; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(partNum, fromPage + i);
+            try {
+                BufferManager.Frame frame = this.bufferManager.prefetchPageFrame(pageNum);
+                if (frame != null) {
+                    this.numPrefetched.incrementAndGet();
+                    frame.unpin();
+                }
+            } catch (PageException | IllegalStateException e) {
+                // ran off the end of the partition, or everything is pinned: read-ahead
+                // is only a hint, so give up on the rest of this batch
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread, waiting for any in-progress read to finish.
+     * Pending read-ahead is dropped.
+     */
+    @Override
+    public void close() {
+        // not shutdownNow: interrupting a thread in the middle of a read closes
+        // the partition's file channel
+        this.closed = true;
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
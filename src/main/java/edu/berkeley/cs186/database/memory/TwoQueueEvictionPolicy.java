@@ -0,0 +1,235 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Implementation of the 2Q eviction policy (Johnson and Shasha), which is
+ * resistant to sequential scans flushing out frequently used pages.
+ *
+ * Frames holding a page that was loaded for the first time go onto a FIFO
+ * queue (A1in); repeated hits while a page is on this queue are treated as
+ * correlated references (e.g. the many readBytes calls made while a page is
+ * scanned) and do not promote it. When a page leaves A1in, its page number is
+ * remembered in a ghost queue (A1out). If the page is loaded again while it is
+ * still remembered, it goes straight onto the main LRU queue (Am), where hits
+ * move it to the most recently used end.
+ *
+ * A large scan therefore only ever cycles through A1in, and pages on Am (e.g.
+ * B+ tree inner nodes or page directory headers) survive it.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    // Default fraction of frames that A1in may occupy before frames are taken from it.
+    public static final double DEFAULT_IN_FRACTION = 0.25;
+    // Default number of page numbers remembered in A1out, as a fraction of the number of frames.
+    public static final double DEFAULT_OUT_FRACTION = 0.5;
+
+    private final double inFraction;
+    private final double outFraction;
+
+    // A1in, in order of least to most recently loaded.
+    private final Tag inHead;
+    private final Tag inTail;
+    private int inSize;
+
+    // Am, in order of least to most recently used.
+    private final Tag mainHead;
+    private final Tag mainTail;
+
+    // A1out: page numbers of pages recently evicted from A1in, oldest first.
+    private final LinkedHashSet<Long> ghosts;
+
+    // Number of frames in the buffer, learned from calls to evict.
+    private int numFrames;
+
+    private class Tag {
+        Tag prev = null;
+        Tag next = null;
+        BufferFrame cur = null;
+        boolean main = false;
+
+        @Override
+        public String toString() {
+            String scur = cur == null ? "null" : cur.toString();
+            return scur + (main ? " (Am)" : " (A1in)");
+        }
+    }
+
+    public TwoQueueEvictionPolicy() {
+        this(DEFAULT_IN_FRACTION, DEFAULT_OUT_FRACTION);
+    }
+
+    /**
+     * @param inFraction fraction of the frames that A1in may hold
+     * @param outFraction number of pages remembered in A1out, as a fraction of the number of frames
+     */
+    public TwoQueueEvictionPolicy(double inFraction, double outFraction) {
+        if (inFraction <= 0 || inFraction >= 1 || outFraction <= 0) {
+            throw new IllegalArgumentException("invalid 2Q queue sizes: A1in=" + inFraction +
+                                               ", A1out=" + outFraction);
+        }
+        this.inFraction = inFraction;
+        this.outFraction = outFraction;
+        this.inHead = new Tag();
+        this.inTail = new Tag();
+        this.inHead.next = this.inTail;
+        this.inTail.prev = this.inHead;
+        this.mainHead = new Tag();
+        this.mainTail = new Tag();
+        this.mainHead.next = this.mainTail;
+        this.mainTail.prev = this.mainHead;
+        this.ghosts = new LinkedHashSet<>();
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag frameTag = new Tag();
+        frameTag.cur = frame;
+        frameTag.main = this.ghosts.remove(frame.getPageNum());
+        if (frameTag.main) {
+            append(this.mainTail, frameTag);
+        } else {
+            append(this.inTail, frameTag);
+            ++this.inSize;
+        }
+        frame.tag = frameTag;
+    }
+
+    /**
+     * Called when a frame is hit. Hits on A1in are correlated references and
+     * are ignored; hits on Am move the frame to the most recently used end.
+     *
+     * Hits happen under the frame's lock but not the buffer partition's lock,
+     * so the policy synchronizes on itself.
+     *
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        Tag frameTag = (Tag) frame.tag;
+        if (frameTag == null || !frameTag.main || frameTag.next == frameTag) {
+            return;
+        }
+        unlink(frameTag);
+        append(this.mainTail, frameTag);
+    }
+
+    /**
+     * Called when a frame needs to be evicted. Takes the oldest unpinned frame of
+     * A1in if A1in holds more than its share of the frames, and the least
+     * recently used unpinned frame of Am otherwise.
+     *
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        int maxIn = Math.max(1, (int) (frames.length * this.inFraction));
+        BufferFrame evicted;
+        if (this.inSize > maxIn) {
+            evicted = firstUnpinned(this.inHead);
+            if (evicted == null) {
+                evicted = firstUnpinned(this.mainHead);
+            }
+        } else {
+            evicted = firstUnpinned(this.mainHead);
+            if (evicted == null) {
+                evicted = firstUnpinned(this.inHead);
+            }
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called by the background writer to find the frames that are likely to be
+     * evicted next: unpinned frames of A1in in FIFO order and of Am in LRU order,
+     * starting with the queue that evict would take from.
+     * @param frames Array of all frames (same length every call)
+     * @param count maximum number of frames to return
+     * @return up to `count` unpinned frames, in the order they would be evicted
+     */
+    @Override
+    public synchronized List<BufferFrame> peekVictims(BufferFrame[] frames, int count) {
+        int maxIn = Math.max(1, (int) (frames.length * this.inFraction));
+        List<BufferFrame> victims = new ArrayList<>();
+        if (this.inSize > maxIn) {
+            addUnpinned(this.inHead, victims, count);
+            addUnpinned(this.mainHead, victims, count);
+        } else {
+            addUnpinned(this.mainHead, victims, count);
+            addUnpinned(this.inHead, victims, count);
+        }
+        return victims;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk). Pages leaving A1in are remembered
+     * in A1out.
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        Tag frameTag = (Tag) frame.tag;
+        if (frameTag == null || frameTag.next == frameTag) {
+            return;
+        }
+        unlink(frameTag);
+        frameTag.prev = frameTag.next = frameTag;
+        if (frameTag.main) {
+            return;
+        }
+        --this.inSize;
+        int maxOut = (int) (this.numFrames * this.outFraction);
+        if (maxOut == 0) {
+            return;
+        }
+        this.ghosts.add(frame.getPageNum());
+        Iterator<Long> iter = this.ghosts.iterator();
+        while (this.ghosts.size() > maxOut) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private BufferFrame firstUnpinned(Tag head) {
+        for (Tag t = head.next; t.cur != null; t = t.next) {
+            if (!t.cur.isPinned()) {
+                return t.cur;
+            }
+        }
+        return null;
+    }
+
+    private void addUnpinned(Tag head, List<BufferFrame> victims, int count) {
+        for (Tag t = head.next; t.cur != null && victims.size() < count; t = t.next) {
+            if (!t.cur.isPinned()) {
+                victims.add(t.cur);
+            }
+        }
+    }
+
+    private void unlink(Tag frameTag) {
+        frameTag.prev.next = frameTag.next;
+        frameTag.next.prev = frameTag.prev;
+    }
+
+    private void append(Tag tail, Tag frameTag) {
+        frameTag.next = tail;
+        frameTag.prev = tail.prev;
+        tail.prev.next = frameTag;
+        tail.prev = frameTag;
+    }
+}
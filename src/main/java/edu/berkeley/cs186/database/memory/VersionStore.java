@@ -0,0 +1,250 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store of old versions of pages, for snapshot transactions (see
+ * Database#beginSnapshotTransaction). Every change a transaction makes to a
+ * page is recorded with the bytes it changed, from the same before and after
+ * images that the change is logged with. A snapshot reads a page by rolling
+ * back every change made by a transaction that had not ended when the
+ * snapshot began.
+ *
+ * Changes are rolled back by XORing the difference between their before and
+ * after images into the page. This way a change is rolled back even if a
+ * visible change to other bits of the same bytes (e.g. a neighbouring slot's
+ * bit in a page's bitmap) was made after it, and the order in which changes
+ * are rolled back does not matter. A snapshot sees either all or none of a
+ * transaction's changes, so the changes a transaction makes to a page are
+ * folded into one version as they are recorded: the store holds at most one
+ * version per transaction and page, however often the page is written.
+ *
+ * Times are positions in the sequence of transaction ends: a snapshot sees
+ * exactly the transactions that ended before it began. A transaction's
+ * versions are dropped once every running snapshot sees it, which is as soon
+ * as it ends if no snapshot is running. A snapshot may begin while a
+ * transaction is still running, so the versions of running transactions are
+ * always kept.
+ *
+ * Snapshots take no locks, so a page can be written while a snapshot reads
+ * it. The buffer manager holds the page's frame lock while it records a
+ * change and copies it into the page, and while it copies bytes out of the
+ * page and rolls them back, so that a snapshot never sees a change without
+ * the version that rolls it back. The versions of each page are guarded by
+ * the page's entry in the store, so writes to different pages, and the
+ * transaction ends and snapshot reads that go with them, do not wait for each
+ * other.
+ */
+public class VersionStore {
+    // Changes made by a transaction to a page: bytes [offset, offset + delta.length)
+    // were XORed with delta.
+    private static class Version {
+        int offset;
+        byte[] delta;
+
+        Version(int offset, byte[] delta) {
+            this.offset = offset;
+            this.delta = delta;
+        }
+
+        // Folds in a change to bytes [offset, offset + before.length).
+        void add(int offset, byte[] before, byte[] after) {
+            int start = Math.min(this.offset, offset);
+            int end = Math.max(this.offset + this.delta.length, offset + before.length);
+            if (start != this.offset || end != this.offset + this.delta.length) {
+                byte[] delta = new byte[end - start];
+                System.arraycopy(this.delta, 0, delta, this.offset - start, this.delta.length);
+                this.offset = start;
+                this.delta = delta;
+            }
+            for (int i = 0; i < before.length; ++i) {
+                this.delta[offset - this.offset + i] ^= (byte) (before[i] ^ after[i]);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the store: reads through it see the changes of
+     * transactions that ended before it began, and the owner's own changes.
+     */
+    public class Snapshot implements AutoCloseable {
+        private final long transNum;
+        private final long time;
+        private boolean closed;
+
+        private Snapshot(long transNum, long time) {
+            this.transNum = transNum;
+            this.time = time;
+        }
+
+        /**
+         * @return number of the transaction reading through this snapshot
+         */
+        public long getTransNum() {
+            return transNum;
+        }
+
+        /**
+         * Ends the snapshot, letting go of the versions only it needed.
+         */
+        @Override
+        public void close() {
+            endSnapshot(this);
+        }
+    }
+
+    // Versions of each page, by transaction. A page's versions are only read or
+    // changed inside a compute call on its entry.
+    private final Map<Long, Map<Long, Version>> versions = new ConcurrentHashMap<>();
+    // Pages changed by each transaction that has versions in the store.
+    private final Map<Long, Set<Long>> transactionPages = new ConcurrentHashMap<>();
+    // Time at which each transaction with versions in the store ended.
+    private final Map<Long, Long> endTimes = new ConcurrentHashMap<>();
+
+    // Number of transactions that have ended (the current time). Guarded by this.
+    private long clock = 0;
+    // Transactions that ended, by end time, whose versions are still in the store. Guarded by this.
+    private final SortedMap<Long, Long> endedTransactions = new TreeMap<>();
+    // Number of running snapshots by begin time. Guarded by this.
+    private final SortedMap<Long, Integer> snapshotTimes = new TreeMap<>();
+
+    /**
+     * Records a change to a page. Must not be called once the transaction
+     * has ended.
+     *
+     * @param transNum transaction making the change
+     * @param pageNum page changed
+     * @param offset offset of the change in the page
+     * @param before bytes before the change
+     * @param after bytes after the change
+     */
+    public void recordWrite(long transNum, long pageNum, int offset, byte[] before, byte[] after) {
+        transactionPages.computeIfAbsent(transNum, t -> ConcurrentHashMap.newKeySet()).add(pageNum);
+        versions.compute(pageNum, (p, pageVersions) -> {
+            if (pageVersions == null) {
+                pageVersions = new HashMap<>();
+            }
+            pageVersions.computeIfAbsent(transNum, t -> new Version(offset, new byte[before.length]))
+                        .add(offset, before, after);
+            return pageVersions;
+        });
+    }
+
+    /**
+     * Marks a transaction as ended (committed, or rolled back): snapshots that
+     * begin from now on see its changes.
+     */
+    public synchronized void endTransaction(long transNum) {
+        ++clock;
+        if (transactionPages.containsKey(transNum) && !endTimes.containsKey(transNum)) {
+            endTimes.put(transNum, clock);
+            endedTransactions.put(clock, transNum);
+            dropVisibleVersions();
+        }
+    }
+
+    /**
+     * Begins a snapshot, as of now.
+     *
+     * @param transNum transaction that reads through the snapshot
+     */
+    public synchronized Snapshot beginSnapshot(long transNum) {
+        snapshotTimes.merge(clock, 1, Integer::sum);
+        return new Snapshot(transNum, clock);
+    }
+
+    private synchronized void endSnapshot(Snapshot snapshot) {
+        if (snapshot.closed) {
+            return;
+        }
+        snapshot.closed = true;
+        snapshotTimes.computeIfPresent(snapshot.time, (t, n) -> n == 1 ? null : n - 1);
+        dropVisibleVersions();
+    }
+
+    /**
+     * Drops the versions of transactions that every running snapshot sees.
+     * Transactions are dropped in the order they ended, and each of a
+     * transaction's versions is dropped in constant time.
+     */
+    private void dropVisibleVersions() {
+        long horizon = snapshotTimes.isEmpty() ? clock : snapshotTimes.firstKey();
+        while (!endedTransactions.isEmpty() && endedTransactions.firstKey() <= horizon) {
+            long transNum = endedTransactions.remove(endedTransactions.firstKey());
+            Set<Long> pageNums = transactionPages.remove(transNum);
+            if (pageNums != null) {
+                for (long pageNum : pageNums) {
+                    versions.computeIfPresent(pageNum, (p, pageVersions) -> {
+                        pageVersions.remove(transNum);
+                        return pageVersions.isEmpty() ? null : pageVersions;
+                    });
+                }
+            }
+            endTimes.remove(transNum);
+        }
+    }
+
+    /**
+     * Drops the changes to a page that was freed, so that they are not rolled
+     * back on a page that reuses its page number.
+     */
+    public void dropPage(long pageNum) {
+        versions.remove(pageNum);
+    }
+
+    /**
+     * Drops the changes to the pages of a partition that was freed.
+     */
+    public void dropPartition(int partNum) {
+        versions.keySet().removeIf(pageNum -> DiskSpaceManager.getPartNum(pageNum) == partNum);
+    }
+
+    /**
+     * Rolls back bytes read from a page to their state in a snapshot.
+     *
+     * @param snapshot snapshot to read as of
+     * @param pageNum page the bytes were read from
+     * @param offset offset in the page the bytes were read from
+     * @param buf bytes read, as of now
+     * @param num number of bytes read
+     */
+    public void rollBack(Snapshot snapshot, long pageNum, int offset, byte[] buf, int num) {
+        versions.computeIfPresent(pageNum, (p, pageVersions) -> {
+            for (Map.Entry<Long, Version> entry : pageVersions.entrySet()) {
+                if (isVisible(snapshot, entry.getKey())) {
+                    continue;
+                }
+                Version version = entry.getValue();
+                int start = Math.max(offset, version.offset);
+                int end = Math.min(offset + num, version.offset + version.delta.length);
+                for (int pos = start; pos < end; ++pos) {
+                    buf[pos - offset] ^= version.delta[pos - version.offset];
+                }
+            }
+            return pageVersions;
+        });
+    }
+
+    private boolean isVisible(Snapshot snapshot, long transNum) {
+        if (transNum == snapshot.transNum) {
+            return true;
+        }
+        Long endTime = endTimes.get(transNum);
+        return endTime != null && endTime <= snapshot.time;
+    }
+
+    /**
+     * @return number of versions in the store
+     */
+    public int getNumVersions() {
+        int numVersions = 0;
+        for (long pageNum : versions.keySet()) {
+            Map<Long, Version> pageVersions = versions.computeIfPresent(pageNum, (p, v) -> v);
+            numVersions += pageVersions == null ? 0 : pageVersions.size();
+        }
+        return numVersions;
+    }
+}
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.query.join.BNLJOperator;
 import edu.berkeley.cs186.database.query.join.SNLJOperator;
@@ -479,10 +480,7 @@ public class QueryPlan {
         for (JoinPredicate predicate : joinPredicates) {
             this.finalOperator = new SNLJOperator(
                     finalOperator,
-                    new SequentialScanOperator(
-                            this.transaction,
-                            tableNames.get(pos)
-                    ),
+                    sequentialScan(tableNames.get(pos)),
                     predicate.leftColumn,
                     predicate.rightColumn,
                     this.transaction
@@ -504,6 +502,19 @@ public class QueryPlan {
         this.transaction.setAliasMap(this.aliases);
     }
 
+    /**
+     * Creates a sequential scan over the given table. A table with more data
+     * pages than the query's work memory is read through a ring of
+     * BufferAccessStrategy.DEFAULT_RING_SIZE frames, so that scanning it
+     * doesn't flush the rest of the buffer pool.
+     */
+    private SequentialScanOperator sequentialScan(String table) {
+        if (this.transaction.getNumDataPages(table) > this.transaction.getWorkMemSize()) {
+            return new SequentialScanOperator(this.transaction, table, new BufferAccessStrategy());
+        }
+        return new SequentialScanOperator(this.transaction, table);
+    }
+
     // Task 5: Single Table Access Selection ///////////////////////////////////
 
     /**
@@ -574,7 +585,7 @@ public class QueryPlan {
      * minimum cost operator can be broken arbitrarily.
      */
     public QueryOperator minCostSingleAccess(String table) {
-        QueryOperator minOp = new SequentialScanOperator(this.transaction, table);
+        QueryOperator minOp = sequentialScan(table);
 
         // TODO(proj3_part2): implement
         return minOp;
@@ -769,10 +780,7 @@ public class QueryPlan {
             this.generateIndexPlanNaive(indexPredicate);
         } else {
             // start off with a scan on the first table
-            this.finalOperator = new SequentialScanOperator(
-                    this.transaction,
-                    this.tableNames.get(0)
-            );
+            this.finalOperator = sequentialScan(this.tableNames.get(0));
 
             // add joins, selects, group by's and projects to our plan
             this.addJoinsNaive();
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -11,6 +12,7 @@ import java.util.Iterator;
 public class SequentialScanOperator extends QueryOperator {
     private TransactionContext transaction;
     private String tableName;
+    private BufferAccessStrategy strategy;
 
     /**
      * Creates a new SequentialScanOperator that provides an iterator on all
@@ -27,6 +29,21 @@ public class SequentialScanOperator extends QueryOperator {
         this(OperatorType.SEQ_SCAN, transaction, tableName);
     }
 
+    /**
+     * Creates a new SequentialScanOperator that loads the table's pages through
+     * a buffer access strategy, so that scanning a large table does not evict
+     * the pages other transactions are working with.
+     *
+     * @param transaction
+     * @param tableName
+     * @param strategy buffer access strategy to load pages through
+     */
+    public SequentialScanOperator(TransactionContext transaction,
+                                  String tableName, BufferAccessStrategy strategy) {
+        this(OperatorType.SEQ_SCAN, transaction, tableName);
+        this.strategy = strategy;
+    }
+
     protected SequentialScanOperator(OperatorType type,
                                      TransactionContext transaction,
                                      String tableName) {
@@ -57,6 +74,9 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
+        if (this.strategy != null) {
+            return this.transaction.getRecordIterator(tableName, this.strategy);
+        }
         return this.transaction.getRecordIterator(tableName);
     }
 
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query.disk;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.SequentialScanOperator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -12,7 +13,9 @@ import java.util.List;
  * A partition represents a section of space on disk that we can append records
  * to or read from. This is useful for external hashing to store records we
  * aren't using and free up memory. Automatically buffers reads and writes to
- * minimize I/Os incurred.
+ * minimize I/Os incurred. Pages of the partition are loaded through a small ring
+ * of buffer frames, so that partitioning a large input doesn't flush the buffer
+ * pool.
  */
 public class Partition implements Iterable<Record> {
     // The transaction this partition will be used within
@@ -23,6 +26,7 @@ public class Partition implements Iterable<Record> {
     public Partition(TransactionContext transaction, Schema s) {
         this.transaction = transaction;
         this.tempTableName = transaction.createTempTable(s);
+        this.transaction.getTable(this.tempTableName).setAccessStrategy(new BufferAccessStrategy());
     }
 
     /**
@@ -3,6 +3,7 @@ package edu.berkeley.cs186.database.query.disk;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.EmptyBacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -12,7 +13,8 @@ import java.util.List;
  * A run represents a section of space on disk that we can append records to or
  * read from. This is useful for external sorting to store records while we
  * aren't using them and free up memory. Automatically buffers reads and writes
- * to minimize I/Os incurred.
+ * to minimize I/Os incurred. Pages of the run are loaded through a small ring of
+ * buffer frames, so that sorting a large input doesn't flush the buffer pool.
  */
 public class Run implements Iterable<Record> {
     // The transaction this run will be used within
@@ -33,6 +35,7 @@ public class Run implements Iterable<Record> {
     public void add(Record record) {
         if (this.tempTableName == null) {
             this.tempTableName = transaction.createTempTable(schema);
+            this.transaction.getTable(this.tempTableName).setAccessStrategy(new BufferAccessStrategy());
         }
         this.transaction.addRecord(this.tempTableName, record);
     }
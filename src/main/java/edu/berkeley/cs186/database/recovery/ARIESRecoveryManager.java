@@ -1,15 +1,26 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.Lock;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.concurrency.ResourceName;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -25,18 +36,60 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // transaction number.
     private Function<Long, Transaction> newTransaction;
 
+    // Directory of the dedicated WAL segment files, or null if the log is kept on
+    // the log partition.
+    private String walDir;
+
     // Log manager
     LogManager logManager;
     // Dirty page table (page number -> recLSN).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
     Map<Long, TransactionTableEntry> transactionTable = new ConcurrentHashMap<>();
+    // Pages written out by checkpoints (page number -> pageLSN written), as read
+    // by analysis from checkpoint page index records; redo skips the changes to
+    // these pages up to the pageLSN written.
+    Map<Long, Long> diskPageLSNs = new ConcurrentHashMap<>();
     // true if redo phase of restart has terminated, false otherwise. Used
     // to prevent DPT entries from being flushed during restartRedo.
     boolean redoComplete;
 
+    // Maximum number of records queued for each redo worker before the log scan
+    // waits for the worker to catch up.
+    static final int REDO_QUEUE_SIZE = 1024;
+
+    // Maximum number of pages that redo loads ahead of redoing the records
+    // modifying them; at most half of the buffer pool is used.
+    static final int REDO_WINDOW_PAGES = 256;
+
+    // Number of threads that redo page records during restart; 1 redoes the log
+    // on the thread calling restart.
+    private volatile int numRedoWorkers = 1;
+
+    // Thread rolling back the losers left by restartOnline, or null.
+    private volatile Thread undoThread;
+
+    // Periodic checkpointer, or null if it is not running.
+    private Checkpointer checkpointer;
+    // Held while a checkpoint is being written, so that checkpoints do not interleave.
+    private final Object checkpointLock = new Object();
+    // Redo start LSN of the last checkpoint (see getRedoStartLSN).
+    private volatile long redoStartLSN;
+    // true if the log is truncated after every checkpoint.
+    private volatile boolean truncateLog;
+
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
+        this(newTransaction, null);
+    }
+
+    /**
+     * @param newTransaction function to create a new transaction for recovery
+     * @param walDir directory to keep the log in, as dedicated WAL segment files that
+     *               bypass the buffer manager; null to keep the log on the log partition
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, String walDir) {
         this.newTransaction = newTransaction;
+        this.walDir = walDir;
     }
 
     /**
@@ -64,7 +117,29 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        if (walDir == null) {
+            this.logManager = new LogManager(bufferManager);
+        } else {
+            this.logManager = new LogManager(new SegmentLogStorage(walDir));
+        }
+    }
+
+    /**
+     * Sets the number of threads that redo page records during restart recovery.
+     * @param numRedoWorkers number of redo threads; 1 redoes the log serially
+     */
+    public void setRedoWorkers(int numRedoWorkers) {
+        if (numRedoWorkers < 1) {
+            throw new IllegalArgumentException("need at least one redo worker, got " + numRedoWorkers);
+        }
+        this.numRedoWorkers = numRedoWorkers;
+    }
+
+    /**
+     * @return number of threads that redo page records during restart recovery
+     */
+    public int getRedoWorkers() {
+        return this.numRedoWorkers;
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -86,14 +161,20 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *
      * A commit record should be appended, the log should be flushed,
      * and the transaction table and the transaction status should be updated.
+     * The log is flushed with group commit, so concurrent commits share a flush.
      *
      * @param transNum transaction being committed
      * @return LSN of the commit record
      */
     @Override
     public long commit(long transNum) {
-        // TODO(proj5): implement
-        return -1L;
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        long LSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, transactionEntry.lastLSN));
+        transactionEntry.lastLSN = LSN;
+        // share the flush with any other transactions committing at the same time
+        logManager.groupFlushToLSN(LSN);
+        transactionEntry.transaction.setStatus(Transaction.Status.COMMITTING);
+        return LSN;
     }
 
     /**
@@ -399,25 +480,184 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * begin checkpoint record.
      */
     @Override
-    public synchronized void checkpoint() {
-        // Create begin checkpoint log record and write to log
-        LogRecord beginRecord = new BeginCheckpointLogRecord();
-        long beginLSN = logManager.appendToLog(beginRecord);
+    public void checkpoint() {
+        this.checkpoint(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a checkpoint as described in checkpoint(), after writing out
+     * every page in the DPT whose recLSN is on a log page more than
+     * maxRedoLogPages pages before the begin checkpoint record (pages that are
+     * pinned at the time are skipped). Written pages leave the DPT, which moves
+     * the start of redo forward for this and later checkpoints. The pages
+     * written out are listed, sorted by page number and with their recLSN and
+     * the pageLSN written, in checkpoint page index records after the end
+     * checkpoint records, so that analysis knows that changes logged to them
+     * up to that pageLSN need no redo.
+     *
+     * The checkpoint is fuzzy: the DPT and transaction table are neither locked
+     * nor copied as a whole, but read an entry at a time as end checkpoint
+     * records are filled, so that forward processing is not held up while the
+     * records are written. Anything that changes meanwhile is logged after the
+     * begin checkpoint record, which is where analysis starts reading.
+     *
+     * @param maxRedoLogPages number of log pages a recLSN may lag behind the
+     *                        begin checkpoint record
+     * @return the redo start LSN of this checkpoint (see getRedoStartLSN)
+     */
+    public long checkpoint(int maxRedoLogPages) {
+        synchronized (checkpointLock) {
+            // Create begin checkpoint log record and write to log
+            LogRecord beginRecord = new BeginCheckpointLogRecord();
+            long beginLSN = logManager.appendToLog(beginRecord);
+
+            long minLogPage = LogManager.getLSNPage(beginLSN) - maxRedoLogPages;
+            // page number -> (recLSN, pageLSN on disk) of the pages written out
+            SortedMap<Long, Pair<Long, Long>> pageIndex = new TreeMap<>();
+            for (Map.Entry<Long, Long> e : dirtyPageTable.entrySet()) {
+                long recLSN = e.getValue();
+                if (LogManager.getLSNPage(recLSN) < minLogPage && bufferManager.flushPage(e.getKey())) {
+                    long diskPageLSN = bufferManager.getDiskPageLSN(e.getKey());
+                    if (diskPageLSN != 0L) {
+                        pageIndex.put(e.getKey(), new Pair<>(recLSN, diskPageLSN));
+                    }
+                }
+            }
+
+            Map<Long, Long> chkptDPT = new HashMap<>();
+            Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
+            long redoStartLSN = beginLSN;
+
+            for (Map.Entry<Long, Long> e : dirtyPageTable.entrySet()) {
+                if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size() + 1, chkptTxnTable.size())) {
+                    logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                    chkptDPT = new HashMap<>();
+                    chkptTxnTable = new HashMap<>();
+                }
+                chkptDPT.put(e.getKey(), e.getValue());
+                redoStartLSN = Math.min(redoStartLSN, e.getValue());
+            }
+            for (Map.Entry<Long, TransactionTableEntry> e : transactionTable.entrySet()) {
+                if (!EndCheckpointLogRecord.fitsInOneRecord(chkptDPT.size(), chkptTxnTable.size() + 1)) {
+                    logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
+                    chkptDPT = new HashMap<>();
+                    chkptTxnTable = new HashMap<>();
+                }
+                TransactionTableEntry entry = e.getValue();
+                chkptTxnTable.put(e.getKey(), new Pair<>(entry.transaction.getStatus(), entry.lastLSN));
+            }
+
+            // Last end checkpoint record
+            LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
+            long lastLSN = logManager.appendToLog(endRecord);
+
+            Map<Long, Pair<Long, Long>> chkptPageIndex = new HashMap<>();
+            for (Map.Entry<Long, Pair<Long, Long>> e : pageIndex.entrySet()) {
+                if (!CheckpointPageIndexLogRecord.fitsInOneRecord(chkptPageIndex.size() + 1)) {
+                    logManager.appendToLog(new CheckpointPageIndexLogRecord(chkptPageIndex));
+                    chkptPageIndex = new HashMap<>();
+                }
+                chkptPageIndex.put(e.getKey(), e.getValue());
+            }
+            if (!chkptPageIndex.isEmpty()) {
+                lastLSN = logManager.appendToLog(new CheckpointPageIndexLogRecord(chkptPageIndex));
+            }
+            // Ensure checkpoint is fully flushed before updating the master record
+            flushToLSN(lastLSN);
+
+            // Update master record
+            MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
+            logManager.rewriteMasterRecord(masterRecord);
+
+            this.redoStartLSN = redoStartLSN;
+            if (this.truncateLog) {
+                this.truncateLog();
+            }
+            return redoStartLSN;
+        }
+    }
+
+    /**
+     * Turns on log truncation: after every checkpoint, the log is truncated up
+     * to the truncation LSN (see getTruncationLSN).
+     *
+     * @param archiveDir directory to copy truncated log pages to, or null to
+     *                   discard them
+     */
+    public synchronized void enableLogTruncation(String archiveDir) {
+        this.logManager.setArchive(archiveDir == null ? null : new LogArchive(archiveDir));
+        this.truncateLog = true;
+    }
 
-        Map<Long, Long> chkptDPT = new HashMap<>();
-        Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
+    /**
+     * Truncates the log up to the truncation LSN (see getTruncationLSN).
+     *
+     * @return number of log pages discarded
+     */
+    public int truncateLog() {
+        return this.logManager.truncate(this.getTruncationLSN());
+    }
 
-        // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
+    /**
+     * Returns the LSN of the oldest log record that recovery may still need:
+     * the smallest of the LSN that the last checkpoint begins at (where
+     * analysis starts), the recLSNs in the DPT (where redo starts), and the
+     * LSNs of the first records of the transactions in the transaction table
+     * (which undo may go back to).
+     *
+     * @return LSN before which the log may be truncated
+     */
+    long getTruncationLSN() {
+        MasterLogRecord masterRecord = (MasterLogRecord) logManager.fetchLogRecord(0L);
+        long LSN = masterRecord.lastCheckpointLSN;
+        for (long recLSN : dirtyPageTable.values()) {
+            LSN = Math.min(LSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            if (entry.firstLSN == 0L && entry.lastLSN != 0L) {
+                // the first record of a transaction never changes, so this walk
+                // back through its records is only done once
+                long firstLSN = entry.lastLSN;
+                LogRecord record = logManager.fetchLogRecord(firstLSN);
+                while (record.getPrevLSN().orElse(0L) != 0L) {
+                    firstLSN = record.getPrevLSN().get();
+                    record = logManager.fetchLogRecord(firstLSN);
+                }
+                entry.firstLSN = firstLSN;
+            }
+            if (entry.firstLSN != 0L) {
+                LSN = Math.min(LSN, entry.firstLSN);
+            }
+        }
+        return LSN;
+    }
 
-        // Last end checkpoint record
-        LogRecord endRecord = new EndCheckpointLogRecord(chkptDPT, chkptTxnTable);
-        logManager.appendToLog(endRecord);
-        // Ensure checkpoint is fully flushed before updating the master record
-        flushToLSN(endRecord.getLSN());
+    /**
+     * Returns the LSN that restart recovery would start reading the log at if
+     * the database crashed now: the smaller of the last checkpoint's begin
+     * checkpoint LSN and the recLSNs recorded in it. The log from there to the
+     * tail bounds the work of analysis and redo.
+     *
+     * @return redo start LSN of the last checkpoint, or 0 if none has been taken
+     */
+    public long getRedoStartLSN() {
+        return this.redoStartLSN;
+    }
 
-        // Update master record
-        MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
-        logManager.rewriteMasterRecord(masterRecord);
+    /**
+     * Starts a checkpointer thread, which takes a checkpoint every
+     * intervalMillis, writing out the pages whose recLSN is more than
+     * maxRedoLogPages log pages behind (see checkpoint(int)).
+     *
+     * @param maxRedoLogPages number of log pages a recLSN may lag behind the log
+     *                        tail at a checkpoint
+     * @param intervalMillis time between checkpoints
+     */
+    public synchronized void startCheckpointer(int maxRedoLogPages, long intervalMillis) {
+        if (this.checkpointer != null) {
+            throw new IllegalStateException("checkpointer already running");
+        }
+        this.checkpointer = new Checkpointer(this, maxRedoLogPages, intervalMillis);
     }
 
     /**
@@ -442,6 +682,13 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        synchronized (this) {
+            if (this.checkpointer != null) {
+                this.checkpointer.close();
+                this.checkpointer = null;
+            }
+        }
+        this.awaitUndo();
         this.checkpoint();
         this.logManager.close();
     }
@@ -468,6 +715,128 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.checkpoint();
     }
 
+    /**
+     * Performs restart recovery without waiting for undo: analysis and redo
+     * run as in restart, after which the loser transactions take back their
+     * locks and are rolled back by a background thread. New transactions may
+     * be started once this method returns; they block on the pages (and the
+     * tables and database above them) that a loser still has to undo, until
+     * that loser has ended and released its locks. A checkpoint is taken once
+     * the last loser has ended.
+     *
+     * A loser that touched a page that pageLockContext maps to null (such as a
+     * page of an index or of the metadata tables), or that allocated or freed a
+     * partition, cannot be protected by locks, and is rolled back before this
+     * method returns.
+     *
+     * Database does not restart this way yet: its tables only request NL
+     * locks on their pages, so new transactions would not block on the pages
+     * that losers still have to undo.
+     *
+     * @param lockManager lock manager to reacquire the locks of losers with
+     * @param pageLockContext function from a page number to the lock context
+     *                        of the page, or to null if the page is not locked
+     */
+    public void restartOnline(LockManager lockManager, Function<Long, LockContext> pageLockContext) {
+        this.restartAnalysis();
+        this.restartRedo();
+        this.redoComplete = true;
+        this.cleanDPT();
+
+        // transaction number -> lock contexts of the pages left to undo
+        Map<Long, List<LockContext>> lockableLosers = new HashMap<>();
+        List<Long> unlockableLosers = new ArrayList<>();
+        for (Map.Entry<Long, TransactionTableEntry> e : transactionTable.entrySet()) {
+            if (e.getValue().transaction.getStatus() != Transaction.Status.RECOVERY_ABORTING) {
+                continue;
+            }
+            List<LockContext> pages = new ArrayList<>();
+            long LSN = e.getValue().lastLSN;
+            while (LSN != 0L && pages != null) {
+                LogRecord record = logManager.fetchLogRecord(LSN);
+                if (record.isUndoable()) {
+                    LockContext context = record.getPageNum().map(pageLockContext).orElse(null);
+                    if (context == null) {
+                        pages = null;
+                    } else {
+                        pages.add(context);
+                    }
+                }
+                LSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+            }
+            if (pages == null) {
+                unlockableLosers.add(e.getKey());
+            } else {
+                lockableLosers.put(e.getKey(), pages);
+            }
+        }
+        undoTransactions(unlockableLosers, transNum -> {});
+
+        Map<Long, TransactionContext> loserContexts = new HashMap<>();
+        for (Map.Entry<Long, List<LockContext>> e : lockableLosers.entrySet()) {
+            TransactionContext transaction = transactionTable.get(e.getKey()).transaction.getTransactionContext();
+            loserContexts.put(e.getKey(), transaction);
+            for (LockContext page : e.getValue()) {
+                acquireUndoLocks(lockManager, transaction, page);
+            }
+        }
+        undoThread = new Thread(() -> {
+            undoTransactions(lockableLosers.keySet(), transNum -> {
+                // release bottom-up, so a waiter never finds a page free under a locked table
+                TransactionContext transaction = loserContexts.get(transNum);
+                List<Lock> locks = lockManager.getLocks(transaction);
+                Collections.reverse(locks);
+                for (Lock lock : locks) {
+                    lockManager.release(transaction, lock.name);
+                }
+            });
+            checkpoint();
+        }, "recovery-undo");
+        undoThread.setDaemon(true);
+        undoThread.start();
+    }
+
+    /**
+     * Takes X on page, and IX on every ancestor of page, for transaction,
+     * skipping the locks it already holds.
+     */
+    private static void acquireUndoLocks(LockManager lockManager, TransactionContext transaction,
+                                         LockContext page) {
+        Deque<LockContext> path = new ArrayDeque<>();
+        for (LockContext context = page; context != null; context = context.parentContext()) {
+            path.push(context);
+        }
+        for (LockContext context : path) {
+            ResourceName name = context.getResourceName();
+            if (lockManager.getLockType(transaction, name) == LockType.NL) {
+                lockManager.acquire(transaction, name, context == page ? LockType.X : LockType.IX);
+            }
+        }
+    }
+
+    /**
+     * Waits until the losers left by restartOnline have been rolled back and
+     * the checkpoint after them taken. Returns immediately if there is no
+     * background undo.
+     */
+    public void awaitUndo() {
+        Thread thread = undoThread;
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * This method performs the analysis pass of restart recovery.
      *
@@ -502,6 +871,12 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   checkpoint. For example, running -> aborting is a possible transition,
      *   but aborting -> running is not.
      *
+     * If the log record is a checkpoint page index record, note the pageLSN
+     * each listed page was written out with (see diskPageLSNs). A checkpoint
+     * only writes pages out after its begin record, so a page written out
+     * with a pageLSN at or after the last update to it read from the log is
+     * removed from the DPT once all records are processed.
+     *
      * After all records in the log are processed, for each ttable entry:
      *  - if COMMITTING: clean up the transaction, change status to COMPLETE,
      *    remove from the ttable, and append an end record
@@ -519,8 +894,108 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = masterRecord.lastCheckpointLSN;
         // Set of transactions that have completed
         Set<Long> endedTransactions = new HashSet<>();
-        // TODO(proj5): implement
-        return;
+        // page number -> LSN of the last update to the page read
+        Map<Long, Long> lastUpdateLSNs = new HashMap<>();
+        diskPageLSNs.clear();
+
+        Iterator<LogRecord> records = logManager.scanFrom(LSN);
+        while (records.hasNext()) {
+            record = records.next();
+            if (record.getTransNum().isPresent()) {
+                long transNum = record.getTransNum().get();
+                if (!transactionTable.containsKey(transNum)) {
+                    startTransaction(newTransaction.apply(transNum));
+                }
+                transactionTable.get(transNum).lastLSN = record.getLSN();
+            }
+            if (record.getPageNum().isPresent()) {
+                long pageNum = record.getPageNum().get();
+                switch (record.getType()) {
+                case UPDATE_PAGE:
+                case UNDO_UPDATE_PAGE:
+                    dirtyPageTable.putIfAbsent(pageNum, record.getLSN());
+                    lastUpdateLSNs.put(pageNum, record.getLSN());
+                    break;
+                case FREE_PAGE:
+                case UNDO_ALLOC_PAGE:
+                    dirtyPageTable.remove(pageNum);
+                    break;
+                default:
+                    break;
+                }
+            }
+            switch (record.getType()) {
+            case COMMIT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction
+                        .setStatus(Transaction.Status.COMMITTING);
+                break;
+            case ABORT_TRANSACTION:
+                transactionTable.get(record.getTransNum().get()).transaction
+                        .setStatus(Transaction.Status.RECOVERY_ABORTING);
+                break;
+            case END_TRANSACTION:
+                long transNum = record.getTransNum().get();
+                Transaction transaction = transactionTable.remove(transNum).transaction;
+                transaction.cleanup();
+                transaction.setStatus(Transaction.Status.COMPLETE);
+                endedTransactions.add(transNum);
+                break;
+            case END_CHECKPOINT:
+                dirtyPageTable.putAll(record.getDirtyPageTable());
+                for (Map.Entry<Long, Pair<Transaction.Status, Long>> e : record.getTransactionTable().entrySet()) {
+                    long chkptTransNum = e.getKey();
+                    if (endedTransactions.contains(chkptTransNum)) {
+                        continue;
+                    }
+                    if (!transactionTable.containsKey(chkptTransNum)) {
+                        startTransaction(newTransaction.apply(chkptTransNum));
+                    }
+                    TransactionTableEntry entry = transactionTable.get(chkptTransNum);
+                    entry.lastLSN = Math.max(entry.lastLSN, e.getValue().getSecond());
+                    Transaction.Status chkptStatus = e.getValue().getFirst();
+                    if (chkptStatus == Transaction.Status.ABORTING) {
+                        chkptStatus = Transaction.Status.RECOVERY_ABORTING;
+                    }
+                    if (entry.transaction.getStatus() == Transaction.Status.RUNNING
+                            && chkptStatus != Transaction.Status.RUNNING) {
+                        entry.transaction.setStatus(chkptStatus);
+                    }
+                }
+                break;
+            case CHECKPOINT_PAGE_INDEX:
+                for (Map.Entry<Long, Pair<Long, Long>> e : record.getPageIndex().entrySet()) {
+                    diskPageLSNs.merge(e.getKey(), e.getValue().getSecond(), Math::max);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        for (Map.Entry<Long, Long> e : diskPageLSNs.entrySet()) {
+            if (lastUpdateLSNs.getOrDefault(e.getKey(), 0L) <= e.getValue()) {
+                dirtyPageTable.remove(e.getKey());
+            }
+        }
+
+        List<Long> transNums = new ArrayList<>(transactionTable.keySet());
+        Collections.sort(transNums);
+        for (long transNum : transNums) {
+            TransactionTableEntry entry = transactionTable.get(transNum);
+            switch (entry.transaction.getStatus()) {
+            case COMMITTING:
+                entry.transaction.cleanup();
+                entry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, entry.lastLSN));
+                transactionTable.remove(transNum);
+                break;
+            case RUNNING:
+                entry.transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+                entry.lastLSN = logManager.appendToLog(new AbortTransactionLogRecord(transNum, entry.lastLSN));
+                break;
+            default:
+                break;
+            }
+        }
     }
 
     /**
@@ -533,11 +1008,281 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - allocates a page (AllocPage/UndoFreePage), always redo it
      * - modifies a page (Update/UndoUpdate/Free/UndoAlloc....Page) in
      *   the dirty page table with LSN >= recLSN, the page is fetched from disk,
-     *   the pageLSN is checked, and the record is redone if needed.
+     *   the pageLSN is checked, and the record is redone if needed. Records at
+     *   or before the pageLSN a checkpoint wrote the page out with (see
+     *   diskPageLSNs) are skipped without fetching the page.
+     *
+     * With more than one redo worker (see setRedoWorkers), records that touch a
+     * single page are handed off to the worker owning that page, so that each
+     * page's records are still redone in LSN order while different pages are
+     * fetched and redone in parallel. Partition-related records are redone by
+     * the scanning thread once all workers have caught up, since pages of the
+     * partition may be touched by any of them.
+     *
+     * Rather than fetching each page when its first record comes up, redo
+     * reads the log a window at a time and loads the pages that the window's
+     * records modify in page number order first, with adjacent pages read
+     * together (see nextRedoWindow). Workers finish each window before the
+     * next one is loaded.
      */
     void restartRedo() {
-        // TODO(proj5): implement
-        return;
+        if (dirtyPageTable.isEmpty()) {
+            return;
+        }
+        long startLSN = Collections.min(dirtyPageTable.values());
+        Iterator<LogRecord> iter = logManager.scanFrom(startLSN);
+        int windowPages = Math.max(1, Math.min(REDO_WINDOW_PAGES, bufferManager.getBufferSize() / 2));
+        int numWorkers = this.numRedoWorkers;
+        List<LogRecord> window;
+        if (numWorkers == 1) {
+            while (!(window = nextRedoWindow(iter, windowPages)).isEmpty()) {
+                for (LogRecord record : window) {
+                    redoIfPageStale(record);
+                }
+            }
+            return;
+        }
+
+        RedoWorker[] workers = new RedoWorker[numWorkers];
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int i = 0; i < numWorkers; ++i) {
+            workers[i] = new RedoWorker(i, error);
+        }
+        try {
+            while (error.get() == null) {
+                // load the next window's pages only once the workers are idle: frames
+                // claimed for loading and frames pinned by workers could otherwise
+                // pin every frame of a partition between them
+                for (RedoWorker worker : workers) {
+                    worker.drain();
+                }
+                if ((window = nextRedoWindow(iter, windowPages)).isEmpty()) {
+                    break;
+                }
+                for (LogRecord record : window) {
+                    Optional<Long> pageNum = record.getPageNum();
+                    if (pageNum.isPresent()) {
+                        workers[Math.floorMod(Long.hashCode(pageNum.get()), numWorkers)].add(record);
+                    } else {
+                        for (RedoWorker worker : workers) {
+                            worker.drain();
+                        }
+                        if (error.get() == null) {
+                            record.redo(this, diskSpaceManager, bufferManager);
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (RedoWorker worker : workers) {
+                worker.finish();
+            }
+        }
+        Throwable t = error.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    /**
+     * Reads the next window of records that needsRedo accepts from the redo
+     * scan, and loads the pages they modify (see BufferManager#loadPages). A
+     * window ends once its records modify maxPages pages, or with the first
+     * record that does not modify a page that already exists (such as the
+     * allocation of a page or partition), so that every page loaded is in the
+     * state that its records in the window expect.
+     *
+     * @return the records of the window, in log order; empty at the end of the log
+     */
+    private List<LogRecord> nextRedoWindow(Iterator<LogRecord> iter, int maxPages) {
+        List<LogRecord> window = new ArrayList<>();
+        Set<Long> pageNums = new HashSet<>();
+        while (iter.hasNext() && pageNums.size() < maxPages) {
+            LogRecord record = iter.next();
+            if (!needsRedo(record)) {
+                continue;
+            }
+            window.add(record);
+            if (!modifiesPage(record)) {
+                break;
+            }
+            pageNums.add(record.getPageNum().orElseThrow(IllegalStateException::new));
+        }
+        bufferManager.loadPages(pageNums);
+        return window;
+    }
+
+    /**
+     * @return whether the record modifies the contents of an existing page
+     * (Update/UndoUpdate/Free/UndoAlloc....Page)
+     */
+    private static boolean modifiesPage(LogRecord record) {
+        switch (record.getType()) {
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case FREE_PAGE:
+        case UNDO_ALLOC_PAGE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a record found by the redo scan may need to be redone,
+     * without looking at the page it modifies.
+     */
+    private boolean needsRedo(LogRecord record) {
+        if (!record.isRedoable()) {
+            return false;
+        }
+        switch (record.getType()) {
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case FREE_PAGE:
+        case UNDO_ALLOC_PAGE:
+            long pageNum = record.getPageNum().orElseThrow(IllegalStateException::new);
+            Long recLSN = dirtyPageTable.get(pageNum);
+            return recLSN != null && record.getLSN() >= recLSN
+                   && record.getLSN() > diskPageLSNs.getOrDefault(pageNum, 0L);
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Redoes a record that needsRedo accepted, if the page it modifies does not
+     * already reflect it.
+     */
+    private void redoIfPageStale(LogRecord record) {
+        switch (record.getType()) {
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case FREE_PAGE:
+        case UNDO_ALLOC_PAGE:
+            Page page = bufferManager.fetchPage(new DummyLockContext("_dummyRedoRecord"),
+                                                record.getPageNum().orElseThrow(IllegalStateException::new));
+            long pageLSN;
+            try {
+                pageLSN = page.getPageLSN();
+            } finally {
+                page.unpin();
+            }
+            if (pageLSN >= record.getLSN()) {
+                return;
+            }
+            break;
+        default:
+            break;
+        }
+        record.redo(this, diskSpaceManager, bufferManager);
+    }
+
+    /**
+     * Thread redoing the records of the pages assigned to it, in the order they
+     * are added. Stops redoing once any worker has failed.
+     */
+    private class RedoWorker {
+        // marks the end of the records for a worker
+        private final LogRecord done = new MasterLogRecord(0);
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(REDO_QUEUE_SIZE);
+        private final AtomicReference<Throwable> error;
+        private final Thread thread;
+
+        RedoWorker(int index, AtomicReference<Throwable> error) {
+            this.error = error;
+            this.thread = new Thread(this::run, "redo-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void run() {
+            while (true) {
+                Object item = take();
+                if (item == done) {
+                    return;
+                } else if (item instanceof CountDownLatch) {
+                    ((CountDownLatch) item).countDown();
+                } else if (error.get() == null) {
+                    try {
+                        redoIfPageStale((LogRecord) item);
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            }
+        }
+
+        private Object take() {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    // only stopped through `done`
+                }
+            }
+        }
+
+        private void put(Object item) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(item);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void add(LogRecord record) {
+            put(record);
+        }
+
+        /**
+         * Waits until every record added so far has been redone.
+         */
+        void drain() {
+            CountDownLatch latch = new CountDownLatch(1);
+            put(latch);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits until every record added so far has been redone, and stops the thread.
+         */
+        void finish() {
+            put(done);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -554,8 +1299,50 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   and remove from transaction table.
      */
     void restartUndo() {
-        // TODO(proj5): implement
-        return;
+        List<Long> losers = new ArrayList<>();
+        for (Map.Entry<Long, TransactionTableEntry> e : transactionTable.entrySet()) {
+            if (e.getValue().transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
+                losers.add(e.getKey());
+            }
+        }
+        undoTransactions(losers, transNum -> {});
+    }
+
+    /**
+     * Rolls back the given aborting transactions as described in restartUndo,
+     * calling onEnd with each transaction's number once its end record has been
+     * appended.
+     */
+    private void undoTransactions(Collection<Long> transNums, Consumer<Long> onEnd) {
+        PriorityQueue<Pair<Long, Long>> toUndo = new PriorityQueue<>(new PairFirstReverseComparator<>());
+        for (long transNum : transNums) {
+            toUndo.add(new Pair<>(transactionTable.get(transNum).lastLSN, transNum));
+        }
+        while (!toUndo.isEmpty()) {
+            Pair<Long, Long> next = toUndo.poll();
+            long transNum = next.getSecond();
+            TransactionTableEntry entry = transactionTable.get(transNum);
+            LogRecord record = logManager.fetchLogRecord(next.getFirst());
+            if (record.isUndoable()) {
+                LogRecord clr = record.undo(entry.lastLSN);
+                entry.lastLSN = logManager.appendToLog(clr);
+                if (clr.getType() != LogType.UNDO_UPDATE_PAGE) {
+                    // the CLR's change goes to disk right away, so it must be on disk first
+                    flushToLSN(clr.getLSN());
+                }
+                clr.redo(this, diskSpaceManager, bufferManager);
+            }
+            long nextLSN = record.getUndoNextLSN().orElse(record.getPrevLSN().orElse(0L));
+            if (nextLSN == 0L) {
+                entry.transaction.cleanup();
+                entry.transaction.setStatus(Transaction.Status.COMPLETE);
+                logManager.appendToLog(new EndTransactionLogRecord(transNum, entry.lastLSN));
+                transactionTable.remove(transNum);
+                onEnd.accept(transNum);
+            } else {
+                toUndo.add(new Pair<>(nextLSN, transNum));
+            }
+        }
     }
 
     /**
@@ -0,0 +1,175 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Log storage on the log partition (partition 0) of the database, accessed
+ * through the buffer manager like any other page.
+ *
+ * Truncated pages are freed, so the pages in use are page 0 and the range
+ * [firstPage, nextPage). New pages are allocated at nextPage rather than at the
+ * first free page of the partition, so that page numbers (and with them LSNs)
+ * keep increasing. Both ends of the range are found again when the log is
+ * opened, starting from the page of the last checkpoint (which is never
+ * truncated) as recorded by the master record.
+ */
+class BufferPoolLogStorage implements LogStorage {
+    private final BufferManager bufferManager;
+    // pages allocated by this log storage that have not been flushed yet
+    private final Map<Long, Page> unflushedPages = new ConcurrentHashMap<>();
+    // first page after page 0 that is in use, and page number of the next page to
+    // allocate; -1 until found; guarded by this
+    private long firstPage = -1L;
+    private long nextPage = -1L;
+
+    BufferPoolLogStorage(BufferManager bufferManager) {
+        this.bufferManager = bufferManager;
+    }
+
+    @Override
+    public synchronized long allocPage() {
+        findPagesInUse();
+        Page page = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"),
+                DiskSpaceManager.getVirtualPageNum(LogManager.LOG_PARTITION, (int) nextPage));
+        page.unpin();
+        unflushedPages.put(page.getPageNum(), page);
+        ++nextPage;
+        return page.getPageNum();
+    }
+
+    private void findPagesInUse() {
+        if (nextPage >= 0) {
+            return;
+        }
+        if (!isAllocated(0L)) {
+            firstPage = 1L;
+            nextPage = 0L;
+            return;
+        }
+        long checkpointPage = LogRecord.fromBytes(readPage(0L))
+                .filter(record -> record.getType() == LogType.MASTER)
+                .map(record -> LogManager.getLSNPage(((MasterLogRecord) record).lastCheckpointLSN))
+                .orElse(0L);
+        // the pages in use before the checkpoint are a suffix of [1, checkpointPage]
+        long lo = 1L;
+        long hi = Math.max(checkpointPage, 1L);
+        while (lo < hi) {
+            long mid = (lo + hi) / 2;
+            if (isAllocated(mid)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        firstPage = lo;
+        nextPage = checkpointPage + 1;
+        while (isAllocated(nextPage)) {
+            ++nextPage;
+        }
+    }
+
+    private boolean isAllocated(long pageNum) {
+        try {
+            fetchPage(pageNum).unpin();
+            return true;
+        } catch (PageException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void writePage(long pageNum, int offset, byte[] src, int srcOffset, int length) {
+        Page page = fetchPage(pageNum);
+        try {
+            // Buffer#put(byte[], int, int) takes the position to write at, not an
+            // offset into src
+            page.getBuffer().put(Arrays.copyOfRange(src, srcOffset, srcOffset + length), offset, length);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public void flushPages(Collection<Long> pageNums) {
+        for (long pageNum : pageNums) {
+            Page page = unflushedPages.remove(pageNum);
+            if (page != null) {
+                page.flush();
+                continue;
+            }
+            page = fetchPage(pageNum);
+            try {
+                page.flush();
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    @Override
+    public Buffer readPage(long pageNum) {
+        Page page = fetchPage(pageNum);
+        try {
+            byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+            page.getBuffer().get(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public synchronized int truncate(long pageNum, LogArchive archive) {
+        findPagesInUse();
+        long endPage = Math.min(pageNum, nextPage);
+        if (archive != null) {
+            for (long p = firstPage; p < endPage; ++p) {
+                byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+                readPage(p).get(bytes);
+                archive.archivePage(p, bytes);
+            }
+            archive.flush();
+        }
+        int numTruncated = 0;
+        for (; firstPage < endPage; ++firstPage) {
+            Page page = fetchPage(firstPage);
+            try {
+                bufferManager.freePage(page);
+            } finally {
+                page.unpin();
+            }
+            ++numTruncated;
+        }
+        return numTruncated;
+    }
+
+    @Override
+    public synchronized long getFirstPage() {
+        findPagesInUse();
+        return firstPage;
+    }
+
+    private Page fetchPage(long pageNum) {
+        Page page = unflushedPages.get(pageNum);
+        if (page != null) {
+            page.pin();
+            return page;
+        }
+        return bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), pageNum);
+    }
+
+    @Override
+    public void close() {}
+}
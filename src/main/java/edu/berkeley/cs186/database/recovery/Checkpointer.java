@@ -0,0 +1,77 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Periodic checkpointer for the recovery manager. Every `intervalMillis`, takes
+ * a checkpoint that first writes out the pages whose recLSN lies more than
+ * `maxRedoLogPages` log pages behind the log tail, so that redo of a crash
+ * never has to start further back than that (plus the log written since the
+ * last checkpoint). See ARIESRecoveryManager#checkpoint(int).
+ */
+class Checkpointer implements AutoCloseable {
+    private final ARIESRecoveryManager recoveryManager;
+    private final int maxRedoLogPages;
+    private final long intervalMillis;
+    private final Thread thread;
+    // guarded by this
+    private boolean running;
+
+    /**
+     * Starts the checkpointer thread.
+     *
+     * @param recoveryManager recovery manager to take checkpoints of
+     * @param maxRedoLogPages number of log pages a recLSN may lag behind the log
+     *                        tail before its page is written out
+     * @param intervalMillis time between checkpoints
+     */
+    Checkpointer(ARIESRecoveryManager recoveryManager, int maxRedoLogPages, long intervalMillis) {
+        if (maxRedoLogPages < 0 || intervalMillis < 1) {
+            throw new IllegalArgumentException("checkpointer needs a non-negative redo window and a " +
+                                               "positive interval, got " + maxRedoLogPages +
+                                               " log pages every " + intervalMillis + "ms");
+        }
+        this.recoveryManager = recoveryManager;
+        this.maxRedoLogPages = maxRedoLogPages;
+        this.intervalMillis = intervalMillis;
+        this.running = true;
+        this.thread = new Thread(this::run, "checkpointer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                if (!this.running) {
+                    return;
+                }
+                try {
+                    // not Thread.sleep + interrupt: interrupting a thread in the middle of
+                    // a write closes the partition's file channel
+                    this.wait(this.intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!this.running) {
+                    return;
+                }
+            }
+            this.recoveryManager.checkpoint(this.maxRedoLogPages);
+        }
+    }
+
+    /**
+     * Stops the checkpointer, waiting for the current checkpoint to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.running = false;
+            this.notifyAll();
+        }
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
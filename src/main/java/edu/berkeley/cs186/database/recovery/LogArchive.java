@@ -0,0 +1,117 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Archive of truncated log pages. Pages are copied into segment files in a
+ * directory, in the same layout as the segment files of SegmentLogStorage:
+ * segment i holds log pages [i * pagesPerSegment, (i + 1) * pagesPerSegment),
+ * each at its offset within the segment. Segments of pages that were never
+ * archived are not created, and pages that were never archived read as zeros.
+ */
+class LogArchive implements AutoCloseable {
+    private final String archiveDir;
+    private final int pagesPerSegment;
+    // segment file pages are currently archived to; guarded by this
+    private RandomAccessFile file;
+    private int segment = -1;
+    private long numPages = 0;
+
+    LogArchive(String archiveDir) {
+        this(archiveDir, SegmentLogStorage.DEFAULT_PAGES_PER_SEGMENT);
+    }
+
+    /**
+     * Opens the archive in the given directory, creating the directory if it does not exist.
+     * @param archiveDir directory to keep the archived segment files in
+     * @param pagesPerSegment number of log pages per segment file
+     */
+    LogArchive(String archiveDir, int pagesPerSegment) {
+        if (pagesPerSegment < 1) {
+            throw new IllegalArgumentException("segments must hold at least one page, got " + pagesPerSegment);
+        }
+        this.archiveDir = archiveDir;
+        this.pagesPerSegment = pagesPerSegment;
+        File dir = new File(archiveDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not create log archive directory " + archiveDir);
+        }
+    }
+
+    private String segmentFileName(int segment) {
+        return String.format("%s/%08d.wal", archiveDir, segment);
+    }
+
+    /**
+     * Copies a log page into the archive. The copy is not necessarily durable
+     * until flush is called.
+     * @param pageNum page number of log page
+     * @param bytes contents of the page
+     */
+    synchronized void archivePage(long pageNum, byte[] bytes) {
+        try {
+            int pageSegment = (int) (pageNum / pagesPerSegment);
+            if (pageSegment != segment) {
+                flush();
+                if (file != null) {
+                    file.close();
+                }
+                file = new RandomAccessFile(segmentFileName(pageSegment), "rw");
+                segment = pageSegment;
+            }
+            FileChannel channel = file.getChannel();
+            ByteBuffer b = ByteBuffer.wrap(bytes, 0, DiskSpaceManager.PAGE_SIZE);
+            long pos = (pageNum % pagesPerSegment) * DiskSpaceManager.PAGE_SIZE;
+            while (b.hasRemaining()) {
+                channel.write(b, pos + b.position());
+            }
+            ++numPages;
+        } catch (IOException e) {
+            throw new PageException("could not archive log page: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes all pages archived so far durable.
+     */
+    synchronized void flush() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.getChannel().force(false);
+        } catch (IOException e) {
+            throw new PageException("could not flush log archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of pages archived
+     */
+    synchronized long getNumPages() {
+        return numPages;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            flush();
+            file.close();
+        } catch (IOException e) {
+            throw new PageException("could not close log archive: " + e.getMessage());
+        } finally {
+            file = null;
+            segment = -1;
+        }
+    }
+}
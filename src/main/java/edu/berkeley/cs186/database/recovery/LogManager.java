@@ -5,14 +5,17 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.IndexBacktrackingIterator;
-import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
-import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
@@ -33,27 +36,233 @@ import java.util.*;
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
  * These must be called from the buffer manager to ensure that pageLSN is up to date, and
  * that flushedLSN >= any pageLSN on disk.
+ *
+ * Committing transactions flush the log with groupFlushToLSN rather than flushToLSN, which
+ * implements group commit: the first committer to arrive becomes the leader of a group,
+ * waits up to the group commit window for other committers to join it, and then flushes
+ * the log once, up to the highest LSN of the group, on behalf of everyone. Committers that
+ * arrive while a flush is in progress wait for it to finish, and form the next group.
+ *
+ * Appending to the log does not take the log manager's lock. The log tail is kept in an
+ * in-memory image of its log page (LogBufferPage); appending threads reserve space on it
+ * (and thereby the LSN of their record) atomically, and copy their records in in parallel.
+ * When the tail page fills up, it is sealed: a new tail page is opened, and the image of
+ * the sealed page is handed to the log storage once every record reserved on it has been
+ * copied in. flushToLSN also seals the pages that it flushes. Group commit
+ * (groupFlushToLSN) does not seal the tail page: what has been appended so far is written
+ * out and flushed, and records appended later go on the same page, which is written out
+ * and flushed again by the next flush. This way a stream of small commits fills log pages
+ * rather than using one page per commit. Only opening a new tail page, handing pages to
+ * the log storage and flushing are serialized.
+ *
+ * Log pages are kept in a LogStorage: by default, on the log partition through the buffer
+ * manager (BufferPoolLogStorage), or, in dedicated WAL mode, in preallocated segment files
+ * that bypass the buffer manager entirely (SegmentLogStorage).
+ *
+ * The start of the log can be truncated once the records on it are no longer needed for
+ * recovery (see truncate). Truncated pages are optionally copied to a LogArchive first.
+ * Page numbers of truncated pages are never reused, so LSNs keep increasing.
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
-    private BufferManager bufferManager;
-    private Deque<Page> unflushedLogTail;
-    private Page logTail;
-    private Buffer logTailBuffer;
-    private boolean logTailPinned = false;
-    private long flushedLSN;
+    private LogStorage storage;
+    // log pages that have not been flushed yet, oldest first; guarded by this
+    private Deque<LogBufferPage> unflushedLogTail;
+    // page that records are appended to
+    private final AtomicReference<LogBufferPage> logTail = new AtomicReference<>();
+    private volatile long flushedLSN;
+
+    // Group commit state, guarded by groupCommitLock
+    private final ReentrantLock groupCommitLock = new ReentrantLock();
+    // signalled whenever a group flush completes
+    private final Condition groupFlushed = groupCommitLock.newCondition();
+    // highest LSN that a committer is waiting to be flushed
+    private long groupFlushLSN = -1L;
+    // true while a group leader is collecting or flushing its group
+    private boolean groupFlushing = false;
+    // time a group leader waits for other committers to join its group
+    private volatile long groupCommitWindowMicros = DEFAULT_GROUP_COMMIT_WINDOW_MICROS;
+    private long numGroupFlushes = 0;
+    private long numGroupCommits = 0;
+
+    // By default, committers only share a flush if they arrive while the previous
+    // group is being flushed, and single committers are never delayed.
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 0L;
 
     public static final int LOG_PARTITION = 0;
 
+    // archive that truncated log pages are copied to, or null
+    private LogArchive archive;
+    private long numTruncatedPages = 0;
+
     LogManager(BufferManager bufferManager) {
-        this.bufferManager = bufferManager;
+        this(new BufferPoolLogStorage(bufferManager));
+    }
+
+    /**
+     * @param storage storage for the log pages
+     */
+    LogManager(LogStorage storage) {
+        this.storage = storage;
         this.unflushedLogTail = new ArrayDeque<>();
 
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        this.unflushedLogTail.add(this.logTail);
-        this.logTailBuffer = this.logTail.getBuffer();
-        this.logTail.unpin();
+        LogBufferPage firstPage = this.openPage();
+        this.flushedLSN = maxLSN(firstPage.pageNum - 1L);
+    }
+
+    /**
+     * In-memory image of a log page that records are appended to.
+     *
+     * Appending threads reserve space on the page by advancing `reserved` with a CAS,
+     * copy their records into `bytes` in parallel, and then mark them as written in
+     * the order that they were reserved, so that the first `written` bytes of the page
+     * are always complete. Once sealed, no more space can be reserved on the page.
+     */
+    private class LogBufferPage {
+        // flag in `reserved`, set once the page is sealed
+        private static final int SEALED = 1 << 30;
+
+        final long pageNum;
+        // offset of the first unreserved byte of the page, | SEALED if sealed
+        final AtomicInteger reserved = new AtomicInteger(0);
+        // number of bytes at the start of the page that have been written
+        volatile int written = 0;
+        // number of bytes at the start of the page that have been copied to the
+        // log storage; guarded by the log manager
+        int synced = 0;
+        // the image of the page; null once the page is sealed and completely synced
+        byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        LogBufferPage(long pageNum) {
+            this.pageNum = pageNum;
+        }
+
+        /**
+         * Reserves space for a record on the page. If the record does not fit, the page
+         * is sealed.
+         * @param length length of the record
+         * @return offset of the reserved space, or -1 if the page is sealed
+         */
+        int reserve(int length) {
+            while (true) {
+                int offset = reserved.get();
+                if ((offset & SEALED) != 0) {
+                    return -1;
+                }
+                if (offset + length > DiskSpaceManager.PAGE_SIZE) {
+                    if (reserved.compareAndSet(offset, offset | SEALED)) {
+                        return -1;
+                    }
+                } else if (reserved.compareAndSet(offset, offset + length)) {
+                    return offset;
+                }
+            }
+        }
+
+        /**
+         * Seals the page, so that no more space can be reserved on it.
+         * @return length of the reserved part of the page
+         */
+        int seal() {
+            return reserved.getAndUpdate(offset -> offset | SEALED) & ~SEALED;
+        }
+
+        /**
+         * @return length of the reserved part of the page
+         */
+        int length() {
+            return reserved.get() & ~SEALED;
+        }
+
+        /**
+         * @return whether the page is sealed and completely synced, so that nothing
+         * can be appended to it any more
+         */
+        boolean isDone() {
+            int sealedLength = reserved.get();
+            return (sealedLength & SEALED) != 0 && (sealedLength & ~SEALED) == synced;
+        }
+
+        /**
+         * Marks a record copied into the page as written, once every record reserved
+         * before it has been.
+         * @param offset offset of the record
+         * @param length length of the record
+         */
+        void finishWrite(int offset, int length) {
+            while (written != offset) {
+                // an earlier record is still being copied in
+                Thread.yield();
+            }
+            written = offset + length;
+        }
+
+        /**
+         * Copies the page up to the given offset to the log storage, waiting for records
+         * before the offset to be written first. Must be called with the log manager's
+         * lock held.
+         * @param length number of bytes from the start of the page that must be synced
+         */
+        void sync(int length) {
+            if (length <= synced) {
+                return;
+            }
+            while (written < length) {
+                Thread.yield();
+            }
+            storage.writePage(pageNum, synced, bytes, synced, length - synced);
+            synced = length;
+            if (isDone()) {
+                bytes = null;
+            }
+        }
+    }
+
+    /**
+     * Allocates a new log page and makes it the log tail.
+     * @return the new log tail
+     */
+    private synchronized LogBufferPage openPage() {
+        LogBufferPage logPage = new LogBufferPage(storage.allocPage());
+        unflushedLogTail.add(logPage);
+        logTail.set(logPage);
+        return logPage;
+    }
+
+    /**
+     * Called by appending threads that found the log tail sealed. Opens a new log tail,
+     * unless another thread already did, and hands the sealed page to the log storage.
+     * @param sealedTail the sealed log tail
+     */
+    private synchronized void replaceTail(LogBufferPage sealedTail) {
+        if (logTail.get() != sealedTail) {
+            return;
+        }
+        // opening the new tail may evict a dirty page and flush the log, which
+        // flushes the sealed tail if it is still in the unflushed tail
+        openPage();
+        sealedTail.sync(sealedTail.seal());
+    }
+
+    /**
+     * Hands everything appended to the log page so far to the log storage, so
+     * that it can be read from the log storage.
+     * @param pageNum page number of log page
+     */
+    private synchronized void syncPage(long pageNum) {
+        for (LogBufferPage logPage : unflushedLogTail) {
+            if (logPage.pageNum == pageNum) {
+                logPage.sync(logPage.written);
+            }
+        }
+    }
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+    /**
+     * Hands everything appended to the log so far to the log storage.
+     */
+    private synchronized void syncAll() {
+        for (LogBufferPage logPage : unflushedLogTail) {
+            logPage.sync(logPage.written);
+        }
     }
 
     /**
@@ -61,13 +270,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to replace first record with
      */
     public synchronized void rewriteMasterRecord(MasterLogRecord record) {
-        Page firstPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-        try {
-            firstPage.getBuffer().put(record.toBytes());
-            firstPage.flush();
-        } finally {
-            firstPage.unpin();
-        }
+        // so that the old master record is not copied over the new one later
+        syncAll();
+        byte[] bytes = record.toBytes();
+        storage.writePage(0L, 0, bytes, 0, bytes.length);
+        storage.flushPages(Collections.singletonList(0L));
     }
 
     /**
@@ -75,32 +282,23 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to append to the log
      * @return LSN of new log record
      */
-    public synchronized long appendToLog(LogRecord record) {
+    public long appendToLog(LogRecord record) {
         byte[] bytes = record.toBytes();
-        // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
-        do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
-                logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
-                unflushedLogTail.add(logTail);
-                logTailBuffer = logTail.getBuffer();
-            } else {
-                logTailPinned = true;
-                logTail.pin();
-                if (logTailBuffer == null) {
-                    logTail.unpin();
-                }
+        if (bytes.length > DiskSpaceManager.PAGE_SIZE) {
+            throw new IllegalArgumentException("log record of " + bytes.length + " bytes does not fit on a page");
+        }
+        while (true) {
+            LogBufferPage tail = logTail.get();
+            int pos = tail.reserve(bytes.length);
+            if (pos < 0) {
+                replaceTail(tail);
+                continue;
             }
-        } while (logTailBuffer == null);
-        try {
-            int pos = logTailBuffer.position();
-            logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+            System.arraycopy(bytes, 0, tail.bytes, pos, bytes.length);
+            tail.finishWrite(pos, bytes.length);
+            long LSN = makeLSN(tail.pageNum, pos);
             record.LSN = LSN;
             return LSN;
-        } finally {
-            logTail.unpin();
-            logTailPinned = false;
         }
     }
 
@@ -110,17 +308,13 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return log record with the specified LSN
      */
     public LogRecord fetchLogRecord(long LSN) {
+        syncPage(getLSNPage(LSN));
         try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), getLSNPage(LSN));
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
-                Optional<LogRecord> record = LogRecord.fromBytes(buf);
-                record.ifPresent((LogRecord e) -> e.setLSN(LSN));
-                return record.orElse(null);
-            } finally {
-                logPage.unpin();
-            }
+            Buffer buf = storage.readPage(getLSNPage(LSN));
+            buf.position(getLSNIndex(LSN));
+            Optional<LogRecord> record = LogRecord.fromBytes(buf);
+            record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+            return record.orElse(null);
         } catch (PageException e) {
             return null;
         }
@@ -133,25 +327,170 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param LSN LSN up to which the log should be flushed
      */
     public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
+        flush(LSN, false);
+    }
+
+    /**
+     * Flushes the log up to and including the page that contains the record specified
+     * by the LSN.
+     *
+     * Unless keepTailOpen is set, the flushed pages are sealed: a flushed page is never
+     * appended to again, records appended after the flush go on a new page, and
+     * flushedLSN covers the whole page. If keepTailOpen is set, the tail page is only
+     * flushed as far as it has been appended to, and stays open: records appended
+     * after the flush go on the same page, which is written out and flushed again by
+     * the next flush.
+     * @param LSN LSN up to which the log should be flushed
+     * @param keepTailOpen whether to keep appending to the tail page after the flush
+     */
+    private synchronized void flush(long LSN, boolean keepTailOpen) {
+        Iterator<LogBufferPage> iter = unflushedLogTail.iterator();
         long pageNum = getLSNPage(LSN);
+        List<Long> flushedPages = new ArrayList<>();
+        long newFlushedLSN = maxLSN(pageNum);
         while (iter.hasNext()) {
-            Page page = iter.next();
-            if (page.getPageNum() > pageNum) {
+            LogBufferPage logPage = iter.next();
+            if (logPage.pageNum > pageNum) {
                 break;
             }
-            page.flush();
-            iter.remove();
+            int length = keepTailOpen ? logPage.length() : logPage.seal();
+            logPage.sync(length);
+            flushedPages.add(logPage.pageNum);
+            if (logPage.isDone()) {
+                iter.remove();
+            } else {
+                // only the tail page can still be open
+                newFlushedLSN = makeLSN(logPage.pageNum, length) - 1;
+            }
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
-        if (unflushedLogTail.size() == 0) {
-            if (!logTailPinned) {
-                logTail = null;
+        storage.flushPages(flushedPages);
+        flushedLSN = Math.max(flushedLSN, newFlushedLSN);
+    }
+
+    /**
+     * Flushes the log to at least the specified record, sharing the flush with any other
+     * committers that call this concurrently (group commit). Returns once flushedLSN >= LSN.
+     * @param LSN LSN up to which the log should be flushed
+     */
+    public void groupFlushToLSN(long LSN) {
+        groupCommitLock.lock();
+        try {
+            ++numGroupCommits;
+            groupFlushLSN = Math.max(groupFlushLSN, LSN);
+            while (flushedLSN < LSN) {
+                if (groupFlushing) {
+                    // someone else is leading the current group; if our LSN was
+                    // too late for it, we'll lead the next one
+                    groupFlushed.awaitUninterruptibly();
+                    continue;
+                }
+                groupFlushing = true;
+                try {
+                    long windowNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros);
+                    while (windowNanos > 0) {
+                        try {
+                            windowNanos = groupFlushed.awaitNanos(windowNanos);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    long flushLSN = groupFlushLSN;
+                    groupCommitLock.unlock();
+                    try {
+                        // committers flush after every few records: keep appending to
+                        // the tail page rather than using a new page per flush
+                        flush(flushLSN, true);
+                    } finally {
+                        groupCommitLock.lock();
+                    }
+                    ++numGroupFlushes;
+                } finally {
+                    groupFlushing = false;
+                    groupFlushed.signalAll();
+                }
             }
-            logTailBuffer = null;
+        } finally {
+            groupCommitLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the group commit window: how long the first committer of a group waits for
+     * other committers to join the group before flushing the log.
+     * @param micros group commit window in microseconds; 0 to flush immediately
+     */
+    public void setGroupCommitWindow(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit window must not be negative, got " + micros);
+        }
+        groupCommitWindowMicros = micros;
+    }
+
+    /**
+     * @return group commit window in microseconds
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindowMicros;
+    }
+
+    /**
+     * @return number of log flushes done by groupFlushToLSN
+     */
+    public long getNumGroupFlushes() {
+        groupCommitLock.lock();
+        try {
+            return numGroupFlushes;
+        } finally {
+            groupCommitLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls to groupFlushToLSN
+     */
+    public long getNumGroupCommits() {
+        groupCommitLock.lock();
+        try {
+            return numGroupCommits;
+        } finally {
+            groupCommitLock.unlock();
         }
     }
 
+    /**
+     * Truncates the log before the given LSN: the log pages before the page that the
+     * LSN is on, other than page 0, are discarded, after being copied to the archive
+     * if one is set. Only flushed pages are discarded. Records on discarded pages can
+     * no longer be fetched, and are skipped by scans.
+     * @param LSN LSN of the first record that must be kept
+     * @return number of log pages discarded
+     */
+    public synchronized int truncate(long LSN) {
+        long pageNum = getLSNPage(LSN);
+        if (!unflushedLogTail.isEmpty()) {
+            pageNum = Math.min(pageNum, unflushedLogTail.getFirst().pageNum);
+        }
+        int numTruncated = storage.truncate(pageNum, archive);
+        numTruncatedPages += numTruncated;
+        return numTruncated;
+    }
+
+    /**
+     * Sets the archive that log pages are copied to when the log is truncated.
+     * @param archive archive for truncated pages, or null to discard them
+     */
+    synchronized void setArchive(LogArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @return number of log pages discarded by truncate
+     */
+    public synchronized long getNumTruncatedPages() {
+        return numTruncatedPages;
+    }
+
     /**
      * @return flushedLSN
      */
@@ -202,6 +541,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return iterator over log entries from LSN
      */
     public Iterator<LogRecord> scanFrom(long LSN) {
+        syncAll();
         return new ConcatBacktrackingIterator<>(new LogPagesIterator(LSN));
     }
 
@@ -217,57 +557,50 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     @Override
     public synchronized void close() {
         if (!this.unflushedLogTail.isEmpty()) {
-            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
+            this.flushToLSN(maxLSN(unflushedLogTail.getLast().pageNum));
+        }
+        if (this.archive != null) {
+            this.archive.close();
         }
+        this.storage.close();
     }
 
     private class LogPageIterator extends IndexBacktrackingIterator<LogRecord> {
-        private Page logPage;
+        private long pageNum;
+        private Buffer buf;
         private int startIndex;
 
-        private LogPageIterator(Page logPage, int startIndex) {
+        private LogPageIterator(long pageNum, Buffer buf, int startIndex) {
             super(DiskSpaceManager.PAGE_SIZE);
-            this.logPage = logPage;
+            this.pageNum = pageNum;
+            this.buf = buf;
             this.startIndex = startIndex;
-            this.logPage.unpin();
         }
 
         @Override
         protected int getNextNonEmpty(int currentIndex) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                if (currentIndex == -1) {
-                    currentIndex = startIndex;
-                    buf.position(currentIndex);
-                } else {
-                    buf.position(currentIndex);
-                    LogRecord.fromBytes(buf);
-                    currentIndex = buf.position();
-                }
+            if (currentIndex == -1) {
+                currentIndex = startIndex;
+                buf.position(currentIndex);
+            } else {
+                buf.position(currentIndex);
+                LogRecord.fromBytes(buf);
+                currentIndex = buf.position();
+            }
 
-                if (LogRecord.fromBytes(buf).isPresent()) {
-                    return currentIndex;
-                } else {
-                    return DiskSpaceManager.PAGE_SIZE;
-                }
-            } finally {
-                logPage.unpin();
+            if (currentIndex < DiskSpaceManager.PAGE_SIZE && LogRecord.fromBytes(buf).isPresent()) {
+                return currentIndex;
+            } else {
+                return DiskSpaceManager.PAGE_SIZE;
             }
         }
 
         @Override
         protected LogRecord getValue(int index) {
-            logPage.pin();
-            try {
-                Buffer buf = logPage.getBuffer();
-                buf.position(index);
-                LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
-                return record;
-            } finally {
-                logPage.unpin();
-            }
+            buf.position(index);
+            LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
+            record.setLSN(makeLSN(pageNum, index));
+            return record;
         }
     }
 
@@ -278,13 +611,31 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         private LogPagesIterator(long startLSN) {
             nextIndex = getLSNPage(startLSN);
             try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
+                Buffer buf = readPage();
+                int startIndex = nextIndex == getLSNPage(startLSN) ? getLSNIndex(startLSN) : 0;
+                nextIter = new LogPageIterator(nextIndex, buf, startIndex);
             } catch (PageException e) {
                 nextIter = null;
             }
         }
 
+        /**
+         * Reads page nextIndex, or the first page after it if it has been truncated
+         * (updating nextIndex).
+         */
+        private Buffer readPage() {
+            try {
+                return storage.readPage(nextIndex);
+            } catch (PageException e) {
+                long firstPage = storage.getFirstPage();
+                if (nextIndex >= firstPage) {
+                    throw e;
+                }
+                nextIndex = firstPage;
+                return storage.readPage(nextIndex);
+            }
+        }
+
         @Override
         public void markPrev() {
             throw new UnsupportedOperationException();
@@ -315,8 +666,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 do {
                     ++nextIndex;
                     try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                        nextIter = new LogPageIterator(page, 0);
+                        Buffer buf = readPage();
+                        nextIter = new LogPageIterator(nextIndex, buf, 0);
                     } catch (PageException e) {
                         break;
                     }
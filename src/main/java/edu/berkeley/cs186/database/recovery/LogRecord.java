@@ -112,6 +112,14 @@ public abstract class LogRecord {
         return Collections.emptyMap();
     }
 
+    /**
+     * Gets the page index written to the log record, if applicable: page
+     * numbers mapped to (recLSN, pageLSN on disk), sorted by page number.
+     */
+    public SortedMap<Long, Pair<Long, Long>> getPageIndex() {
+        return Collections.emptySortedMap();
+    }
+
     /**
      * Gets the table of transaction numbers mapped to page numbers of
      * pages that were touched by the corresponding transaction.
@@ -217,6 +225,12 @@ public abstract class LogRecord {
             return UndoAllocPartLogRecord.fromBytes(buf);
         case UNDO_FREE_PART:
             return UndoFreePartLogRecord.fromBytes(buf);
+        case UPDATE_PAGE_DELTA:
+            return UpdatePageLogRecord.fromDeltaBytes(buf);
+        case UNDO_UPDATE_PAGE_DELTA:
+            return UndoUpdatePageLogRecord.fromDeltaBytes(buf);
+        case CHECKPOINT_PAGE_INDEX:
+            return CheckpointPageIndexLogRecord.fromBytes(buf);
         default:
             throw new UnsupportedOperationException("bad log type");
         }
@@ -0,0 +1,63 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+
+import java.util.Collection;
+
+/**
+ * Storage for the pages of the log. Log pages are numbered consecutively, and are
+ * only ever appended to the end of the log. Pages at the start of the log (other
+ * than page 0, which holds the master record) may be truncated; their page numbers
+ * are never handed out again.
+ */
+interface LogStorage extends AutoCloseable {
+    /**
+     * Allocates a new, empty page at the end of the log.
+     * @return page number of the new page
+     */
+    long allocPage();
+
+    /**
+     * Writes part of a log page. The write is not necessarily durable until the
+     * page is flushed.
+     * @param pageNum page number of log page
+     * @param offset offset within the page to write at
+     * @param src bytes to write
+     * @param srcOffset offset within src of the first byte to write
+     * @param length number of bytes to write
+     */
+    void writePage(long pageNum, int offset, byte[] src, int srcOffset, int length);
+
+    /**
+     * Makes all writes to the given pages durable.
+     * @param pageNums page numbers of log pages
+     */
+    void flushPages(Collection<Long> pageNums);
+
+    /**
+     * Reads a log page.
+     * @param pageNum page number of log page
+     * @return a copy of the page
+     * @throws edu.berkeley.cs186.database.io.PageException if the page is not allocated
+     */
+    Buffer readPage(long pageNum);
+
+    /**
+     * Discards the pages of the log before the given page, other than page 0. Pages
+     * may be kept around longer (for example, until a whole segment can be discarded),
+     * but are never discarded before they are copied to the archive.
+     * @param pageNum page number of the first page that must be kept
+     * @param archive archive to copy discarded pages to, or null to drop them
+     * @return number of pages discarded
+     */
+    int truncate(long pageNum, LogArchive archive);
+
+    /**
+     * @return page number of the first page after page 0 from which on no page of the
+     * log has been discarded
+     */
+    long getFirstPage();
+
+    @Override
+    void close();
+}
@@ -33,7 +33,16 @@ public enum LogType {
     // compensation log record for undoing a partition alloc
     UNDO_ALLOC_PART,
     // compensation log record for undoing a partition free
-    UNDO_FREE_PART;
+    UNDO_FREE_PART,
+    // encoding of an UPDATE_PAGE record as run-length encoded after image and
+    // XOR delta of the before image; read back as an UPDATE_PAGE record
+    UPDATE_PAGE_DELTA,
+    // encoding of an UNDO_UPDATE_PAGE record with a run-length encoded image;
+    // read back as an UNDO_UPDATE_PAGE record
+    UNDO_UPDATE_PAGE_DELTA,
+    // sorted snapshot of the recLSNs and on-disk pageLSNs of the pages known to a
+    // checkpoint; written after its end checkpoint records
+    CHECKPOINT_PAGE_INDEX;
 
     private static LogType[] values = LogType.values();
 
@@ -0,0 +1,269 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated write-ahead log storage: log pages are stored in append-only segment
+ * files in their own directory, bypassing the buffer manager. Segment i holds log
+ * pages [i * pagesPerSegment, (i + 1) * pagesPerSegment), and is preallocated (filled
+ * with zeros) when it is created, so that writing to it never has to grow the file,
+ * and flushing a segment only has to force its data.
+ *
+ * Writes go straight to the segment files; flushing a set of pages forces each
+ * segment they are on once.
+ *
+ * Truncation deletes whole segment files, other than segment 0 (which holds the
+ * master record); the segments before the first remaining one after segment 0
+ * are treated as truncated when the log is opened again.
+ */
+class SegmentLogStorage implements LogStorage {
+    // Default number of log pages per segment file (1MB segments)
+    static final int DEFAULT_PAGES_PER_SEGMENT = 256;
+
+    private final String walDir;
+    private final int pagesPerSegment;
+    // open segment files, in order, with null for truncated segments; guarded by this
+    private final List<RandomAccessFile> segments = new ArrayList<>();
+    private final List<FileChannel> channels = new ArrayList<>();
+    // first segment after segment 0 that has not been truncated; guarded by this
+    private int firstSegment = 1;
+    // number of log pages allocated
+    private final AtomicLong numPages = new AtomicLong(0);
+    private final AtomicLong numForces = new AtomicLong(0);
+
+    SegmentLogStorage(String walDir) {
+        this(walDir, DEFAULT_PAGES_PER_SEGMENT);
+    }
+
+    /**
+     * Opens the log in the given directory, creating the directory if it does not exist.
+     * @param walDir directory to keep the segment files in
+     * @param pagesPerSegment number of log pages per segment file
+     */
+    SegmentLogStorage(String walDir, int pagesPerSegment) {
+        if (pagesPerSegment < 1) {
+            throw new IllegalArgumentException("segments must hold at least one page, got " + pagesPerSegment);
+        }
+        this.walDir = walDir;
+        this.pagesPerSegment = pagesPerSegment;
+
+        File dir = new File(walDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not create log directory " + walDir);
+        }
+        try {
+            int numSegments = 0;
+            String[] names = dir.list((d, name) -> name.matches("\\d{8}\\.wal"));
+            for (String name : names == null ? new String[0] : names) {
+                numSegments = Math.max(numSegments, Integer.parseInt(name.substring(0, 8)) + 1);
+            }
+            while (firstSegment < numSegments && !new File(segmentFileName(firstSegment)).exists()) {
+                ++firstSegment;
+            }
+            for (int segment = 0; segment < numSegments; ++segment) {
+                if (segment > 0 && segment < firstSegment) {
+                    segments.add(null);
+                    channels.add(null);
+                } else {
+                    openSegment(segment);
+                }
+            }
+            // everything past the last page with a record on it is unused
+            long pageNum = (long) segments.size() * pagesPerSegment - 1;
+            byte[] type = new byte[1];
+            for (; pageNum >= 0 && channels.get((int) (pageNum / pagesPerSegment)) != null; --pageNum) {
+                read(pageNum, 0, type);
+                if (type[0] != 0) {
+                    break;
+                }
+            }
+            numPages.set(pageNum + 1);
+        } catch (IOException e) {
+            throw new PageException("could not open log: " + e.getMessage());
+        }
+    }
+
+    private String segmentFileName(int segment) {
+        return String.format("%s/%08d.wal", walDir, segment);
+    }
+
+    private synchronized FileChannel openSegment(int segment) throws IOException {
+        while (channels.size() <= segment) {
+            int i = channels.size();
+            RandomAccessFile file = new RandomAccessFile(segmentFileName(i), "rw");
+            FileChannel channel = file.getChannel();
+            long size = (long) pagesPerSegment * DiskSpaceManager.PAGE_SIZE;
+            if (file.length() < size) {
+                java.nio.ByteBuffer zeros = java.nio.ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE);
+                for (long pos = file.length(); pos < size; pos += DiskSpaceManager.PAGE_SIZE) {
+                    zeros.clear();
+                    writeFully(channel, zeros, pos);
+                }
+                channel.force(true);
+            }
+            segments.add(file);
+            channels.add(channel);
+        }
+        return channels.get(segment);
+    }
+
+    private synchronized FileChannel getChannel(long pageNum) throws IOException {
+        int segment = (int) (pageNum / pagesPerSegment);
+        if (segment < channels.size()) {
+            if (channels.get(segment) == null) {
+                throw new PageException("log page " + pageNum + " truncated");
+            }
+            return channels.get(segment);
+        }
+        return openSegment(segment);
+    }
+
+    private long pageOffset(long pageNum) {
+        return (pageNum % pagesPerSegment) * DiskSpaceManager.PAGE_SIZE;
+    }
+
+    private void read(long pageNum, int offset, byte[] dst) throws IOException {
+        java.nio.ByteBuffer b = java.nio.ByteBuffer.wrap(dst);
+        FileChannel channel = getChannel(pageNum);
+        long pos = pageOffset(pageNum) + offset;
+        while (b.hasRemaining()) {
+            if (channel.read(b, pos + b.position()) < 0) {
+                throw new IOException("unexpected end of log segment");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, java.nio.ByteBuffer b, long pos) throws IOException {
+        long start = pos - b.position();
+        while (b.hasRemaining()) {
+            channel.write(b, start + b.position());
+        }
+    }
+
+    @Override
+    public long allocPage() {
+        long pageNum = numPages.getAndIncrement();
+        try {
+            getChannel(pageNum);
+        } catch (IOException e) {
+            throw new PageException("could not allocate log page: " + e.getMessage());
+        }
+        return pageNum;
+    }
+
+    @Override
+    public void writePage(long pageNum, int offset, byte[] src, int srcOffset, int length) {
+        if (pageNum >= numPages.get()) {
+            throw new PageException("log page " + pageNum + " not allocated");
+        }
+        try {
+            writeFully(getChannel(pageNum), java.nio.ByteBuffer.wrap(src, srcOffset, length),
+                       pageOffset(pageNum) + offset);
+        } catch (IOException e) {
+            throw new PageException("could not write log page: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void flushPages(Collection<Long> pageNums) {
+        Set<Long> flushed = new HashSet<>();
+        try {
+            for (long pageNum : pageNums) {
+                if (flushed.add(pageNum / pagesPerSegment)) {
+                    getChannel(pageNum).force(false);
+                    numForces.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not flush log: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Buffer readPage(long pageNum) {
+        if (pageNum < 0 || pageNum >= numPages.get()) {
+            throw new PageException("log page " + pageNum + " not allocated");
+        }
+        byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        try {
+            read(pageNum, 0, bytes);
+        } catch (IOException e) {
+            throw new PageException("could not read log page: " + e.getMessage());
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public synchronized int truncate(long pageNum, LogArchive archive) {
+        // only segments that are completely before pageNum (and the log tail) can go
+        int endSegment = (int) (Math.min(pageNum, numPages.get() - 1) / pagesPerSegment);
+        if (endSegment <= firstSegment) {
+            return 0;
+        }
+        if (archive != null) {
+            for (long p = (long) firstSegment * pagesPerSegment; p < (long) endSegment * pagesPerSegment; ++p) {
+                byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+                readPage(p).get(bytes);
+                archive.archivePage(p, bytes);
+            }
+            archive.flush();
+        }
+        int numTruncated = 0;
+        try {
+            for (; firstSegment < endSegment; ++firstSegment) {
+                segments.get(firstSegment).close();
+                segments.set(firstSegment, null);
+                channels.set(firstSegment, null);
+                if (!new File(segmentFileName(firstSegment)).delete()) {
+                    throw new IOException("could not delete " + segmentFileName(firstSegment));
+                }
+                numTruncated += pagesPerSegment;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not truncate log: " + e.getMessage());
+        }
+        return numTruncated;
+    }
+
+    @Override
+    public synchronized long getFirstPage() {
+        return firstSegment == 1 ? 1L : (long) firstSegment * pagesPerSegment;
+    }
+
+    /**
+     * @return number of times a segment file has been forced to disk
+     */
+    long getNumForces() {
+        return numForces.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (RandomAccessFile file : segments) {
+                if (file != null) {
+                    file.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not close log: " + e.getMessage());
+        } finally {
+            segments.clear();
+            channels.clear();
+        }
+    }
+}
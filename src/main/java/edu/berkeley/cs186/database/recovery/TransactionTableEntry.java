@@ -12,6 +12,8 @@ class TransactionTableEntry {
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
+    // LSN of the first log entry of the transaction, or 0 if not looked up yet.
+    long firstLSN = 0;
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
 
@@ -0,0 +1,100 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the pages a checkpoint knows about, sorted by page number: each
+ * page is mapped to its recLSN and to the pageLSN of its copy on disk (0 if
+ * unknown). Every change to the page up to that pageLSN has been written out.
+ * Like end checkpoint records, a snapshot too large for one record is split
+ * over several.
+ */
+public class CheckpointPageIndexLogRecord extends LogRecord {
+    private SortedMap<Long, Pair<Long, Long>> pageIndex;
+
+    public CheckpointPageIndexLogRecord(Map<Long, Pair<Long, Long>> pageIndex) {
+        super(LogType.CHECKPOINT_PAGE_INDEX);
+        this.pageIndex = new TreeMap<>(pageIndex);
+    }
+
+    @Override
+    public SortedMap<Long, Pair<Long, Long>> getPageIndex() {
+        return pageIndex;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[getRecordSize(pageIndex.size())];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putShort((short) pageIndex.size());
+        for (Map.Entry<Long, Pair<Long, Long>> entry : pageIndex.entrySet()) {
+            buf.putLong(entry.getKey())
+            .putLong(entry.getValue().getFirst())
+            .putLong(entry.getValue().getSecond());
+        }
+        return b;
+    }
+
+    /**
+     * @return size of the record in bytes
+     */
+    public static int getRecordSize(int numPages) {
+        // 1 byte for record type, 2 bytes for the number of pages
+        // page: long -> (long, long) (24 bytes)
+        return 3 + 24 * numPages;
+    }
+
+    /**
+     * @return boolean indicating whether information for
+     * the log record can fit in one record on a page
+     */
+    public static boolean fitsInOneRecord(int numPages) {
+        return getRecordSize(numPages) <= DiskSpaceManager.PAGE_SIZE;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        short numPages = buf.getShort();
+        Map<Long, Pair<Long, Long>> pageIndex = new TreeMap<>();
+        for (short i = 0; i < numPages; ++i) {
+            long pageNum = buf.getLong();
+            long recLSN = buf.getLong();
+            long pageLSN = buf.getLong();
+            pageIndex.put(pageNum, new Pair<>(recLSN, pageLSN));
+        }
+        return Optional.of(new CheckpointPageIndexLogRecord(pageIndex));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        CheckpointPageIndexLogRecord that = (CheckpointPageIndexLogRecord) o;
+        return pageIndex.equals(that.pageIndex);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), pageIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "CheckpointPageIndexLogRecord{" +
+               "pageIndex=" + pageIndex +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,98 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact encodings of the page images stored in update log records.
+ *
+ * Images are run-length encoded (PackBits): a control byte c >= 0 is followed by
+ * c + 1 literal bytes, and a control byte c < 0 is followed by a single byte that
+ * is repeated 1 - c times. Incompressible data grows by at most 1 byte in 128.
+ *
+ * The before image of an in-place update is stored as its XOR with the after
+ * image, which is zero wherever the update left bytes unchanged. The buffer
+ * manager already trims the images it logs to the changed bytes, with gaps of
+ * at most BufferManager.RESERVED_SPACE unchanged bytes inside a range, so this
+ * mostly pays off for ranges that span such gaps (e.g. a record whose string
+ * and integer fields both changed) and for runs of zeros (e.g. string
+ * padding); records that gain nothing are written in the plain encoding.
+ */
+final class DeltaEncoding {
+    // runs shorter than this are stored as literals
+    private static final int MIN_RUN = 3;
+    private static final int MAX_RUN = 128;
+    private static final int MAX_LITERAL = 128;
+
+    private DeltaEncoding() {}
+
+    /**
+     * @return the byte-wise XOR of two images of the same length
+     */
+    static byte[] xor(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length];
+        for (int i = 0; i < a.length; ++i) {
+            result[i] = (byte) (a[i] ^ b[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Run-length encodes an image.
+     * @param src image to encode
+     * @return encoded image
+     */
+    static byte[] encode(byte[] src) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.length / 8 + 2);
+        int i = 0;
+        while (i < src.length) {
+            int run = runLength(src, i);
+            if (run >= MIN_RUN) {
+                out.write(1 - run);
+                out.write(src[i]);
+                i += run;
+                continue;
+            }
+            int start = i;
+            while (i < src.length && i - start < MAX_LITERAL && runLength(src, i) < MIN_RUN) {
+                ++i;
+            }
+            out.write(i - start - 1);
+            out.write(src, start, i - start);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a run-length encoded image.
+     * @param buf buffer positioned at the encoded image; advanced past it
+     * @param length length of the decoded image
+     * @return decoded image
+     */
+    static byte[] decode(Buffer buf, int length) {
+        byte[] dst = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int control = buf.get();
+            if (control >= 0) {
+                buf.get(dst, pos, control + 1);
+                pos += control + 1;
+            } else {
+                byte b = buf.get();
+                Arrays.fill(dst, pos, pos + 1 - control, b);
+                pos += 1 - control;
+            }
+        }
+        return dst;
+    }
+
+    private static int runLength(byte[] src, int start) {
+        int end = start + 1;
+        while (end < src.length && end - start < MAX_RUN && src[end] == src[start]) {
+            ++end;
+        }
+        return end - start;
+    }
+}
@@ -72,8 +72,26 @@ public class UndoUpdatePageLogRecord extends LogRecord {
         rm.dirtyPage(pageNum, getLSN());
     }
 
+    /**
+     * Serializes the record, as an UNDO_UPDATE_PAGE_DELTA record with a run-length
+     * encoded image if that is smaller.
+     */
     @Override
     public byte[] toBytes() {
+        byte[] encodedAfter = DeltaEncoding.encode(after);
+        if (encodedAfter.length < after.length - 1) {
+            byte[] b = new byte[37 + encodedAfter.length];
+            ByteBuffer.wrap(b)
+            .put((byte) LogType.UNDO_UPDATE_PAGE_DELTA.getValue())
+            .putLong(transNum)
+            .putLong(pageNum)
+            .putLong(prevLSN)
+            .putLong(undoNextLSN)
+            .putShort(offset)
+            .putShort((short) after.length)
+            .put(encodedAfter);
+            return b;
+        }
         byte[] b = new byte[(after.length == BufferManager.EFFECTIVE_PAGE_SIZE ? 36 : 37) + after.length];
         Buffer buf = ByteBuffer.wrap(b)
                      .put((byte) getType().getValue())
@@ -108,6 +126,17 @@ public class UndoUpdatePageLogRecord extends LogRecord {
                            after));
     }
 
+    public static Optional<LogRecord> fromDeltaBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short offset = buf.getShort();
+        byte[] after = DeltaEncoding.decode(buf, buf.getShort());
+        return Optional.of(new UndoUpdatePageLogRecord(transNum, pageNum, prevLSN, undoNextLSN, offset,
+                           after));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) { return true; }
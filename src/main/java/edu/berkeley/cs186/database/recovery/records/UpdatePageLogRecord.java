@@ -83,8 +83,31 @@ public class UpdatePageLogRecord extends LogRecord {
         }
     }
 
+    /**
+     * Serializes the record, as an UPDATE_PAGE_DELTA record if that is smaller: the
+     * after image run-length encoded, followed by the before image XORed with the
+     * after image (if they are the same length, as they are for in-place updates)
+     * and run-length encoded.
+     */
     @Override
     public byte[] toBytes() {
+        byte[] encodedAfter = DeltaEncoding.encode(after);
+        byte[] encodedBefore = DeltaEncoding.encode(before.length == after.length
+                                                    ? DeltaEncoding.xor(before, after) : before);
+        if (encodedBefore.length + encodedAfter.length < before.length + after.length) {
+            byte[] b = new byte[31 + encodedBefore.length + encodedAfter.length];
+            ByteBuffer.wrap(b)
+            .put((byte) LogType.UPDATE_PAGE_DELTA.getValue())
+            .putLong(transNum)
+            .putLong(pageNum)
+            .putLong(prevLSN)
+            .putShort(offset)
+            .putShort((short) before.length)
+            .putShort((short) after.length)
+            .put(encodedAfter)
+            .put(encodedBefore);
+            return b;
+        }
         byte[] b = new byte[31 + before.length + after.length];
         ByteBuffer.wrap(b)
         .put((byte) getType().getValue())
@@ -110,6 +133,21 @@ public class UpdatePageLogRecord extends LogRecord {
         return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
     }
 
+    public static Optional<LogRecord> fromDeltaBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short offset = buf.getShort();
+        short beforeLength = buf.getShort();
+        short afterLength = buf.getShort();
+        byte[] after = DeltaEncoding.decode(buf, afterLength);
+        byte[] before = DeltaEncoding.decode(buf, beforeLength);
+        if (beforeLength == afterLength) {
+            before = DeltaEncoding.xor(before, after);
+        }
+        return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) { return true; }
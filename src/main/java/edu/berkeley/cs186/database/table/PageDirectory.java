@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
@@ -101,10 +102,29 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     }
 
     public Page getPage(long pageNum) {
-        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
+        return this.getPage(pageNum, null);
+    }
+
+    /**
+     * @param pageNum page number of data page
+     * @param strategy buffer access strategy to load the data page through, or null
+     * @return the data page
+     */
+    public Page getPage(long pageNum, BufferAccessStrategy strategy) {
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, strategy));
     }
 
     public Page getPageWithSpace(short requiredSpace) {
+        return this.getPageWithSpace(requiredSpace, null);
+    }
+
+    /**
+     * @param requiredSpace amount of free space needed on the data page
+     * @param strategy buffer access strategy to load the data page through, or null.
+     *                 Header pages are always loaded normally.
+     * @return a data page with at least requiredSpace bytes free
+     */
+    public Page getPageWithSpace(short requiredSpace, BufferAccessStrategy strategy) {
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
         }
@@ -112,7 +132,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
-        Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        Page page = this.firstHeader.loadPageWithSpace(requiredSpace, strategy);
         LockContext pageContext = lockContext.childContext(page.getPageNum());
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.NL);
@@ -146,7 +166,16 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return this.iterator(null);
+    }
+
+    /**
+     * @param strategy buffer access strategy to load data pages through, or null.
+     *                 Header pages are always loaded normally.
+     * @return an iterator over the data pages of this page directory
+     */
+    public BacktrackingIterator<Page> iterator(BufferAccessStrategy strategy) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(strategy));
     }
 
     public int getNumDataPages() {
@@ -311,7 +340,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
+        private Page loadPageWithSpace(short requiredSpace, BufferAccessStrategy strategy) {
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
@@ -332,13 +361,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                        return bufferManager.fetchPage(lockContext, dpe.pageNum, strategy);
                     }
                 }
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                    Page page = bufferManager.fetchNewPage(lockContext, partNum, strategy);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
                                                           (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
@@ -357,7 +386,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 }
 
                 // no space on this header page, try next one
-                return this.nextPage.loadPageWithSpace(requiredSpace);
+                return this.nextPage.loadPageWithSpace(requiredSpace, strategy);
             } finally {
                 this.page.unpin();
             }
@@ -389,13 +418,16 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(null);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            private BufferAccessStrategy strategy;
+
+            private HeaderPageIterator(BufferAccessStrategy strategy) {
                 super(HEADER_ENTRY_COUNT);
+                this.strategy = strategy;
             }
 
             @Override
@@ -423,7 +455,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, strategy));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -438,8 +470,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        private BufferAccessStrategy strategy;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(BufferAccessStrategy strategy) {
+            this.strategy = strategy;
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
@@ -451,14 +485,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.new HeaderPageIterator(this.strategy);
         }
 
         @Override
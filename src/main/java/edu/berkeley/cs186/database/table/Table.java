@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -112,6 +113,10 @@ public class Table implements BacktrackingIterable<Record> {
     // Statistics about the contents of the database.
     Map<String, TableStats> stats;
 
+    // The buffer access strategy that data pages are loaded through, or null
+    // to load them normally.
+    private BufferAccessStrategy accessStrategy;
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Load a table named `name` with schema `schema` from `pageDirectory`. `lockContext`
@@ -156,6 +161,18 @@ public class Table implements BacktrackingIterable<Record> {
                                           schema.getSizeInBytes()));
     }
 
+    /**
+     * Loads data pages of this table through a buffer access strategy from now on,
+     * so that this table doesn't push other pages out of the buffer pool. Meant for
+     * temporary tables that are written and read once, e.g. sort runs and hash
+     * partitions.
+     *
+     * @param accessStrategy buffer access strategy, or null to load data pages normally
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
     public TableStats getStats() {
         return this.stats.get(name);
     }
@@ -246,7 +263,7 @@ public class Table implements BacktrackingIterable<Record> {
      */
     public synchronized RecordId addRecord(Record record) {
         record = schema.verify(record);
-        Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes());
+        Page page = pageDirectory.getPageWithSpace(schema.getSizeInBytes(), accessStrategy);
         try {
             // Find the first empty slot in the bitmap.
             // entry number of the first free slot and store it in entryNum; and (2) we
@@ -281,8 +298,12 @@ public class Table implements BacktrackingIterable<Record> {
      * exists.
      */
     public synchronized Record getRecord(RecordId rid) {
+        return getRecord(rid, accessStrategy);
+    }
+
+    private synchronized Record getRecord(RecordId rid, BufferAccessStrategy strategy) {
         validateRecordId(rid);
-        Page page = fetchPage(rid.getPageNum());
+        Page page = fetchPage(rid.getPageNum(), strategy);
         try {
             byte[] bitmap = getBitMap(page);
             if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
@@ -364,8 +385,12 @@ public class Table implements BacktrackingIterable<Record> {
 
     // Helpers /////////////////////////////////////////////////////////////////
     private Page fetchPage(long pageNum) {
+        return fetchPage(pageNum, accessStrategy);
+    }
+
+    private Page fetchPage(long pageNum, BufferAccessStrategy strategy) {
         try {
-            return pageDirectory.getPage(pageNum);
+            return pageDirectory.getPage(pageNum, strategy);
         } catch (PageException e) {
             throw new DatabaseException(e);
         }
@@ -405,10 +430,19 @@ public class Table implements BacktrackingIterable<Record> {
      * records
      */
     public BacktrackingIterator<RecordId> ridIterator() {
+        return ridIterator(accessStrategy);
+    }
+
+    /**
+     * @param strategy buffer access strategy to load data pages through, or null
+     * @return Performs a full scan on the table to return id's of all existing
+     * records
+     */
+    public BacktrackingIterator<RecordId> ridIterator(BufferAccessStrategy strategy) {
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.NL);
 
-        BacktrackingIterator<Page> iter = pageDirectory.iterator();
+        BacktrackingIterator<Page> iter = pageDirectory.iterator(strategy);
         return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
     }
 
@@ -421,7 +455,7 @@ public class Table implements BacktrackingIterable<Record> {
     public BacktrackingIterator<Record> recordIterator(Iterator<RecordId> rids) {
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.NL);
-        return new RecordIterator(rids);
+        return new RecordIterator(rids, accessStrategy);
     }
 
     public BacktrackingIterator<Page> pageIterator() {
@@ -431,7 +465,15 @@ public class Table implements BacktrackingIterable<Record> {
     @Override
     public BacktrackingIterator<Record> iterator() {
         // returns an iterator over all the records in this table
-        return new RecordIterator(ridIterator());
+        return iterator(accessStrategy);
+    }
+
+    /**
+     * @param strategy buffer access strategy to load data pages through, or null
+     * @return an iterator over all the records in this table
+     */
+    public BacktrackingIterator<Record> iterator(BufferAccessStrategy strategy) {
+        return new RecordIterator(ridIterator(strategy), strategy);
     }
 
     /**
@@ -525,9 +567,11 @@ public class Table implements BacktrackingIterable<Record> {
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
+        private BufferAccessStrategy strategy;
 
-        public RecordIterator(Iterator<RecordId> ridIter) {
+        public RecordIterator(Iterator<RecordId> ridIter, BufferAccessStrategy strategy) {
             this.ridIter = ridIter;
+            this.strategy = strategy;
         }
 
         @Override
@@ -538,7 +582,7 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                return getRecord(ridIter.next(), strategy);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
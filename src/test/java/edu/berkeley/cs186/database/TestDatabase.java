@@ -7,6 +7,9 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -19,10 +22,13 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -306,4 +312,54 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testLargeScanKeepsBufferPool() {
+        try (Transaction t1 = db.beginTransaction()) {
+            Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(1000));
+            t1.createTable(s, "small");
+            t1.createTable(s, "big");
+            t1.insert("small", 0, "small");
+            for (int i = 0; i < 400; ++i) {
+                t1.insert("big", i, "big");
+            }
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            int smallPart = t2.getTransactionContext().getTable("small").getPartNum();
+            int bigPart = t2.getTransactionContext().getTable("big").getPartNum();
+            BufferManager bufferManager = db.getBufferManager();
+            bufferManager.evictAll();
+
+            Iterator<Record> iter = t2.query("small").execute();
+            while (iter.hasNext()) iter.next();
+            Set<Long> smallPages = loadedPages(bufferManager, smallPart);
+            assertFalse(smallPages.isEmpty());
+
+            // the big table has more pages than the buffer pool, and is read through a ring
+            int numRecords = 0;
+            iter = t2.query("big").execute();
+            while (iter.hasNext()) {
+                iter.next();
+                ++numRecords;
+            }
+            assertEquals(400, numRecords);
+            assertTrue(loadedPages(bufferManager, smallPart).containsAll(smallPages));
+            assertTrue(loadedPages(bufferManager, bigPart).size() <= BufferAccessStrategy.DEFAULT_RING_SIZE + 1);
+            t2.commit();
+        }
+    }
+
+    private static Set<Long> loadedPages(BufferManager bufferManager, int partNum) {
+        Set<Long> pages = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (DiskSpaceManager.getPartNum(pageNum) == partNum) {
+                pages.add(pageNum);
+            }
+        });
+        return pages;
+    }
 }
@@ -0,0 +1,378 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.concurrency.OptimisticConcurrencyControl;
+import edu.berkeley.cs186.database.concurrency.ValidationException;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestOptimisticConcurrencyControl {
+    private static final String TestDir = "testOptimisticConcurrencyControl";
+    private static final String TABLE = "occTable";
+    private static final int NUM_RECORDS = 100;
+    private Database db;
+    private OptimisticConcurrencyControl occ;
+    private List<RecordId> rids;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(60));
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder(TestDir);
+        this.occ = new OptimisticConcurrencyControl();
+        this.db = new Database(testDir.getAbsolutePath(), 32, occ);
+        this.db.setWorkMem(4);
+        this.rids = load(db, NUM_RECORDS);
+    }
+
+    @After
+    public void afterEach() {
+        if (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        this.db.close();
+    }
+
+    private static List<RecordId> load(Database db, int numRecords) {
+        Schema schema = new Schema().add("id", Type.intType()).add("value", Type.intType());
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(schema, TABLE);
+            for (int i = 0; i < numRecords; ++i) {
+                rids.add(t.getTransactionContext().addRecord(TABLE, new Record(i, 0)));
+            }
+        }
+        return rids;
+    }
+
+    /**
+     * Makes `transaction` the transaction running on this thread.
+     */
+    private static void switchTo(Transaction transaction) {
+        if (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        TransactionContext.setTransaction(transaction.getTransactionContext());
+    }
+
+    private int value(int i) {
+        try (Transaction t = db.beginTransaction()) {
+            return t.getTransactionContext().getRecord(TABLE, rids.get(i)).getValue(1).getInt();
+        }
+    }
+
+    private int count() {
+        try (Transaction t = db.beginTransaction()) {
+            Iterator<Record> records = t.getTransactionContext().getRecordIterator(TABLE);
+            int count = 0;
+            while (records.hasNext()) {
+                records.next();
+                ++count;
+            }
+            return count;
+        }
+    }
+
+    private static void update(Transaction t, RecordId rid, int id, int value) {
+        t.getTransactionContext().updateRecord(TABLE, rid, new Record(id, value));
+    }
+
+    @Test
+    public void testDisjointTransactionsCommit() {
+        long numCommits = occ.getNumCommits();
+        Transaction t1 = db.beginTransaction();
+        t1.getTransactionContext().getRecord(TABLE, rids.get(1));
+        update(t1, rids.get(1), 1, 10);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        t2.getTransactionContext().getRecord(TABLE, rids.get(2));
+        update(t2, rids.get(2), 2, 20);
+        t2.commit();
+
+        switchTo(t1);
+        t1.commit();
+
+        assertEquals(numCommits + 2, occ.getNumCommits());
+        assertEquals(10, value(1));
+        assertEquals(20, value(2));
+        assertEquals(0, occ.getNumAborts());
+    }
+
+    @Test
+    public void testReadWriteConflict() {
+        Transaction t1 = db.beginTransaction();
+        t1.getTransactionContext().getRecord(TABLE, rids.get(1));
+        update(t1, rids.get(2), 2, 20);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        update(t2, rids.get(1), 1, 10);
+        t2.commit();
+
+        // t1 read record 1 before t2 committed a write to it
+        switchTo(t1);
+        try {
+            t1.commit();
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+        assertEquals(Transaction.Status.COMPLETE, t1.getStatus());
+
+        assertEquals(10, value(1));
+        assertEquals(0, value(2));
+        assertEquals(1, occ.getNumAborts());
+    }
+
+    @Test
+    public void testWriteWriteConflict() {
+        Transaction t1 = db.beginTransaction();
+        update(t1, rids.get(1), 1, 10);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        update(t2, rids.get(2), 2, 20);
+        try {
+            update(t2, rids.get(1), 1, 11);
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+        t2.rollback();
+
+        switchTo(t1);
+        t1.commit();
+
+        assertEquals(10, value(1));
+        assertEquals(0, value(2));
+    }
+
+    @Test
+    public void testConflictedTransactionCannotCommit() {
+        Transaction t1 = db.beginTransaction();
+        update(t1, rids.get(1), 1, 10);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        try {
+            update(t2, rids.get(1), 1, 11);
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+        try {
+            t2.commit();
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+
+        switchTo(t1);
+        t1.commit();
+        assertEquals(10, value(1));
+    }
+
+    @Test
+    public void testDirtyReadFailsValidation() {
+        Transaction t1 = db.beginTransaction();
+        update(t1, rids.get(1), 1, 10);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        assertEquals(10, t2.getTransactionContext().getRecord(TABLE, rids.get(1)).getValue(1).getInt());
+        TransactionContext.unsetTransaction();
+
+        switchTo(t1);
+        t1.rollback();
+        assertEquals(0, value(1));
+
+        // t2 read a write that was undone
+        switchTo(t2);
+        try {
+            t2.commit();
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    public void testScanConflictsWithInsert() {
+        Transaction t1 = db.beginTransaction();
+        assertEquals(NUM_RECORDS, count(t1));
+        update(t1, rids.get(1), 1, 10);
+        TransactionContext.unsetTransaction();
+
+        Transaction t2 = db.beginTransaction();
+        t2.insert(TABLE, NUM_RECORDS, 0);
+        t2.commit();
+
+        switchTo(t1);
+        try {
+            t1.commit();
+            fail();
+        } catch (ValidationException e) {
+            /* do nothing */
+        }
+        assertEquals(0, value(1));
+        assertEquals(NUM_RECORDS + 1, count());
+    }
+
+    private static int count(Transaction t) {
+        Iterator<Record> records = t.getTransactionContext().getRecordIterator(TABLE);
+        int count = 0;
+        while (records.hasNext()) {
+            records.next();
+            ++count;
+        }
+        return count;
+    }
+
+    @Test
+    public void testRollbackUndoesWrites() {
+        try (Transaction t = db.beginTransaction()) {
+            t.insert(TABLE, NUM_RECORDS, 0);
+            update(t, rids.get(1), 1, 10);
+            update(t, rids.get(1), 1, 11);
+            t.getTransactionContext().deleteRecord(TABLE, rids.get(2));
+            try {
+                t.getTransactionContext().getRecord(TABLE, rids.get(2));
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+            t.rollback();
+        }
+        assertEquals(0, value(1));
+        assertEquals(0, value(2));
+        assertEquals(NUM_RECORDS, count());
+    }
+
+    @Test
+    public void testDeleteOnCommit() {
+        try (Transaction t = db.beginTransaction()) {
+            t.getTransactionContext().deleteRecord(TABLE, rids.get(2));
+            t.delete(TABLE, "id", PredicateOperator.LESS_THAN, new IntDataBox(2));
+        }
+        assertEquals(NUM_RECORDS - 3, count());
+    }
+
+    /**
+     * Throughput benchmark: threads running short read-modify-write
+     * transactions (read 4 records of a hot set, update one of them), under
+     * optimistic concurrency control and under the lock manager, with hot sets
+     * from the whole table (low contention) down to 4 records (high
+     * contention). Optimistic transactions that fail validation are retried.
+     * Only prints the numbers; timings here are too noisy to assert on. Note
+     * that in this tree tables only take their metadata locks (record locking
+     * in Table is not implemented), so the lock manager numbers are a lower
+     * bound on the cost of locking.
+     */
+    @Test
+    public void testThroughputBenchmark() throws Exception {
+        int numThreads = 4;
+        int transactionsPerThread = 250;
+        int numRecords = 1000;
+        for (int hotRecords : new int[] {numRecords, 16, 4}) {
+            for (boolean optimistic : new boolean[] {false, true}) {
+                // Tables can't be created under the lock manager in this tree,
+                // so the table is loaded first
+                File dir = tempFolder.newFolder();
+                Database loader = new Database(dir.getAbsolutePath(), 64);
+                List<RecordId> rids = load(loader, numRecords);
+                loader.close();
+                OptimisticConcurrencyControl occ = optimistic ? new OptimisticConcurrencyControl() : null;
+                Database db = optimistic ? new Database(dir.getAbsolutePath(), 64, occ) :
+                              new Database(dir.getAbsolutePath(), 64, new LockManager());
+                db.waitAllTransactions();
+                long numAborts = optimistic ? occ.getNumAborts() : 0;
+                AtomicLong retries = new AtomicLong();
+                List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+                Thread[] threads = new Thread[numThreads];
+                for (int i = 0; i < numThreads; ++i) {
+                    Random random = new Random(i);
+                    threads[i] = new Thread(() -> {
+                        try {
+                            for (int j = 0; j < transactionsPerThread; ++j) {
+                                while (!runReadModifyWrite(db, rids, hotRecords, random)) {
+                                    retries.incrementAndGet();
+                                }
+                            }
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long nanos = System.nanoTime() - start;
+                assertEquals(new ArrayList<>(), errors);
+                if (optimistic) {
+                    assertEquals(numAborts + retries.get(), occ.getNumAborts());
+                }
+
+                System.out.printf("%-10s %4d hot records: %6.0f commits/sec, %4d retries%n",
+                                  optimistic ? "optimistic" : "locking", hotRecords,
+                                  numThreads * transactionsPerThread / (nanos / 1e9), retries.get());
+                db.close();
+            }
+        }
+    }
+
+    /**
+     * @return whether the transaction committed
+     */
+    private static boolean runReadModifyWrite(Database db, List<RecordId> rids, int hotRecords, Random random) {
+        Transaction t = db.beginTransaction();
+        try {
+            TransactionContext transaction = t.getTransactionContext();
+            RecordId updated = null;
+            int sum = 0;
+            for (int i = 0; i < 4; ++i) {
+                updated = rids.get(random.nextInt(hotRecords));
+                sum += transaction.getRecord(TABLE, updated).getValue(1).getInt();
+            }
+            transaction.updateRecord(TABLE, updated, new Record(0, sum + 1));
+            t.commit();
+            return true;
+        } catch (ValidationException e) {
+            if (t.getStatus() == Transaction.Status.RUNNING) {
+                t.rollback();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.LoggingLockManager;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.MaterializeOperator;
+import edu.berkeley.cs186.database.query.QueryOperator;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestSnapshotTransactions {
+    private static final String TestDir = "testSnapshotTransactions";
+    private static final String TABLE = "snapshotTable";
+    private Database db;
+    private String filename;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    @Before
+    public void beforeEach() throws Exception {
+        File testDir = tempFolder.newFolder(TestDir);
+        this.filename = testDir.getAbsolutePath();
+        this.db = new Database(filename, 32);
+        this.db.setWorkMem(4);
+        Schema schema = new Schema().add("id", Type.intType()).add("value", Type.intType());
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(schema, TABLE);
+            for (int i = 0; i < 100; ++i) {
+                t.insert(TABLE, i, i);
+            }
+        }
+    }
+
+    @After
+    public void afterEach() {
+        if (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        this.db.close();
+    }
+
+    /**
+     * Makes `transaction` the transaction running on this thread.
+     */
+    private static void switchTo(Transaction transaction) {
+        if (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        TransactionContext.setTransaction(transaction.getTransactionContext());
+    }
+
+    /**
+     * @return sum of the value column, and number of records, of the table, as
+     * read by the transaction running on this thread
+     */
+    private static int[] scan() {
+        Iterator<Record> records = TransactionContext.getTransaction().getRecordIterator(TABLE);
+        int[] sumAndCount = new int[2];
+        while (records.hasNext()) {
+            sumAndCount[0] += records.next().getValue(1).getInt();
+            ++sumAndCount[1];
+        }
+        return sumAndCount;
+    }
+
+    private static List<RecordId> recordIds() {
+        Iterator<RecordId> rids = TransactionContext.getTransaction().getTable(TABLE).ridIterator();
+        List<RecordId> result = new ArrayList<>();
+        rids.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    public void testSnapshotHidesRunningWriter() {
+        int[] before = {4950, 100};
+
+        Transaction writer = db.beginTransaction();
+        List<RecordId> rids = recordIds();
+        writer.getTransactionContext().updateRecord(TABLE, rids.get(7), new Record(7, 1007));
+        writer.getTransactionContext().deleteRecord(TABLE, rids.get(8));
+        writer.insert(TABLE, 100, 100);
+        TransactionContext.unsetTransaction();
+
+        Transaction snapshot = db.beginSnapshotTransaction();
+        assertArrayEquals(before, scan());
+
+        // The writer is not blocked by the snapshot, and sees its own changes
+        switchTo(writer);
+        writer.getTransactionContext().updateRecord(TABLE, rids.get(9), new Record(9, 1009));
+        int[] after = {4950 + 1000 - 8 + 100 + 1000, 100};
+        assertArrayEquals(after, scan());
+        writer.commit();
+
+        // The writer committed after the snapshot began
+        switchTo(snapshot);
+        assertArrayEquals(before, scan());
+        snapshot.commit();
+
+        Transaction nextSnapshot = db.beginSnapshotTransaction();
+        assertArrayEquals(after, scan());
+        nextSnapshot.commit();
+    }
+
+    @Test
+    public void testSnapshotSeesEarlierCommits() {
+        try (Transaction t = db.beginTransaction()) {
+            t.insert(TABLE, 100, 100);
+        }
+
+        Transaction snapshot = db.beginSnapshotTransaction();
+        TransactionContext.unsetTransaction();
+
+        try (Transaction t = db.beginTransaction()) {
+            t.insert(TABLE, 101, 101);
+        }
+
+        switchTo(snapshot);
+        assertArrayEquals(new int[] {5050, 101}, scan());
+        snapshot.commit();
+    }
+
+    @Test
+    public void testSnapshotQuery() {
+        Transaction writer = db.beginTransaction();
+        for (RecordId rid : recordIds()) {
+            writer.getTransactionContext().updateRecord(TABLE, rid, new Record(0, 0));
+        }
+        TransactionContext.unsetTransaction();
+
+        // Materializing writes to a temporary table, which the snapshot
+        // transaction may do
+        try (Transaction snapshot = db.beginSnapshotTransaction()) {
+            TransactionContext transaction = snapshot.getTransactionContext();
+            QueryOperator materialized = new MaterializeOperator(
+                    new SequentialScanOperator(transaction, TABLE), transaction);
+            Iterator<Record> records = materialized.iterator();
+            for (int i = 0; i < 100; ++i) {
+                assertTrue(records.hasNext());
+                assertEquals(new Record(i, i), records.next());
+            }
+            assertFalse(records.hasNext());
+        }
+
+        switchTo(writer);
+        writer.commit();
+    }
+
+    @Test
+    public void testSnapshotIsReadOnly() {
+        try (Transaction snapshot = db.beginSnapshotTransaction()) {
+            try {
+                snapshot.insert(TABLE, 100, 100);
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+            try {
+                snapshot.createTable(new Schema().add("id", Type.intType()), "otherTable");
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+            try {
+                snapshot.dropTable(TABLE);
+                fail();
+            } catch (DatabaseException e) {
+                /* do nothing */
+            }
+            assertArrayEquals(new int[] {4950, 100}, scan());
+        }
+    }
+
+    @Test
+    public void testVersionsDroppedOnceVisible() {
+        Transaction snapshot = db.beginSnapshotTransaction();
+        TransactionContext.unsetTransaction();
+
+        try (Transaction t = db.beginTransaction()) {
+            t.insert(TABLE, 100, 100);
+        }
+        // The running snapshot does not see the insert
+        assertTrue(db.getVersionStore().getNumVersions() > 0);
+
+        switchTo(snapshot);
+        snapshot.commit();
+        assertEquals(0, db.getVersionStore().getNumVersions());
+    }
+
+    @Test
+    public void testConcurrentWriterNeverSeen() throws InterruptedException {
+        List<RecordId> rids;
+        try (Transaction t = db.beginTransaction()) {
+            rids = recordIds();
+        }
+        Transaction snapshot = db.beginSnapshotTransaction();
+        TransactionContext.unsetTransaction();
+
+        // The writer rewrites a record (and its neighbour, on the same page)
+        // while the snapshot reads them, and commits once the snapshot is done
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch written = new CountDownLatch(1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> {
+            try (Transaction t = db.beginTransaction()) {
+                for (int i = 0; i < 500; ++i) {
+                    t.getTransactionContext().updateRecord(TABLE, rids.get(7), new Record(7, 1000000 + i));
+                    t.getTransactionContext().updateRecord(TABLE, rids.get(8), new Record(8, -i));
+                }
+                written.countDown();
+                while (!done.get()) {
+                    Thread.yield();
+                }
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        writer.start();
+
+        switchTo(snapshot);
+        try {
+            while (written.getCount() > 0 && errors.isEmpty()) {
+                assertEquals(new Record(7, 7), snapshot.getTransactionContext().getRecord(TABLE, rids.get(7)));
+                assertEquals(new Record(8, 8), snapshot.getTransactionContext().getRecord(TABLE, rids.get(8)));
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+        assertEquals(new ArrayList<>(), errors);
+        snapshot.commit();
+    }
+
+    @Test
+    public void testSnapshotTakesNoLocks() {
+        db.close();
+        LoggingLockManager lockManager = new LoggingLockManager();
+        db = new Database(filename, 32, lockManager);
+        db.waitAllTransactions();
+
+        lockManager.startLog();
+        Transaction snapshot = db.beginSnapshotTransaction();
+        assertArrayEquals(new int[] {4950, 100}, scan());
+        snapshot.commit();
+        lockManager.endLog();
+        assertEquals(Collections.emptyList(), lockManager.log);
+    }
+}
@@ -0,0 +1,177 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestDeadlockDetector {
+    private LoggingLockManager lockman;
+    private TransactionContext[] transactions;
+    private ResourceName[] tables;
+    private DeterministicRunner runner;
+    // exceptions thrown by aborted lock requests, by transaction
+    private BlockingQueue<String> aborted;
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        transactions = new TransactionContext[3];
+        tables = new ResourceName[3];
+        ResourceName db = new ResourceName("database");
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+            tables[i] = new ResourceName(db, "table" + i);
+        }
+        runner = new DeterministicRunner(transactions.length);
+        aborted = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void cleanup() {
+        lockman.stopDeadlockDetector();
+    }
+
+    /**
+     * Runs a lock request on the transaction's thread, recording the exception
+     * it throws if it is aborted.
+     */
+    private void request(int t, Runnable request) {
+        runner.run(t, () -> {
+            try {
+                request.run();
+            } catch (DeadlockException | LockWaitTimeoutException e) {
+                aborted.add(t + " " + e.getClass().getSimpleName());
+            }
+        });
+    }
+
+    /**
+     * Each of the first `n` transactions takes an X lock on its own table and
+     * then waits for the X lock of the next.
+     */
+    private void deadlock(int n) {
+        for (int i = 0; i < n; ++i) {
+            int t = i;
+            request(t, () -> lockman.acquire(transactions[t], tables[t], LockType.X));
+        }
+        for (int i = 0; i < n; ++i) {
+            int t = i;
+            request(t, () -> lockman.acquire(transactions[t], tables[(t + 1) % n], LockType.X));
+        }
+        for (int i = 0; i < n; ++i) {
+            assertTrue(transactions[i].getBlocked());
+        }
+    }
+
+    @Test
+    public void testAbortsYoungestTransaction() throws InterruptedException {
+        deadlock(3);
+        assertEquals(1, lockman.detectDeadlocks());
+        assertEquals("2 DeadlockException", aborted.take());
+        // the victim keeps its locks until it releases them
+        assertEquals(LockType.X, lockman.getLockType(transactions[2], tables[2]));
+        assertEquals(LockType.NL, lockman.getLockType(transactions[2], tables[0]));
+        assertTrue(transactions[1].getBlocked());
+        assertEquals(0, lockman.detectDeadlocks());
+
+        runner.run(2, () -> lockman.release(transactions[2], tables[2]));
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], tables[2]));
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+        runner.joinAll();
+        assertTrue(aborted.isEmpty());
+    }
+
+    @Test
+    public void testVictimCost() throws InterruptedException {
+        // transaction 1 has done the least work
+        lockman.setDeadlockVictimCost(transNum -> transNum == 1 ? 0 : 10);
+        deadlock(3);
+        assertEquals(1, lockman.detectDeadlocks());
+        assertEquals("1 DeadlockException", aborted.take());
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertFalse(transactions[0].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.run(0, () -> lockman.release(transactions[0], tables[1]));
+        assertFalse(transactions[2].getBlocked());
+        runner.joinAll();
+    }
+
+    @Test
+    public void testDeadlockThroughQueue() throws InterruptedException {
+        // T0 holds S(table0); T1 queues for X(table0); T2 queues behind T1 for
+        // S(table0), which is compatible with T0's lock but must wait its turn
+        request(0, () -> lockman.acquire(transactions[0], tables[0], LockType.S));
+        request(2, () -> lockman.acquire(transactions[2], tables[2], LockType.X));
+        request(1, () -> lockman.acquire(transactions[1], tables[0], LockType.X));
+        request(2, () -> lockman.acquire(transactions[2], tables[0], LockType.S));
+        assertEquals(0, lockman.detectDeadlocks());
+        // T0 waits for T2, which waits for T1, which waits for T0
+        request(0, () -> lockman.acquire(transactions[0], tables[2], LockType.S));
+        assertEquals(1, lockman.detectDeadlocks());
+        assertEquals("2 DeadlockException", aborted.take());
+        runner.run(2, () -> lockman.release(transactions[2], tables[2]));
+        assertFalse(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertFalse(transactions[1].getBlocked());
+        runner.joinAll();
+    }
+
+    @Test
+    public void testAbortTimedOutRequests() throws InterruptedException {
+        request(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        request(1, () -> lockman.acquireAndRelease(transactions[1], tables[0], LockType.S,
+                Collections.emptyList()));
+        assertEquals(0, lockman.abortTimedOutRequests(60000));
+        assertTrue(transactions[1].getBlocked());
+        Thread.sleep(2);
+        assertEquals(1, lockman.abortTimedOutRequests(1));
+        assertEquals("1 LockWaitTimeoutException", aborted.take());
+        assertEquals(LockType.NL, lockman.getLockType(transactions[1], tables[0]));
+        assertEquals(1, lockman.getLocks(tables[0]).size());
+        runner.joinAll();
+    }
+
+    @Test
+    public void testDeadlockDetectorThread() throws InterruptedException {
+        lockman.startDeadlockDetector(5, 0);
+        try {
+            lockman.startDeadlockDetector(5, 0);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        request(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        request(1, () -> lockman.acquire(transactions[1], tables[1], LockType.X));
+        request(0, () -> lockman.acquire(transactions[0], tables[1], LockType.X));
+        request(1, () -> lockman.acquire(transactions[1], tables[0], LockType.X));
+        // the detector may abort transaction 1 before it is seen blocked
+        assertEquals("1 DeadlockException", aborted.take());
+        lockman.stopDeadlockDetector();
+        runner.run(1, () -> lockman.release(transactions[1], tables[1]));
+        assertFalse(transactions[0].getBlocked());
+        runner.joinAll();
+    }
+}
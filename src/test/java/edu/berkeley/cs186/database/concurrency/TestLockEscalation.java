@@ -0,0 +1,110 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLockEscalation {
+    private LoggingLockManager lockManager;
+    private TransactionContext transaction;
+    private LockContext tableContext;
+    private LockContext[] pageContexts;
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    @Before
+    public void setUp() {
+        lockManager = new LoggingLockManager();
+        transaction = new DummyTransactionContext(lockManager, 0);
+        tableContext = lockManager.databaseContext().childContext("table1");
+        pageContexts = new LockContext[10];
+        for (int i = 0; i < pageContexts.length; ++i) {
+            pageContexts[i] = tableContext.childContext((long) i);
+        }
+        TransactionContext.setTransaction(transaction);
+    }
+
+    @After
+    public void cleanup() {
+        TransactionContext.unsetTransaction();
+    }
+
+    @Test
+    public void testEscalationPolicy() {
+        EscalationPolicy policy = new EscalationPolicy(100, 0.2, 10);
+        assertFalse(policy.shouldEscalate(0, 10));
+        assertFalse(policy.shouldEscalate(1, 10));
+        assertTrue(policy.shouldEscalate(2, 10));
+        // too small a table to go by saturation
+        assertFalse(policy.shouldEscalate(2, 9));
+        assertTrue(policy.shouldEscalate(100, 0));
+        try {
+            new EscalationPolicy(0, 0.2, 10);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    public void testAutoEscalateOnSaturation() {
+        tableContext.enableAutoEscalate(new EscalationPolicy(100, 0.2, 10), () -> pageContexts.length);
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.S);
+        assertEquals(LockType.IS, tableContext.getExplicitLockType(transaction));
+        assertEquals(4, lockManager.getNumLocks());
+
+        // two of ten pages are locked: the third request escalates instead
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.S);
+        assertEquals(LockType.S, tableContext.getExplicitLockType(transaction));
+        assertEquals(0, tableContext.getNumChildren(transaction));
+        for (LockContext pageContext : pageContexts) {
+            assertEquals(LockType.NL, pageContext.getExplicitLockType(transaction));
+            assertEquals(LockType.S, pageContext.getEffectiveLockType(transaction));
+        }
+        assertEquals(2, lockManager.getNumLocks());
+        assertEquals(4, lockManager.getMaxNumLocks());
+        assertEquals(1, lockManager.getNumEscalations());
+        assertEquals(2, lockManager.getNumEscalatedLocks());
+    }
+
+    @Test
+    public void testAutoEscalateOnCount() {
+        tableContext.enableAutoEscalate(new EscalationPolicy(3, 1.0, 1), () -> 1000);
+        for (int i = 0; i < 3; ++i) {
+            LockUtil.ensureSufficientLockHeld(pageContexts[i], LockType.S);
+        }
+        assertEquals(3, tableContext.getNumChildren(transaction));
+        assertEquals(0, lockManager.getNumEscalations());
+        LockUtil.ensureSufficientLockHeld(pageContexts[3], LockType.S);
+        assertEquals(LockType.S, tableContext.getExplicitLockType(transaction));
+        assertEquals(1, lockManager.getNumEscalations());
+        assertEquals(3, lockManager.getNumEscalatedLocks());
+    }
+
+    @Test
+    public void testAutoEscalateDisabled() {
+        tableContext.enableAutoEscalate(new EscalationPolicy(1, 1.0, 1), () -> pageContexts.length);
+        tableContext.disableAutoEscalate();
+        for (LockContext pageContext : pageContexts) {
+            LockUtil.ensureSufficientLockHeld(pageContext, LockType.S);
+        }
+        assertEquals(LockType.IS, tableContext.getExplicitLockType(transaction));
+        assertEquals(pageContexts.length, tableContext.getNumChildren(transaction));
+        assertFalse(tableContext.autoEscalate(transaction));
+        assertEquals(0, lockManager.getNumEscalations());
+        assertEquals(pageContexts.length + 2, lockManager.getNumLocks());
+    }
+}
@@ -0,0 +1,161 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLockManagerStripes {
+    private static final int PAGES_PER_TABLE = 16;
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(30));
+
+    @Test
+    public void testStripesMustBePositive() {
+        try {
+            new LockManager(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+    }
+
+    @Test
+    public void testAcquireAndReleaseAcrossStripes() {
+        LoggingLockManager lockman = new LoggingLockManager(2);
+        ResourceName db = new ResourceName("database");
+        // at least one pair of tables falls in different stripes
+        ResourceName[] tables = new ResourceName[4];
+        for (int i = 0; i < tables.length; ++i) {
+            tables[i] = new ResourceName(db, "table" + i);
+        }
+        assertTrue(Arrays.stream(tables).mapToInt(t -> Math.floorMod(t.hashCode(), 2)).distinct().count() > 1);
+        TransactionContext[] transactions = new TransactionContext[3];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+        }
+
+        DeterministicRunner runner = new DeterministicRunner(3);
+        for (int i = 1; i < tables.length; ++i) {
+            ResourceName table = tables[i];
+            runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+            runner.run(1, () -> lockman.acquire(transactions[1], table, LockType.S));
+            // T1 waits for T0's lock on table0, T2 for T1's lock on the other table
+            runner.run(1, () -> lockman.acquireAndRelease(transactions[1], tables[0], LockType.X,
+                       Collections.singletonList(table)));
+            runner.run(2, () -> lockman.acquire(transactions[2], table, LockType.X));
+            assertTrue(transactions[1].getBlocked());
+            assertTrue(transactions[2].getBlocked());
+
+            // releasing table0 hands it to T1, which gives up its lock to T2
+            runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+            assertFalse(transactions[1].getBlocked());
+            assertFalse(transactions[2].getBlocked());
+            assertEquals(LockType.X, lockman.getLockType(transactions[1], tables[0]));
+            assertEquals(LockType.NL, lockman.getLockType(transactions[1], table));
+            assertEquals(LockType.X, lockman.getLockType(transactions[2], table));
+
+            runner.run(1, () -> lockman.release(transactions[1], tables[0]));
+            runner.run(2, () -> lockman.release(transactions[2], table));
+        }
+        runner.joinAll();
+        for (TransactionContext transaction : transactions) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(transaction));
+        }
+    }
+
+    /**
+     * Runs `numThreads` threads, each with its own transaction, that repeatedly
+     * take an IX lock on their own table and an X lock on each of its pages, and
+     * release them all.
+     * @return wall-clock time in nanoseconds
+     */
+    private long lockDisjointTables(LoggingLockManager lockman, int numThreads, int rounds) {
+        ResourceName db = new ResourceName("database");
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            TransactionContext transaction = new DummyTransactionContext(lockman, t);
+            ResourceName table = new ResourceName(db, "table" + t);
+            ResourceName[] pages = new ResourceName[PAGES_PER_TABLE];
+            for (int p = 0; p < pages.length; ++p) {
+                pages[p] = new ResourceName(table, Integer.toString(p));
+            }
+            threads.add(new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; ++r) {
+                        lockman.acquire(transaction, table, LockType.IX);
+                        for (ResourceName page : pages) {
+                            lockman.acquire(transaction, page, LockType.X);
+                        }
+                        for (ResourceName page : pages) {
+                            lockman.release(transaction, page);
+                        }
+                        lockman.release(transaction, table);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertNull(error.get());
+        return elapsed;
+    }
+
+    @Test
+    public void testDisjointTables() {
+        LoggingLockManager lockman = new LoggingLockManager();
+        lockDisjointTables(lockman, 8, 100);
+        for (int t = 0; t < 8; ++t) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(new DummyTransactionContext(lockman, t)));
+        }
+    }
+
+    /**
+     * Contention benchmark: 1 to 16 threads locking disjoint tables, with every
+     * resource in one stripe (as with a single lock manager monitor) and with the
+     * default number of stripes. Prints throughput only; on few cores there is
+     * little contention to remove.
+     */
+    @Test
+    public void testContentionBenchmark() {
+        int rounds = 200;
+        // warm up
+        lockDisjointTables(new LoggingLockManager(), 4, rounds);
+        for (int numThreads : new int[] {1, 2, 4, 8, 16}) {
+            for (int numStripes : Arrays.asList(1, LockManager.DEFAULT_NUM_STRIPES)) {
+                long nanos = lockDisjointTables(new LoggingLockManager(numStripes), numThreads, rounds);
+                long ops = (long) numThreads * rounds * (PAGES_PER_TABLE + 1) * 2;
+                System.out.printf("%2d thread(s), %2d stripe(s): %.0f lock operations/ms%n",
+                                  numThreads, numStripes, ops / (nanos / 1e6));
+            }
+        }
+    }
+}
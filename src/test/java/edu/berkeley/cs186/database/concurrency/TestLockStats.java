@@ -0,0 +1,196 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLockStats {
+    private LoggingLockManager lockman;
+    private TransactionContext[] transactions;
+    private ResourceName[] tables;
+    private DeterministicRunner runner;
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    @Before
+    public void setUp() {
+        lockman = new LoggingLockManager();
+        transactions = new TransactionContext[4];
+        tables = new ResourceName[4];
+        ResourceName db = new ResourceName("database");
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = new DummyTransactionContext(lockman, i);
+            tables[i] = new ResourceName(db, "table" + i);
+        }
+        runner = new DeterministicRunner(transactions.length);
+    }
+
+    @Test
+    public void testUncontendedRequests() {
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.S));
+        runner.run(0, () -> lockman.promote(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[1], LockType.S));
+        runner.run(1, () -> lockman.acquireAndRelease(transactions[1], tables[1], LockType.X,
+                                                      Arrays.asList(tables[1])));
+        runner.joinAll();
+
+        LockStats.ResourceStats stats = lockman.getLockStats().getStats(tables[0]);
+        assertEquals(2, stats.getNumRequests());
+        assertEquals(0, stats.getNumWaits());
+        assertEquals(0, stats.getQueueLength());
+        assertEquals(2, lockman.getLockStats().getStats(tables[1]).getNumRequests());
+        assertNull(lockman.getLockStats().getStats(tables[2]));
+        assertEquals(Arrays.asList(), lockman.getMostContendedResources(10));
+        assertEquals(Arrays.asList(), lockman.getLongestWaiters(10));
+    }
+
+    @Test
+    public void testWaitsRecorded() {
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.S));
+        runner.run(2, () -> lockman.acquire(transactions[2], tables[0], LockType.S));
+        assertTrue(transactions[1].getBlocked());
+        assertTrue(transactions[2].getBlocked());
+
+        LockStats.ResourceStats stats = lockman.getLockStats().getStats(tables[0]);
+        assertEquals(3, stats.getNumRequests());
+        assertEquals(2, stats.getQueueLength());
+        assertEquals(2, stats.getMaxQueueLength());
+        assertEquals(0, stats.getNumWaits());
+        // requests still waiting count toward contention
+        assertEquals(Arrays.asList(stats), lockman.getMostContendedResources(10));
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.joinAll();
+        assertEquals(0, stats.getQueueLength());
+        assertEquals(2, stats.getMaxQueueLength());
+        assertEquals(2, stats.getNumWaits());
+        assertTrue(stats.getTotalWaitNanos() > 0);
+        assertEquals(2, Arrays.stream(stats.getWaitHistogram().getCounts()).sum());
+        assertEquals(2, Arrays.stream(lockman.getLockStats().getWaitHistogram().getCounts()).sum());
+        assertEquals(Arrays.asList(), lockman.getLongestWaiters(10));
+    }
+
+    @Test
+    public void testAbortedWaitRecorded() {
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.X);
+            } catch (LockWaitTimeoutException e) {
+                /* do nothing */
+            }
+        });
+        assertTrue(transactions[1].getBlocked());
+        assertEquals(1, lockman.abortTimedOutRequests(0));
+        runner.join(1);
+
+        LockStats.ResourceStats stats = lockman.getLockStats().getStats(tables[0]);
+        assertEquals(0, stats.getQueueLength());
+        assertEquals(1, stats.getNumWaits());
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.joinAll();
+    }
+
+    @Test
+    public void testMostContendedAndLongestWaiters() throws InterruptedException {
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[1], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.X));
+        Thread.sleep(20);
+        runner.run(2, () -> lockman.acquire(transactions[2], tables[0], LockType.X));
+        runner.run(3, () -> lockman.acquire(transactions[3], tables[1], LockType.X));
+
+        List<LockStats.Waiter> waiters = lockman.getLongestWaiters(2);
+        assertEquals(2, waiters.size());
+        assertEquals(1, waiters.get(0).getTransNum());
+        assertEquals(tables[0], waiters.get(0).getName());
+        assertEquals(LockType.X, waiters.get(0).getLockType());
+        assertTrue(waiters.get(0).getWaitNanos() >= waiters.get(1).getWaitNanos());
+        assertEquals(3, lockman.getLongestWaiters(10).size());
+
+        List<LockStats.ResourceStats> contended = lockman.getMostContendedResources(10);
+        assertEquals(2, contended.size());
+        assertEquals(tables[0], contended.get(0).getName());
+        assertEquals(tables[1], contended.get(1).getName());
+        assertEquals(1, lockman.getMostContendedResources(1).size());
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.run(1, () -> lockman.release(transactions[1], tables[0]));
+        runner.run(0, () -> lockman.release(transactions[0], tables[1]));
+        runner.joinAll();
+    }
+
+    @Test
+    public void testReset() {
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(transactions[1], tables[0], LockType.X));
+        lockman.getLockStats().reset();
+
+        // the queued request is still counted once granted
+        LockStats.ResourceStats stats = lockman.getLockStats().getStats(tables[0]);
+        assertEquals(0, stats.getNumRequests());
+        assertEquals(1, stats.getQueueLength());
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        runner.joinAll();
+        assertEquals(0, stats.getQueueLength());
+        assertEquals(1, stats.getNumWaits());
+    }
+
+    @Test
+    public void testResourcesBounded() {
+        LockStats lockStats = new LockStats(10);
+        ResourceName db = new ResourceName("database");
+        ResourceName queued = new ResourceName(db, "queued");
+        ResourceName contended = new ResourceName(db, "contended");
+        lockStats.recordQueued(queued);
+        lockStats.recordQueued(contended);
+        lockStats.recordWait(contended, 1000);
+        for (int i = 0; i < 100; ++i) {
+            lockStats.recordRequest(new ResourceName(db, "page" + i));
+        }
+
+        // idle resources that never waited are dropped first
+        assertEquals(1, lockStats.getStats(queued).getQueueLength());
+        assertEquals(1, lockStats.getStats(contended).getNumWaits());
+        assertNull(lockStats.getStats(new ResourceName(db, "page0")));
+        assertNotNull(lockStats.getStats(new ResourceName(db, "page99")));
+
+        // a reset drops everything but the queued resources
+        lockStats.reset();
+        assertNull(lockStats.getStats(contended));
+        assertNull(lockStats.getStats(new ResourceName(db, "page99")));
+        lockStats.recordWait(queued, 1000);
+        assertEquals(0, lockStats.getStats(queued).getQueueLength());
+        assertEquals(1, lockStats.getStats(queued).getNumWaits());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        assertEquals(0, LockStats.WaitHistogram.bucket(0));
+        assertEquals(0, LockStats.WaitHistogram.bucket(1999));
+        assertEquals(1, LockStats.WaitHistogram.bucket(2000));
+        assertEquals(1, LockStats.WaitHistogram.bucket(3999));
+        assertEquals(10, LockStats.WaitHistogram.bucket(1024000));
+        assertEquals(LockStats.WaitHistogram.NUM_BUCKETS - 1, LockStats.WaitHistogram.bucket(Long.MAX_VALUE));
+        for (int i = 1; i < LockStats.WaitHistogram.NUM_BUCKETS; ++i) {
+            long lowerBound = LockStats.WaitHistogram.getLowerBoundMicros(i);
+            assertEquals(i, LockStats.WaitHistogram.bucket(lowerBound * 1000));
+            assertEquals(i - 1, LockStats.WaitHistogram.bucket(lowerBound * 1000 - 1));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLockTypeCache {
+    private LoggingLockManager lockManager;
+    private TransactionContext transaction;
+    private LockContext dbContext;
+    private LockContext tableContext;
+    private LockContext[] pageContexts;
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    @Before
+    public void setUp() {
+        lockManager = new LoggingLockManager();
+        transaction = new DummyTransactionContext(lockManager, 0);
+        dbContext = lockManager.databaseContext();
+        tableContext = dbContext.childContext("table1");
+        pageContexts = new LockContext[4];
+        for (int i = 0; i < pageContexts.length; ++i) {
+            pageContexts[i] = tableContext.childContext((long) i);
+        }
+        TransactionContext.setTransaction(transaction);
+    }
+
+    @After
+    public void cleanup() {
+        TransactionContext.unsetTransaction();
+    }
+
+    @Test
+    public void testEffectiveLockTypeCached() {
+        dbContext.acquire(transaction, LockType.S);
+        assertEquals(LockType.S, pageContexts[0].getEffectiveLockType(transaction));
+        assertEquals(LockType.S, lockManager.getEffectiveLockTypeCache(transaction)
+                     .get(pageContexts[0].getResourceName()));
+        assertEquals(LockType.S, lockManager.getEffectiveLockTypeCache(transaction)
+                     .get(tableContext.getResourceName()));
+
+        // releasing the last lock drops the cache
+        dbContext.release(transaction);
+        assertNull(lockManager.getEffectiveLockTypeCache(transaction));
+        assertEquals(LockType.NL, pageContexts[0].getEffectiveLockType(transaction));
+        assertEquals(LockType.NL, tableContext.getEffectiveLockType(transaction));
+    }
+
+    @Test
+    public void testNoLocksNoCache() {
+        assertEquals(LockType.NL, pageContexts[0].getEffectiveLockType(transaction));
+        LockUtil.ensureSufficientLockHeld(pageContexts[0], LockType.NL);
+        assertNull(lockManager.getEffectiveLockTypeCache(transaction));
+
+        dbContext.acquire(transaction, LockType.IS);
+        tableContext.acquire(transaction, LockType.S);
+        assertEquals(LockType.S, pageContexts[0].getEffectiveLockType(transaction));
+        assertNotNull(lockManager.getEffectiveLockTypeCache(transaction));
+
+        tableContext.release(transaction);
+        assertNotNull(lockManager.getEffectiveLockTypeCache(transaction));
+        dbContext.release(transaction);
+        assertNull(lockManager.getEffectiveLockTypeCache(transaction));
+        assertEquals(LockType.NL, pageContexts[0].getEffectiveLockType(transaction));
+    }
+
+    @Test
+    public void testEscalateClearsCache() {
+        dbContext.acquire(transaction, LockType.IX);
+        tableContext.acquire(transaction, LockType.IX);
+        pageContexts[0].acquire(transaction, LockType.X);
+        assertEquals(LockType.X, pageContexts[0].getEffectiveLockType(transaction));
+        assertEquals(LockType.NL, pageContexts[1].getEffectiveLockType(transaction));
+
+        tableContext.escalate(transaction);
+        assertEquals(LockType.X, pageContexts[0].getEffectiveLockType(transaction));
+        assertEquals(LockType.X, pageContexts[1].getEffectiveLockType(transaction));
+        assertEquals(LockType.NL, pageContexts[0].getExplicitLockType(transaction));
+    }
+
+    @Test
+    public void testOtherTransactionsDoNotShareCache() {
+        TransactionContext other = new DummyTransactionContext(lockManager, 1);
+        dbContext.acquire(transaction, LockType.S);
+        assertEquals(LockType.S, tableContext.getEffectiveLockType(transaction));
+        assertEquals(LockType.NL, tableContext.getEffectiveLockType(other));
+        dbContext.acquire(other, LockType.IS);
+        tableContext.acquire(other, LockType.S);
+        assertEquals(LockType.S, tableContext.getEffectiveLockType(other));
+        // transaction 0's cache is untouched by transaction 1's locks
+        assertEquals(LockType.S, lockManager.getEffectiveLockTypeCache(transaction)
+                     .get(tableContext.getResourceName()));
+    }
+
+    @Test
+    public void testSufficientLockMakesNoLockManagerCalls() {
+        dbContext.acquire(transaction, LockType.IS);
+        tableContext.acquire(transaction, LockType.S);
+        lockManager.startLog();
+        for (LockContext pageContext : pageContexts) {
+            LockUtil.ensureSufficientLockHeld(pageContext, LockType.S);
+            LockUtil.ensureSufficientLockHeld(pageContext, LockType.NL);
+        }
+        assertEquals(Collections.emptyList(), lockManager.log);
+    }
+}
@@ -133,7 +133,8 @@ public class TestLockUtil {
          * When we request S on table1, we should release the IS lock on table1
          * and acquire an S lock in its place using acquire-and-release.
          */
-\        assertEquals(Collections.singletonList(
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+        assertEquals(Collections.singletonList(
                 "acquire-and-release 0 database/table1 S [database/table1]"
         ), lockManager.log);
     }
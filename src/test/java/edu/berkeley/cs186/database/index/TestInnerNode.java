@@ -5,16 +5,19 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj2Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.table.RecordId;
 import org.junit.After;
@@ -385,6 +388,45 @@ public class TestInnerNode {
         assertEquals(5, InnerNode.numLessThan(7, sparseWithDuplicates));
     }
 
+    @Test
+    @Category(SystemTests.class)
+    public void testGetChildPageNum() {
+        Page page = inner.getPage();
+        page.pin();
+        try {
+            Buffer buf = page.getBuffer();
+            for (int i = 0; i < 30; ++i) {
+                long expected = innerChildren.get(InnerNode.numLessThanEqual(new IntDataBox(i), innerKeys));
+                assertEquals(expected, InnerNode.getChildPageNum(metadata, buf, new IntDataBox(i)));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Test
+    @Category(SystemTests.class)
+    public void testGetChildPageNumStringKeys() {
+        setBPlusTreeMetadata(Type.stringType(4), 2);
+        List<DataBox> keys = Arrays.asList(new StringDataBox("b", 4), new StringDataBox("d", 4),
+                                           new StringDataBox("f", 4));
+        List<Long> children = Arrays.asList(leaf0, leaf1, leaf2, leaf0);
+        InnerNode node = new InnerNode(metadata, bufferManager, keys, children, treeContext);
+        Page page = node.getPage();
+        page.pin();
+        try {
+            Buffer buf = page.getBuffer();
+            String[] searches = {"a", "b", "c", "d", "e", "f", "g"};
+            long[] expected = {leaf0, leaf1, leaf1, leaf2, leaf2, leaf0, leaf0};
+            for (int i = 0; i < searches.length; ++i) {
+                assertEquals(expected[i], InnerNode.getChildPageNum(metadata, buf,
+                             new StringDataBox(searches[i], 4)));
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testToSexp() {
@@ -5,16 +5,19 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj2Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import edu.berkeley.cs186.database.table.RecordId;
 import org.junit.After;
@@ -330,4 +333,33 @@ public class TestLeafNode {
             assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
         }
     }
+
+    @Test
+    @Category(SystemTests.class)
+    public void testGetKeySerialized() {
+        // Looks up keys in leaves of 0 to 10 even long keys, both in the leaf
+        // and in its serialization
+        setBPlusTreeMetadata(Type.longType(), 5);
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int n = 0; n <= 10; ++n) {
+            LeafNode leaf = new LeafNode(metadata, bufferManager, keys, rids, Optional.empty(), treeContext);
+            Page page = leaf.getPage();
+            page.pin();
+            try {
+                Buffer buf = page.getBuffer();
+                for (int i = -1; i <= 2 * n; ++i) {
+                    DataBox key = new LongDataBox(i);
+                    Optional<RecordId> expected = i >= 0 && i < 2 * n && i % 2 == 0 ?
+                            Optional.of(new RecordId(i, (short) i)) : Optional.empty();
+                    assertEquals(expected, leaf.getKey(key));
+                    assertEquals(expected, LeafNode.getKey(metadata, buf, key));
+                }
+            } finally {
+                page.unpin();
+            }
+            keys.add(new LongDataBox(2 * n));
+            rids.add(new RecordId(2 * n, (short) (2 * n)));
+        }
+    }
 }
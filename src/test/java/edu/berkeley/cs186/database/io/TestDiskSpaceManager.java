@@ -11,6 +11,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.*;
@@ -201,6 +202,42 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // pages on either side of the second header page
+        int firstPage = DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER - 2;
+        byte[][] bufs = new byte[5][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            long pageNum = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, firstPage + i));
+            Arrays.fill(bufs[i], (byte) (i + 1));
+            // the last page is never written, and lies past the end of the file
+            if (i < bufs.length - 1) {
+                diskSpaceManager.writePage(pageNum, bufs[i]);
+            }
+        }
+        Arrays.fill(bufs[bufs.length - 1], (byte) 0);
+
+        byte[][] readbufs = new byte[bufs.length][DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(readbufs[bufs.length - 1], (byte) 42);
+        assertEquals(2, diskSpaceManager.readPages(DiskSpaceManager.getVirtualPageNum(partNum, firstPage), readbufs));
+        for (int i = 0; i < bufs.length; ++i) {
+            assertArrayEquals("page " + i, bufs[i], readbufs[i]);
+        }
+
+        try {
+            diskSpaceManager.readPages(DiskSpaceManager.getVirtualPageNum(partNum, firstPage + 1),
+                                       new byte[bufs.length][DiskSpaceManager.PAGE_SIZE]);
+            fail();
+        } catch (PageException e) {
+            /* do nothing */
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testReadWritePersistent() {
         diskSpaceManager = getDiskSpaceManager();
@@ -1,8 +1,10 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
@@ -12,7 +14,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +30,24 @@ public class TestBufferManager {
     private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
 
+    // the in-memory disk space manager is not thread-safe on its own
+    private static class SynchronizedMemoryDiskSpaceManager extends MemoryDiskSpaceManager {
+        @Override
+        public synchronized void readPage(long page, byte[] buf) {
+            super.readPage(page, buf);
+        }
+
+        @Override
+        public synchronized void writePage(long page, byte[] buf) {
+            super.writePage(page, buf);
+        }
+
+        @Override
+        public synchronized boolean pageAllocated(long page) {
+            return super.pageAllocated(page);
+        }
+    }
+
     @Before
     public void beforeEach() {
         diskSpaceManager = new MemoryDiskSpaceManager();
@@ -210,6 +237,175 @@ public class TestBufferManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testEvictWhileFlushHookLoadsPage() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] hookPage = new long[] { -1L };
+        BufferManager[] bm = new BufferManager[1];
+        // like the recovery manager writing out an evicted log page before a data page
+        bm[0] = new BufferManager(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public void pageFlushHook(long pageLSN) {
+                if (hookPage[0] != -1L) {
+                    bm[0].fetchPageFrame(hookPage[0]).unpin();
+                }
+            }
+        }, 5, new ClockEvictionPolicy());
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+        try {
+            BufferFrame other = bm[0].fetchNewPageFrame(partNum);
+            other.unpin();
+            bm[0].evict(other.getPageNum());
+            hookPage[0] = other.getPageNum();
+
+            BufferFrame frame1 = bm[0].fetchNewPageFrame(partNum);
+            frame1.writeBytes((short) 67, (short) 4, expected);
+            frame1.unpin();
+            bm[0].evictAll();
+
+            diskSpaceManager.readPage(frame1.getPageNum(), actual);
+        } finally {
+            bm[0].close();
+        }
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+    }
+
+    @Test
+    public void testFlushHookLoadsPageFromOtherThread() throws InterruptedException {
+        diskSpaceManager = new SynchronizedMemoryDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] hookPage = new long[] { -1L };
+        List<Boolean> hookFinished = Collections.synchronizedList(new ArrayList<>());
+        BufferManager[] bm = new BufferManager[1];
+        // like the log manager appending (and so loading a log page) from another
+        // thread, while holding the monitor that the flush hook waits for
+        bm[0] = new BufferManager(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public void pageFlushHook(long pageLSN) {
+                if (hookPage[0] == -1L) {
+                    return;
+                }
+                Thread loader = new Thread(() -> bm[0].fetchPageFrame(hookPage[0]).unpin());
+                loader.start();
+                try {
+                    loader.join(5000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                hookFinished.add(!loader.isAlive());
+            }
+        }, 5, ClockEvictionPolicy::new, 1);
+        byte[] data = new byte[] { 1, 2, 3, 4 };
+        try {
+            BufferFrame other = bm[0].fetchNewPageFrame(partNum);
+            other.unpin();
+            bm[0].evictAll();
+            hookPage[0] = other.getPageNum();
+
+            // evictAll, evict and freePart all write out pages without the partition lock
+            BufferFrame frame = bm[0].fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 4, data);
+            frame.unpin();
+            bm[0].evictAll();
+            frame = bm[0].fetchPageFrame(frame.getPageNum());
+            frame.writeBytes((short) 0, (short) 4, data);
+            frame.unpin();
+            bm[0].evict(frame.getPageNum());
+            frame = bm[0].fetchPageFrame(frame.getPageNum());
+            frame.writeBytes((short) 0, (short) 4, data);
+            frame.unpin();
+            bm[0].freePart(partNum);
+        } finally {
+            bm[0].close();
+        }
+        assertEquals(Arrays.asList(true, true, true), hookFinished);
+    }
+
+    @Test
+    public void testEvictSkipsLockedVictim() throws InterruptedException {
+        diskSpaceManager = new SynchronizedMemoryDiskSpaceManager();
+        BufferManager bm = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                                             new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bm.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+
+        // iterPageNums holds the frame lock of the least recently used page
+        // while its callback runs
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread iterator = new Thread(() -> bm.iterPageNums((pageNum, dirty) -> {
+            if (pageNum == pageNums[0]) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }));
+        iterator.start();
+        try {
+            locked.await();
+            // the next least recently used page is evicted instead of failing
+            BufferFrame frame = bm.fetchNewPageFrame(partNum);
+            frame.unpin();
+            List<Long> loaded = new ArrayList<>();
+            release.countDown();
+            iterator.join();
+            bm.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+            assertTrue(loaded.contains(pageNums[0]));
+            assertFalse(loaded.contains(pageNums[1]));
+        } finally {
+            release.countDown();
+            iterator.join();
+            bm.close();
+        }
+    }
+
+    @Test
+    public void testHitsDoNotWaitForPins() throws InterruptedException {
+        diskSpaceManager = new SynchronizedMemoryDiskSpaceManager();
+        BufferManager bm = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                                             new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        try {
+            BufferFrame frame = bm.fetchNewPageFrame(partNum);
+            long pageNum = frame.getPageNum();
+
+            // a hit on a page pinned by another thread neither waits for the
+            // pin nor gets in the way of its reads
+            BufferFrame[] hit = new BufferFrame[1];
+            Thread other = new Thread(() -> {
+                hit[0] = bm.fetchPageFrame(pageNum);
+                hit[0].readBytes((short) 0, (short) 4, new byte[4]);
+            });
+            other.start();
+            other.join(5000);
+            assertFalse(other.isAlive());
+            assertSame(frame, hit[0]);
+            frame.readBytes((short) 0, (short) 4, new byte[4]);
+
+            // pins may be released by any thread, and the page is evictable once all are
+            frame.unpin();
+            assertTrue(frame.isPinned());
+            hit[0].unpin();
+            assertFalse(frame.isPinned());
+            bm.evict(pageNum);
+            assertFalse(frame.isValid());
+            assertFalse(((BufferManager.Frame) frame).tryPin(pageNum));
+        } finally {
+            bm.close();
+        }
+    }
+
     @Test
     public void testRequestValidFrame() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -330,4 +526,607 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testPartitionedFetch() {
+        BufferManager partitioned = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                ClockEvictionPolicy::new, 4);
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            assertEquals(4, partitioned.getNumPartitions());
+
+            List<BufferFrame> frames = new ArrayList<>();
+            for (int i = 0; i < 32; ++i) {
+                BufferFrame frame = partitioned.fetchNewPageFrame(partNum);
+                frame.unpin();
+                frames.add(frame);
+            }
+
+            // every frame ends up in the partition its page hashes to, and each
+            // partition only ever holds as many pages as it has frames
+            int valid = 0;
+            for (BufferFrame frame : frames) {
+                if (frame.isValid()) {
+                    ++valid;
+                    BufferManager.Frame f = (BufferManager.Frame) frame;
+                    assertSame(partitioned.getPartition(f.getPageNum()),
+                               ((BufferManager.Frame) partitioned.fetchPageFrame(f.getPageNum())).getPartition());
+                    f.unpin();
+                }
+            }
+            assertTrue(valid <= 8);
+
+            // refetching an evicted page loads it back in its own partition
+            BufferFrame reloaded = partitioned.fetchPageFrame(frames.get(0).getPageNum());
+            reloaded.unpin();
+            assertTrue(reloaded.isValid());
+            assertSame(partitioned.getPartition(reloaded.getPageNum()),
+                       ((BufferManager.Frame) reloaded).getPartition());
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyPartitions() {
+        new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4, ClockEvictionPolicy::new, 5);
+    }
+
+    @Test
+    public void testRingBufferStrategy() {
+        BufferManager manager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new LRUEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart();
+            BufferFrame[] hotFrames = new BufferFrame[8];
+            for (int i = 0; i < hotFrames.length; ++i) {
+                hotFrames[i] = manager.fetchNewPageFrame(partNum);
+                hotFrames[i].unpin();
+            }
+
+            // a scan through a ring of 4 frames only ever uses 4 frames of the buffer
+            BufferAccessStrategy strategy = new BufferAccessStrategy(4);
+            List<BufferFrame> scanFrames = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                BufferFrame frame = manager.fetchNewPageFrame(partNum, strategy);
+                frame.unpin();
+                scanFrames.add(frame);
+            }
+            for (BufferFrame frame : hotFrames) {
+                assertTrue(frame.isValid());
+            }
+            for (int i = 0; i < scanFrames.size(); ++i) {
+                assertEquals(i >= 60, scanFrames.get(i).isValid());
+            }
+
+            // hits through the strategy don't join the ring
+            long ios = manager.getNumIOs();
+            manager.fetchPageFrame(hotFrames[0].getPageNum(), strategy).unpin();
+            assertEquals(ios, manager.getNumIOs());
+            BufferFrame frame = manager.fetchPageFrame(scanFrames.get(0).getPageNum(), strategy);
+            frame.unpin();
+            assertTrue(hotFrames[0].isValid());
+            assertFalse(scanFrames.get(60).isValid());
+
+            // pinned frames of the ring are skipped, and the page is loaded normally
+            BufferFrame pinned = manager.fetchPageFrame(scanFrames.get(61).getPageNum(), strategy);
+            BufferFrame[] ringFrames = new BufferFrame[3];
+            for (int i = 0; i < ringFrames.length; ++i) {
+                ringFrames[i] = manager.fetchPageFrame(scanFrames.get(i + 1).getPageNum(), strategy);
+            }
+            BufferFrame outside = manager.fetchPageFrame(scanFrames.get(10).getPageNum(), strategy);
+            assertTrue(pinned.isValid());
+            outside.unpin();
+            pinned.unpin();
+            for (BufferFrame ringFrame : ringFrames) {
+                assertTrue(ringFrame.isValid());
+                ringFrame.unpin();
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotReadsDuringWrites() throws InterruptedException {
+        VersionStore versionStore = new VersionStore();
+        bufferManager.setVersionStore(versionStore);
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.unpin();
+
+        VersionStore.Snapshot snapshot = versionStore.beginSnapshot(1);
+        TransactionContext reader = new DummyTransactionContext(null, 1) {
+            @Override
+            public VersionStore.Snapshot getSnapshot() {
+                return snapshot;
+            }
+        };
+        TransactionContext writer = new DummyTransactionContext(null, 2);
+
+        // The writer keeps overwriting bytes that the snapshot's readers keep
+        // reading, without ending
+        CountDownLatch done = new CountDownLatch(1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[4];
+        threads[0] = new Thread(() -> {
+            TransactionContext.setTransaction(writer);
+            try {
+                for (long i = 1; i <= 20000 && errors.isEmpty(); ++i) {
+                    BufferFrame writerFrame = bufferManager.fetchPageFrame(pageNum);
+                    try {
+                        writerFrame.writeBytes((short) 100, (short) Long.BYTES,
+                                               ByteBuffer.allocate(Long.BYTES).putLong(i * 0x0101010101L).array());
+                    } finally {
+                        writerFrame.unpin();
+                    }
+                }
+            } catch (Throwable e) {
+                errors.add(e);
+            } finally {
+                TransactionContext.unsetTransaction();
+                done.countDown();
+            }
+        });
+        for (int i = 1; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                TransactionContext.setTransaction(reader);
+                try {
+                    byte[] bytes = new byte[Long.BYTES];
+                    while (done.getCount() > 0 && errors.isEmpty()) {
+                        BufferFrame readerFrame = bufferManager.fetchPageFrame(pageNum);
+                        try {
+                            readerFrame.readBytes((short) 100, (short) Long.BYTES, bytes);
+                        } finally {
+                            readerFrame.unpin();
+                        }
+                        assertArrayEquals(new byte[Long.BYTES], bytes);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    TransactionContext.unsetTransaction();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<>(), errors);
+        snapshot.close();
+    }
+
+    @Test
+    public void testVersionsFoldedPerTransaction() {
+        VersionStore versionStore = new VersionStore();
+        bufferManager.setVersionStore(versionStore);
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        long pageNum = frame.getPageNum();
+        frame.unpin();
+
+        TransactionContext.setTransaction(new DummyTransactionContext(null, 2));
+        try {
+            // many writes to a page by one transaction keep one version
+            for (int i = 1; i <= 100; ++i) {
+                BufferFrame writerFrame = bufferManager.fetchPageFrame(pageNum);
+                try {
+                    writerFrame.writeBytes((short) (i * 10), (short) 1, new byte[] {(byte) i});
+                } finally {
+                    writerFrame.unpin();
+                }
+            }
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        assertEquals(1, versionStore.getNumVersions());
+
+        // which rolls back all of them
+        VersionStore.Snapshot snapshot = versionStore.beginSnapshot(1);
+        TransactionContext.setTransaction(new DummyTransactionContext(null, 1) {
+            @Override
+            public VersionStore.Snapshot getSnapshot() {
+                return snapshot;
+            }
+        });
+        try {
+            byte[] bytes = new byte[1010];
+            frame = bufferManager.fetchPageFrame(pageNum);
+            try {
+                frame.readBytes((short) 0, (short) bytes.length, bytes);
+            } finally {
+                frame.unpin();
+            }
+            assertArrayEquals(new byte[bytes.length], bytes);
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        snapshot.close();
+
+        // and is dropped as soon as the transaction ends, with no snapshot running
+        assertEquals(1, versionStore.getNumVersions());
+        versionStore.endTransaction(2);
+        assertEquals(0, versionStore.getNumVersions());
+    }
+
+    @Test
+    public void testRingFramesEvictedOrFreed() {
+        BufferManager manager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new LRUEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart();
+            BufferAccessStrategy strategy = new BufferAccessStrategy(2);
+            BufferFrame[] ringFrames = new BufferFrame[2];
+            for (int i = 0; i < ringFrames.length; ++i) {
+                ringFrames[i] = manager.fetchNewPageFrame(partNum, strategy);
+                ringFrames[i].unpin();
+            }
+            // the ring's frames are evicted by pages loaded normally
+            for (int i = 0; i < 8; ++i) {
+                manager.fetchNewPageFrame(partNum).unpin();
+            }
+            for (BufferFrame frame : ringFrames) {
+                assertFalse(frame.isValid());
+            }
+            BufferFrame frame = manager.fetchNewPageFrame(partNum, strategy);
+            assertTrue(frame.isValid());
+            frame.unpin();
+
+            // a frame of the ring whose page is freed is skipped too
+            BufferFrame other = manager.fetchNewPageFrame(partNum, strategy);
+            other.unpin();
+            manager.freePage(manager.fetchPage(new DummyLockContext(), frame.getPageNum()));
+            frame = manager.fetchNewPageFrame(partNum, strategy);
+            assertTrue(frame.isValid());
+            frame.unpin();
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testReadAhead() throws InterruptedException {
+        DiskSpaceManager synchronizedDisk = new SynchronizedMemoryDiskSpaceManager();
+        BufferManager manager = new BufferManager(synchronizedDisk, new DummyRecoveryManager(), 32,
+                new ClockEvictionPolicy());
+        try {
+            int partNum = synchronizedDisk.allocPart();
+            long[] pages = new long[20];
+            for (int i = 0; i < pages.length; ++i) {
+                pages[i] = synchronizedDisk.allocPage(partNum);
+            }
+            manager.enableReadAhead(4);
+            ReadAheadPrefetcher readAhead = manager.getReadAhead();
+
+            // two pages in a row make a sequential read, which reads the next 4 pages ahead
+            manager.fetchPageFrame(pages[0]).unpin();
+            manager.fetchPageFrame(pages[1]).unpin();
+            for (int i = 2; i < 6; ++i) {
+                waitUntilLoaded(manager, pages[i]);
+            }
+            for (int i = 2; i < 6; ++i) {
+                manager.fetchPageFrame(pages[i]).unpin();
+            }
+            assertEquals(4, readAhead.getNumHits());
+            assertEquals(0, readAhead.getNumWasted());
+
+            // explicit read-ahead of another partition
+            int otherPartNum = synchronizedDisk.allocPart();
+            long otherPage0 = synchronizedDisk.allocPage(otherPartNum);
+            long otherPage1 = synchronizedDisk.allocPage(otherPartNum);
+            manager.prefetch(otherPage0, 2);
+            waitUntilLoaded(manager, otherPage0);
+            waitUntilLoaded(manager, otherPage1);
+            manager.evict(otherPage0);
+            assertEquals(1, readAhead.getNumWasted());
+            manager.fetchPageFrame(otherPage1).unpin();
+            assertEquals(5, readAhead.getNumHits());
+            assertTrue(readAhead.getNumPrefetched() >= 6);
+        } finally {
+            manager.close();
+            synchronizedDisk.close();
+        }
+    }
+
+    @Test
+    public void testLoadPages() {
+        // page number and length of each multi-page read
+        List<long[]> reads = new ArrayList<>();
+        DiskSpaceManager disk = new MemoryDiskSpaceManager() {
+            @Override
+            public int readPages(long page, byte[][] bufs) {
+                reads.add(new long[] { page, bufs.length });
+                super.readPages(page, bufs);
+                return 1;
+            }
+        };
+        BufferManager manager = new BufferManager(disk, new DummyRecoveryManager(), 8,
+                new ClockEvictionPolicy());
+        try {
+            int partNum = disk.allocPart();
+            long[] pages = new long[7];
+            for (int i = 0; i < pages.length; ++i) {
+                pages[i] = disk.allocPage(partNum);
+                byte[] contents = new byte[DiskSpaceManager.PAGE_SIZE];
+                Arrays.fill(contents, (byte) i);
+                disk.writePage(pages[i], contents);
+            }
+            manager.fetchPageFrame(pages[4]).unpin();
+            long numIOs = manager.getNumIOs();
+
+            // page 4 is already loaded, and the page after page 6 is not allocated;
+            // runs are at most half a partition long
+            assertEquals(5, manager.loadPages(Arrays.asList(pages[6], pages[0], pages[3], pages[2],
+                    pages[6] + 1, pages[1], pages[2], pages[4])));
+            assertEquals(numIOs + 2, manager.getNumIOs());
+            assertEquals(2, reads.size());
+            assertArrayEquals(new long[] { pages[0], 4 }, reads.get(0));
+            assertArrayEquals(new long[] { pages[6], 1 }, reads.get(1));
+
+            for (int i = 0; i < pages.length; ++i) {
+                if (i == 5) {
+                    continue;
+                }
+                BufferFrame frame = manager.fetchPageFrame(pages[i]);
+                byte[] b = new byte[1];
+                frame.readBytes((short) 0, (short) 1, b);
+                frame.unpin();
+                assertEquals((byte) i, b[0]);
+            }
+            assertEquals(numIOs + 2, manager.getNumIOs());
+            assertEquals(0, manager.loadPages(Arrays.asList(pages[0], pages[1])));
+        } finally {
+            manager.close();
+            disk.close();
+        }
+    }
+
+    @Test
+    public void testBackgroundWriter() throws InterruptedException {
+        BufferManager manager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new LRUEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart();
+            BufferFrame[] frames = new BufferFrame[4];
+            for (int i = 0; i < frames.length; ++i) {
+                frames[i] = manager.fetchNewPageFrame(partNum);
+                frames[i].writeBytes((short) 0, (short) 1, new byte[] {(byte) i});
+                frames[i].unpin();
+            }
+            long ios = manager.getNumIOs();
+
+            // the two least recently used pages are written out ahead of eviction
+            assertEquals(2, manager.writeAhead(2));
+            assertEquals(2, manager.getNumBackgroundWrites());
+            assertEquals(0, manager.getNumForegroundWrites());
+            assertEquals(0, manager.writeAhead(2));
+
+            // so evicting them doesn't write anything on the foreground path
+            manager.fetchNewPageFrame(partNum).unpin();
+            manager.fetchNewPageFrame(partNum).unpin();
+            assertFalse(frames[0].isValid());
+            assertFalse(frames[1].isValid());
+            assertEquals(0, manager.getNumForegroundWrites());
+            assertEquals(ios + 4, manager.getNumIOs());
+
+            // unlike the next one
+            manager.fetchNewPageFrame(partNum).unpin();
+            assertEquals(1, manager.getNumForegroundWrites());
+
+            // pinned pages are left alone
+            frames[3].pin();
+            assertEquals(0, manager.writeAhead(4));
+            frames[3].unpin();
+
+            manager.startBackgroundWriter(4, 1);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (manager.getNumBackgroundWrites() < 3) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static void waitUntilLoaded(BufferManager manager, long pageNum) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!manager.getPartition(pageNum).pageToFrame.containsKey(pageNum)) {
+            assertTrue("page " + pageNum + " was never read ahead", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Buffer hits don't take the partition lock, so they race with evictions of
+     * the frame being hit. Every fetch must still return a pinned frame with the
+     * right page loaded.
+     */
+    @Test
+    public void testConcurrentHitsAndEvictions() throws InterruptedException {
+        DiskSpaceManager synchronizedDisk = new SynchronizedMemoryDiskSpaceManager();
+        // 5 frames per partition, so that the 4 threads can never pin all of them
+        BufferManager partitioned = new BufferManager(synchronizedDisk, new DummyRecoveryManager(), 10,
+                ClockEvictionPolicy::new, 2);
+        try {
+            int partNum = synchronizedDisk.allocPart(1);
+            long[] pages = new long[24];
+            for (int i = 0; i < pages.length; ++i) {
+                BufferFrame frame = partitioned.fetchNewPageFrame(partNum);
+                pages[i] = frame.getPageNum();
+                frame.writeBytes((short) 0, (short) 8, ByteBuffer.allocate(8).putLong(pages[i]).array());
+                frame.unpin();
+            }
+
+            ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                Random random = new Random(t);
+                Thread thread = new Thread(() -> {
+                    byte[] buf = new byte[8];
+                    try {
+                        for (int i = 0; i < 4000; ++i) {
+                            long pageNum = pages[random.nextInt(pages.length)];
+                            BufferFrame frame = partitioned.fetchPageFrame(pageNum);
+                            try {
+                                assertTrue(frame.isValid());
+                                assertEquals(pageNum, frame.getPageNum());
+                                frame.readBytes((short) 0, (short) 8, buf);
+                                assertEquals(pageNum, ByteBuffer.wrap(buf).getLong());
+                                if (i % 5 == 0) {
+                                    frame.writeBytes((short) 0, (short) 8, buf);
+                                }
+                            } finally {
+                                frame.unpin();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+        } finally {
+            partitioned.close();
+        }
+    }
+
+    /**
+     * Measures throughput of buffer hits (fetch + unpin of an already loaded page)
+     * with 1 to 16 threads, each thread working on its own set of pages, for a
+     * single partition and for a buffer split into 16 partitions. This only checks
+     * that every fetch is a hit; throughput numbers are printed for comparison.
+     */
+    @Test
+    public void testConcurrentHitThroughput() throws InterruptedException {
+        int maxThreads = 16;
+        int pagesPerThread = 4;
+        int numOps = 20000;
+        for (int numPartitions : new int[] {1, 16}) {
+            BufferManager partitioned = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                    maxThreads * pagesPerThread * 2, ClockEvictionPolicy::new, numPartitions);
+            try {
+                int partNum = diskSpaceManager.allocPart();
+                long[][] pages = new long[maxThreads][pagesPerThread];
+                for (int t = 0; t < maxThreads; ++t) {
+                    for (int i = 0; i < pagesPerThread; ++i) {
+                        BufferFrame frame = partitioned.fetchNewPageFrame(partNum);
+                        pages[t][i] = frame.getPageNum();
+                        frame.unpin();
+                    }
+                }
+                long ios = partitioned.getNumIOs();
+
+                for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+                    CountDownLatch start = new CountDownLatch(1);
+                    List<Thread> threads = new ArrayList<>();
+                    for (int t = 0; t < numThreads; ++t) {
+                        long[] threadPages = pages[t];
+                        Thread thread = new Thread(() -> {
+                            try {
+                                start.await();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            for (int i = 0; i < numOps; ++i) {
+                                partitioned.fetchPageFrame(threadPages[i % threadPages.length]).unpin();
+                            }
+                        });
+                        thread.start();
+                        threads.add(thread);
+                    }
+                    long startTime = System.nanoTime();
+                    start.countDown();
+                    for (Thread thread : threads) {
+                        thread.join();
+                    }
+                    long elapsed = Math.max(1, System.nanoTime() - startTime);
+                    System.out.printf("buffer hits: %2d partition(s), %2d thread(s): %,d ops/s%n",
+                                      numPartitions, numThreads, (long) numThreads * numOps * 1000000000L / elapsed);
+                }
+                assertEquals(ios, partitioned.getNumIOs());
+            } finally {
+                partitioned.close();
+            }
+        }
+    }
+
+    /**
+     * Mixes point lookups on a small set of hot pages (think B+ tree inner nodes)
+     * with sequential scans over a table much larger than the buffer, and prints
+     * the hit ratio of each eviction policy. Scans flush the hot pages out of LRU
+     * and clock, but not out of 2Q.
+     */
+    @Test
+    public void testScanResistantHitRatio() {
+        int numFrames = 32;
+        int numHotPages = 24;
+        int numScanPages = 256;
+        int numScans = 8;
+        int partNum = diskSpaceManager.allocPart();
+        long[] hotPages = new long[numHotPages];
+        for (int i = 0; i < numHotPages; ++i) {
+            hotPages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        long[] scanPages = new long[numScanPages];
+        for (int i = 0; i < numScanPages; ++i) {
+            scanPages[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        String[] names = {"LRU", "clock", "2Q"};
+        EvictionPolicy[] policies = {new LRUEvictionPolicy(), new ClockEvictionPolicy(), new TwoQueueEvictionPolicy()};
+        double[] lookupHitRatios = new double[policies.length];
+        for (int p = 0; p < policies.length; ++p) {
+            BufferManager manager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), numFrames,
+                    policies[p]);
+            try {
+                Random random = new Random(186);
+                long lookups = 0;
+                long lookupMisses = 0;
+                long accesses = 0;
+                for (int scan = 0; scan < numScans; ++scan) {
+                    for (long scanPage : scanPages) {
+                        readPage(manager, scanPage, 4);
+                        ++accesses;
+                        // a lookup on a hot page between every two pages of the scan
+                        if (random.nextBoolean()) {
+                            long ios = manager.getNumIOs();
+                            readPage(manager, hotPages[random.nextInt(numHotPages)], 1);
+                            lookupMisses += manager.getNumIOs() - ios;
+                            ++lookups;
+                            ++accesses;
+                        }
+                    }
+                }
+                lookupHitRatios[p] = 1.0 - (double) lookupMisses / lookups;
+                System.out.printf("%-5s: lookup hit ratio %.3f, overall hit ratio %.3f%n", names[p],
+                                  lookupHitRatios[p], 1.0 - (double) manager.getNumIOs() / accesses);
+            } finally {
+                manager.close();
+            }
+        }
+        assertTrue(lookupHitRatios[2] > lookupHitRatios[0]);
+        assertTrue(lookupHitRatios[2] > lookupHitRatios[1]);
+    }
+
+    private static void readPage(BufferManager manager, long pageNum, int numReads) {
+        BufferFrame frame = manager.fetchPageFrame(pageNum);
+        try {
+            byte[] buf = new byte[1];
+            for (int i = 0; i < numReads; ++i) {
+                frame.readBytes((short) i, (short) 1, buf);
+            }
+        } finally {
+            frame.unpin();
+        }
+    }
 }
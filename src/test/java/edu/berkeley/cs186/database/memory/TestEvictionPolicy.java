@@ -6,7 +6,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
@@ -32,7 +36,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -193,4 +197,94 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        // with 4 frames, A1in holds 1 frame and A1out remembers 2 pages
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+
+        // first-time pages leave in FIFO order, hits notwithstanding
+        policy.hit(frames[0]);
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        // page 0 is remembered in A1out, so it is loaded straight into Am
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        // Am: 0, 1
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.hit(frames[0]);
+
+        // A1in is over its share until only one frame is left on it
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[3]}));
+        policy.cleanup(frames[3]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[5]}));
+        policy.cleanup(frames[4]);
+
+        // pages 2 and 3 have been forgotten in favor of pages 3 and 4
+        policy.init(frames[2]); policy.hit(frames[2]);
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[0], frames[2], frames[1], frames[5]}));
+        policy.cleanup(frames[5]);
+
+        // only frame 2 is on A1in now, so the least recently used frame of Am goes
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[2], frames[1], frames[4]}));
+        policy.cleanup(frames[1]);
+        policy.init(frames[6]); policy.hit(frames[6]);
+
+        frames[2].pin();
+        assertEquals(frames[6], policy.evict(new BufferFrame[] {frames[0], frames[2], frames[6], frames[4]}));
+        policy.cleanup(frames[6]);
+        frames[0].pin();
+        frames[4].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {frames[0], frames[2], placeholderFrames[2], frames[4]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+
+        frames[0].unpin();
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[2], placeholderFrames[2], frames[4]}));
+        policy.cleanup(frames[0]);
+    }
+
+    @Test
+    public void testPeekVictims() {
+        EvictionPolicy[] policies = {new LRUEvictionPolicy(), new ClockEvictionPolicy(), new TwoQueueEvictionPolicy()};
+        for (EvictionPolicy policy : policies) {
+            BufferFrame[] current = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+            for (BufferFrame frame : current) {
+                policy.init(frame); policy.hit(frame);
+            }
+            policy.hit(frames[0]);
+            frames[2].pin();
+
+            // peeking doesn't change what gets evicted, and evictions happen in the order peeked
+            List<BufferFrame> victims = policy.peekVictims(current, 4);
+            assertEquals(victims, policy.peekVictims(current, 4));
+            assertEquals(3, victims.size());
+            assertFalse(victims.contains(frames[2]));
+            assertEquals(victims.subList(0, 2), policy.peekVictims(current, 2));
+            for (int i = 0; i < victims.size(); ++i) {
+                assertEquals(victims.get(i), policy.evict(current));
+                policy.cleanup(victims.get(i));
+                current[Arrays.asList(current).indexOf(victims.get(i))] = placeholderFrames[i];
+            }
+            frames[2].unpin();
+            policy.cleanup(frames[2]);
+        }
+    }
 }
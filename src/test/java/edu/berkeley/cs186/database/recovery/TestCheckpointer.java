@@ -0,0 +1,251 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.BeginCheckpointLogRecord;
+import edu.berkeley.cs186.database.recovery.records.CheckpointPageIndexLogRecord;
+import edu.berkeley.cs186.database.recovery.records.EndCheckpointLogRecord;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCheckpointer {
+    private static final int NUM_PAGES = 8;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    private ARIESRecoveryManager recoveryManager;
+
+    @Before
+    public void setup() throws IOException {
+        recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(
+                tempFolder.newFolder("checkpointer").getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
+                new LRUEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        diskSpaceManager.allocPart(1);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+        // as after restart: pages written out leave the DPT
+        recoveryManager.redoComplete = true;
+    }
+
+    @After
+    public void cleanup() {
+        recoveryManager.close();
+        recoveryManager.bufferManager.close();
+        recoveryManager.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    /**
+     * Logs an update to a page, makes it, and records the page in the DPT.
+     * @return LSN of the update
+     */
+    private long update(int page, long prevLSN) {
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, page);
+        LogRecord record = new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) 0, new byte[4],
+                new byte[] { 1, 2, 3, (byte) page });
+        long LSN = recoveryManager.logManager.appendToLog(record);
+        record.redo(recoveryManager, recoveryManager.diskSpaceManager, recoveryManager.bufferManager);
+        recoveryManager.dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
+    @Test
+    public void testCheckpointWritesOutOldPages() {
+        // dirty each page on its own log page: page i's recLSN is on log page 1 + i
+        List<Long> LSNs = new ArrayList<>();
+        long LSN = 0L;
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            LSN = update(i, LSN);
+            LSNs.add(LSN);
+            recoveryManager.flushToLSN(LSN);
+        }
+        long lastLogPage = LogManager.getLSNPage(LSN);
+        assertEquals(NUM_PAGES, recoveryManager.dirtyPageTable.size());
+
+        // without a bound, nothing is written out and redo starts at the first update
+        assertEquals((long) LSNs.get(0), recoveryManager.checkpoint(Integer.MAX_VALUE));
+        assertEquals(NUM_PAGES, recoveryManager.dirtyPageTable.size());
+
+        // the first checkpoint was flushed from the log page after the last update,
+        // so this one begins two log pages after it; only the pages dirtied on the
+        // last 3 log pages before that stay dirty
+        long redoStartLSN = recoveryManager.checkpoint(3);
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+            boolean recent = LogManager.getLSNPage(LSNs.get(i)) > lastLogPage - 2;
+            assertEquals("page " + i, recent, recoveryManager.dirtyPageTable.containsKey(pageNum));
+        }
+        assertEquals((long) LSNs.get(NUM_PAGES - 2), redoStartLSN);
+        assertEquals(redoStartLSN, recoveryManager.getRedoStartLSN());
+
+        // the last end checkpoint record holds the trimmed DPT
+        LogRecord record = null;
+        for (LogRecord r : (Iterable<LogRecord>) () -> recoveryManager.logManager.scanFrom(redoStartLSN)) {
+            if (r.getType() == LogType.END_CHECKPOINT) {
+                record = r;
+            }
+        }
+        assertNotNull(record);
+        assertEquals(recoveryManager.dirtyPageTable, record.getDirtyPageTable());
+    }
+
+    @Test
+    public void testCheckpointListsPagesWrittenOut() {
+        List<Long> LSNs = new ArrayList<>();
+        long LSN = 0L;
+        for (int i = NUM_PAGES - 1; i >= 0; --i) {
+            LSN = update(i, LSN);
+            LSNs.add(0, LSN);
+            recoveryManager.flushToLSN(LSN);
+        }
+        long beginLSN = recoveryManager.checkpoint(0);
+        assertTrue(recoveryManager.dirtyPageTable.isEmpty());
+
+        Iterator<LogRecord> records = recoveryManager.logManager.scanFrom(beginLSN);
+        assertEquals(LogType.BEGIN_CHECKPOINT, records.next().getType());
+        assertEquals(LogType.END_CHECKPOINT, records.next().getType());
+        LogRecord record = records.next();
+        assertEquals(LogType.CHECKPOINT_PAGE_INDEX, record.getType());
+        List<Long> pageNums = new ArrayList<>(record.getPageIndex().keySet());
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+            // written out in page order, each with the LSN of its only update
+            assertEquals(pageNum, (long) pageNums.get(i));
+            assertEquals(new Pair<>(LSNs.get(i), LSNs.get(i)), record.getPageIndex().get(pageNum));
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    public void testAnalysisSkipsPagesWrittenOut() {
+        long[] pageNums = new long[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = DiskSpaceManager.getVirtualPageNum(1, i);
+        }
+        long LSN0 = update(0, 0L);
+        long beginLSN = recoveryManager.logManager.appendToLog(new BeginCheckpointLogRecord());
+        long LSN1 = update(1, LSN0);
+        long LSN2 = update(2, LSN1);
+        long LSN3a = update(3, LSN2);
+        long LSN3b = update(3, LSN3a);
+        Map<Long, Long> chkptDPT = new HashMap<>();
+        chkptDPT.put(pageNums[0], LSN0);
+        recoveryManager.logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, new HashMap<>()));
+        Map<Long, Pair<Long, Long>> pageIndex = new HashMap<>();
+        // pages 0 and 1 were written out after their last update, page 2 before
+        // its update, and page 3 between its two updates
+        pageIndex.put(pageNums[0], new Pair<>(LSN0, LSN0));
+        pageIndex.put(pageNums[1], new Pair<>(LSN1, LSN1));
+        pageIndex.put(pageNums[2], new Pair<>(LSN0, LSN0));
+        pageIndex.put(pageNums[3], new Pair<>(LSN3a, LSN3a));
+        long LSN = recoveryManager.logManager.appendToLog(new CheckpointPageIndexLogRecord(pageIndex));
+        recoveryManager.flushToLSN(LSN);
+        recoveryManager.logManager.rewriteMasterRecord(new MasterLogRecord(beginLSN));
+
+        recoveryManager.dirtyPageTable.clear();
+        recoveryManager.transactionTable.clear();
+        recoveryManager.restartAnalysis();
+
+        Map<Long, Long> expectedDPT = new HashMap<>();
+        expectedDPT.put(pageNums[2], LSN2);
+        expectedDPT.put(pageNums[3], LSN3a);
+        assertEquals(expectedDPT, recoveryManager.dirtyPageTable);
+        // the first update of page 3 is not redone
+        assertEquals(LSN3a, (long) recoveryManager.diskPageLSNs.get(pageNums[3]));
+        assertTrue(LSN3b > LSN3a);
+    }
+
+    @Test
+    public void testCheckpointerAdvancesRedoStart() {
+        long LSN = 0L;
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            LSN = update(i, LSN);
+            recoveryManager.flushToLSN(LSN);
+        }
+        long firstRecLSN = recoveryManager.checkpoint(Integer.MAX_VALUE);
+
+        recoveryManager.startCheckpointer(0, 1);
+        try {
+            recoveryManager.startCheckpointer(0, 1);
+            fail();
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        // with no lag allowed, every page is written out by the checkpointer
+        while (!recoveryManager.dirtyPageTable.isEmpty()
+                || recoveryManager.getRedoStartLSN() <= firstRecLSN) {
+            Thread.yield();
+        }
+        assertTrue(recoveryManager.getRedoStartLSN() > LSN);
+    }
+
+    @Test
+    public void testCheckpointTruncatesLog() throws IOException {
+        // T1 stays active from its first update on
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        long firstLSN = update(0, 0L);
+        recoveryManager.transactionTable.get(1L).lastLSN = firstLSN;
+        recoveryManager.flushToLSN(firstLSN);
+        long LSN = firstLSN;
+        for (int i = 1; i < NUM_PAGES; ++i) {
+            LSN = update(i, LSN);
+            recoveryManager.flushToLSN(LSN);
+        }
+        File archiveDir = tempFolder.newFolder("archive");
+        recoveryManager.enableLogTruncation(archiveDir.getAbsolutePath());
+
+        // every page is written out, but T1 may still need to be rolled back
+        recoveryManager.checkpoint(0);
+        assertTrue(recoveryManager.dirtyPageTable.isEmpty());
+        assertEquals(firstLSN, recoveryManager.getTruncationLSN());
+        assertNotNull(recoveryManager.logManager.fetchLogRecord(firstLSN));
+        long numTruncatedPages = recoveryManager.logManager.getNumTruncatedPages();
+
+        // once T1 is gone, the log is truncated up to the last checkpoint
+        recoveryManager.transactionTable.remove(1L);
+        long redoStartLSN = recoveryManager.checkpoint(0);
+        assertEquals(redoStartLSN, recoveryManager.getTruncationLSN());
+        assertNull(recoveryManager.logManager.fetchLogRecord(firstLSN));
+        assertNotNull(recoveryManager.logManager.fetchLogRecord(redoStartLSN));
+        assertTrue(recoveryManager.logManager.getNumTruncatedPages() > numTruncatedPages);
+        assertEquals(LogManager.getLSNPage(redoStartLSN) - 1, recoveryManager.logManager.getNumTruncatedPages());
+        String[] archived = archiveDir.list();
+        assertNotNull(archived);
+        assertTrue(archived.length > 0);
+    }
+}
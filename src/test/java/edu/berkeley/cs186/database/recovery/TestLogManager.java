@@ -1,29 +1,46 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.CommitTransactionLogRecord;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
     private LogManager logManager;
     private BufferManager bufferManager;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setup() {
         DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
@@ -49,6 +66,20 @@ public class TestLogManager {
         assertEquals(expected, record);
     }
 
+    @Test
+    public void testInterleavedAppendFetch() {
+        // each fetch writes out the part of the tail page appended since the last one
+        long[] LSNs = new long[100];
+        for (int i = 0; i < LSNs.length; ++i) {
+            LogRecord expected = new MasterLogRecord(i);
+            LSNs[i] = logManager.appendToLog(expected);
+            assertEquals(expected, logManager.fetchLogRecord(LSNs[i]));
+        }
+        for (int i = 0; i < LSNs.length; ++i) {
+            assertEquals(new MasterLogRecord(i), logManager.fetchLogRecord(LSNs[i]));
+        }
+    }
+
     @Test
     public void testAppendScan() {
         LogRecord expected = new MasterLogRecord(1234);
@@ -130,4 +161,325 @@ public class TestLogManager {
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test
+    public void testConcurrentAppend() throws InterruptedException {
+        int numThreads = 8;
+        int recordsPerThread = 2000;
+        long[][] LSNs = new long[numThreads][recordsPerThread];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; ++i) {
+                    LSNs[thread][i] = logManager.appendToLog(new MasterLogRecord(thread * recordsPerThread + i));
+                    if (i % 500 == 0) {
+                        // flushing seals the log tail under the other appenders
+                        logManager.flushToLSN(LSNs[thread][i]);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> seen = new HashSet<>();
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < recordsPerThread; ++i) {
+                assertTrue(seen.add(LSNs[t][i]));
+                assertEquals(new MasterLogRecord(t * recordsPerThread + i), logManager.fetchLogRecord(LSNs[t][i]));
+            }
+        }
+        int numScanned = 0;
+        Iterator<LogRecord> iter = logManager.iterator();
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            assertTrue(seen.contains(record.getLSN()));
+            ++numScanned;
+        }
+        assertEquals(numThreads * recordsPerThread, numScanned);
+    }
+
+    @Test
+    public void testSegmentStorage() throws IOException {
+        String walDir = tempFolder.newFolder().getAbsolutePath();
+        long prevIOs = bufferManager.getNumIOs();
+        SegmentLogStorage storage = new SegmentLogStorage(walDir, 4);
+        LogManager segmentLogManager = new LogManager(storage);
+        long[] LSNs = new long[10000];
+        for (int i = 0; i < 10000; ++i) {
+            LSNs[i] = segmentLogManager.appendToLog(new MasterLogRecord(i));
+        }
+        assertEquals(new MasterLogRecord(5000), segmentLogManager.fetchLogRecord(LSNs[5000]));
+        segmentLogManager.flushToLSN(20001);
+        assertEquals(1, storage.getNumForces());
+        segmentLogManager.rewriteMasterRecord(new MasterLogRecord(-1));
+        segmentLogManager.close();
+        // the log never goes through the buffer manager
+        assertEquals(prevIOs, bufferManager.getNumIOs());
+
+        // log survives reopening, and the new log tail goes after the old records
+        segmentLogManager = new LogManager(new SegmentLogStorage(walDir, 4));
+        long LSN = segmentLogManager.appendToLog(new MasterLogRecord(10000));
+        assertTrue(LSN > LSNs[9999]);
+        Iterator<LogRecord> iter = segmentLogManager.iterator();
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        for (int i = 1; i <= 10000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        segmentLogManager.close();
+    }
+
+    @Test
+    public void testTruncate() {
+        long[] LSNs = new long[10000];
+        for (int i = 0; i < 10000; ++i) {
+            LSNs[i] = logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.flushToLSN(LSNs[9999]);
+        // as after a checkpoint on the page of record 5000
+        logManager.rewriteMasterRecord(new MasterLogRecord(LSNs[5000]));
+        long firstPage = LogManager.getLSNPage(LSNs[5000]);
+
+        assertEquals(firstPage - 1, logManager.truncate(LSNs[5000]));
+        assertEquals(0, logManager.truncate(LSNs[5000]));
+        assertEquals(firstPage - 1, logManager.getNumTruncatedPages());
+        assertNull(logManager.fetchLogRecord(LSNs[4000]));
+        assertEquals(new MasterLogRecord(5000), logManager.fetchLogRecord(LSNs[5000]));
+
+        // scans skip the truncated pages
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(LSNs[5000]), iter.next());
+        LogRecord record = iter.next();
+        while (LogManager.getLSNPage(record.getLSN()) == 0) {
+            record = iter.next();
+        }
+        assertEquals(firstPage, LogManager.getLSNPage(record.getLSN()));
+        assertEquals(0, LogManager.getLSNIndex(record.getLSN()));
+
+        // the log is reopened after the truncated pages, and new pages are not
+        // allocated in their place
+        logManager.close();
+        logManager = new LogManager(bufferManager);
+        iter = logManager.scanFrom(LSNs[4000]);
+        assertEquals(record, iter.next());
+        long LSN = logManager.appendToLog(new MasterLogRecord(10000));
+        assertTrue(LSN > LSNs[9999]);
+    }
+
+    @Test
+    public void testTruncateSegmentStorage() throws IOException {
+        String walDir = tempFolder.newFolder().getAbsolutePath();
+        String archiveDir = tempFolder.newFolder().getAbsolutePath();
+        LogManager segmentLogManager = new LogManager(new SegmentLogStorage(walDir, 4));
+        segmentLogManager.setArchive(new LogArchive(archiveDir, 4));
+        long[] LSNs = new long[10000];
+        for (int i = 0; i < 10000; ++i) {
+            LSNs[i] = segmentLogManager.appendToLog(new MasterLogRecord(i));
+        }
+        segmentLogManager.flushToLSN(LSNs[9999]);
+
+        // only whole segments after segment 0 are truncated
+        long keepPage = LogManager.getLSNPage(LSNs[5000]);
+        long firstPage = keepPage / 4 * 4;
+        assertEquals(firstPage - 4, segmentLogManager.truncate(LSNs[5000]));
+        assertFalse(new File(String.format("%s/%08d.wal", walDir, 1)).exists());
+        assertNull(segmentLogManager.fetchLogRecord(LSNs[3000]));
+        segmentLogManager.close();
+
+        // truncated pages are in the archive
+        SegmentLogStorage archive = new SegmentLogStorage(archiveDir, 4);
+        Buffer buf = archive.readPage(LogManager.getLSNPage(LSNs[3000]));
+        buf.position(LogManager.getLSNIndex(LSNs[3000]));
+        assertEquals(Optional.of(new MasterLogRecord(3000)), LogRecord.fromBytes(buf));
+        archive.close();
+
+        // the truncated segments stay truncated when the log is reopened
+        segmentLogManager = new LogManager(new SegmentLogStorage(walDir, 4));
+        Iterator<LogRecord> iter = segmentLogManager.iterator();
+        long prevLSN = -1L;
+        int numRecords = 0;
+        while (iter.hasNext()) {
+            long LSN = iter.next().getLSN();
+            long page = LogManager.getLSNPage(LSN);
+            assertTrue(LSN > prevLSN);
+            assertTrue("record on truncated page " + page, page < 4 || page >= firstPage);
+            prevLSN = LSN;
+            ++numRecords;
+        }
+        assertTrue(prevLSN == LSNs[9999]);
+        assertTrue(numRecords > 10000 - 5000);
+        assertTrue(segmentLogManager.appendToLog(new MasterLogRecord(10000)) > LSNs[9999]);
+        segmentLogManager.close();
+    }
+
+    @Test
+    public void testGroupFlushToLSN() {
+        long LSN = logManager.appendToLog(new CommitTransactionLogRecord(1L, 0L));
+        logManager.groupFlushToLSN(LSN);
+        assertTrue(logManager.getFlushedLSN() >= LSN);
+        assertEquals(1, logManager.getNumGroupFlushes());
+
+        // already flushed: no need for another flush
+        logManager.groupFlushToLSN(LSN);
+        assertEquals(1, logManager.getNumGroupFlushes());
+        assertEquals(2, logManager.getNumGroupCommits());
+
+        logManager.setGroupCommitWindow(100);
+        LSN = logManager.appendToLog(new CommitTransactionLogRecord(2L, 0L));
+        logManager.groupFlushToLSN(LSN);
+        assertTrue(logManager.getFlushedLSN() >= LSN);
+        assertEquals(2, logManager.getNumGroupFlushes());
+    }
+
+    @Test
+    public void testGroupFlushKeepsTailOpen() {
+        long[] LSNs = new long[100];
+        for (int i = 0; i < LSNs.length; ++i) {
+            LSNs[i] = logManager.appendToLog(new CommitTransactionLogRecord(i, 0L));
+            long prevIO = bufferManager.getNumIOs();
+            logManager.groupFlushToLSN(LSNs[i]);
+            // the tail page is written out again by every flush, and appended to after it
+            assertEquals(1, bufferManager.getNumIOs() - prevIO);
+            assertTrue(logManager.getFlushedLSN() >= LSNs[i]);
+            assertEquals(LogManager.getLSNPage(LSNs[0]), LogManager.getLSNPage(LSNs[i]));
+        }
+        assertTrue(logManager.getFlushedLSN() < LogManager.maxLSN(LogManager.getLSNPage(LSNs[0])));
+
+        Iterator<LogRecord> iter = logManager.scanFrom(LSNs[0]);
+        for (int i = 0; i < LSNs.length; ++i) {
+            assertEquals(new CommitTransactionLogRecord(i, 0L), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // flushToLSN still seals the page
+        logManager.flushToLSN(LSNs[LSNs.length - 1]);
+        assertEquals(LogManager.maxLSN(LogManager.getLSNPage(LSNs[0])), logManager.getFlushedLSN());
+        long LSN = logManager.appendToLog(new CommitTransactionLogRecord(0L, 0L));
+        assertEquals(LogManager.getLSNPage(LSNs[0]) + 1, LogManager.getLSNPage(LSN));
+    }
+
+    @Test
+    public void testGroupCommitConcurrent() throws InterruptedException {
+        logManager.setGroupCommitWindow(1000);
+        int numThreads = 8;
+        int commitsPerThread = 50;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            long transNum = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < commitsPerThread; ++i) {
+                        long LSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, 0L));
+                        logManager.groupFlushToLSN(LSN);
+                        assertTrue(logManager.getFlushedLSN() >= LSN);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<>(), errors);
+        assertEquals(numThreads * commitsPerThread, logManager.getNumGroupCommits());
+        assertTrue(logManager.getNumGroupFlushes() <= logManager.getNumGroupCommits());
+    }
+
+    /**
+     * Benchmark: commits/sec of 1, 8 and 64 concurrent committers against a log on
+     * disk, flushing the log for every commit with flushToLSN versus group commit
+     * (with no window, and with a 1ms window), with the log on the log partition and
+     * in dedicated WAL segment files. Only prints the numbers; timings in this
+     * environment are too noisy to assert on.
+     */
+    @Test
+    public void testGroupCommitThroughput() throws Exception {
+        int totalCommits = 512;
+        for (boolean segments : new boolean[] {false, true}) {
+            for (int numThreads : new int[] {1, 8, 64}) {
+                for (long window : new long[] {-1, 0, 1000}) {
+                    CommitBenchmark benchmark = new CommitBenchmark(numThreads, totalCommits / numThreads,
+                                                                    window, segments);
+                    double commitsPerSecond = benchmark.run();
+                    System.out.printf("%-13s %2d committers, %-20s: %8.0f commits/sec, %4d buffer I/Os%n",
+                                      segments ? "WAL segments," : "log partition,", numThreads,
+                                      window < 0 ? "flushToLSN" : "group, " + window + "us window",
+                                      commitsPerSecond, benchmark.numIOs);
+                }
+            }
+        }
+    }
+
+    private class CommitBenchmark {
+        private final int numThreads;
+        private final int commitsPerThread;
+        // group commit window, or -1 to flush with flushToLSN
+        private final long window;
+        // true to keep the log in WAL segment files rather than on the log partition
+        private final boolean segments;
+        private long numIOs;
+
+        CommitBenchmark(int numThreads, int commitsPerThread, long window, boolean segments) {
+            this.numThreads = numThreads;
+            this.commitsPerThread = commitsPerThread;
+            this.window = window;
+            this.segments = segments;
+        }
+
+        double run() throws IOException, InterruptedException {
+            DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(
+                tempFolder.newFolder().getAbsolutePath(), new DummyRecoveryManager());
+            diskSpaceManager.allocPart(0);
+            BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                    1024, new ClockEvictionPolicy());
+            LogManager logManager = segments
+                                    ? new LogManager(new SegmentLogStorage(tempFolder.newFolder().getAbsolutePath()))
+                                    : new LogManager(bufferManager);
+            logManager.setGroupCommitWindow(Math.max(window, 0));
+            try {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < numThreads; ++t) {
+                    long transNum = t;
+                    threads.add(new Thread(() -> {
+                        for (int i = 0; i < commitsPerThread; ++i) {
+                            long LSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, 0L));
+                            if (window < 0) {
+                                logManager.flushToLSN(LSN);
+                            } else {
+                                logManager.groupFlushToLSN(LSN);
+                            }
+                        }
+                    }));
+                }
+                long prevIOs = bufferManager.getNumIOs();
+                long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long elapsed = System.nanoTime() - start;
+                numIOs = bufferManager.getNumIOs() - prevIOs;
+                return numThreads * commitsPerThread * 1e9 / elapsed;
+            } finally {
+                logManager.close();
+                bufferManager.close();
+                diskSpaceManager.close();
+            }
+        }
+    }
 }
@@ -9,10 +9,14 @@ import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogRecord {
@@ -98,11 +102,83 @@ public class TestLogRecord {
                        pageString));
     }
 
+    @Test
+    public void testUpdatePageDeltaSerialize() {
+        // small in-place update of a record: only a few bytes change
+        Random random = new Random(186);
+        byte[] before = new byte[200];
+        random.nextBytes(before);
+        byte[] after = Arrays.copyOf(before, before.length);
+        after[17] = 42;
+        after[18] = 43;
+        Arrays.fill(after, 100, 108, (byte) 0);
+        UpdatePageLogRecord record = new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 1234, before,
+                                                             after);
+        byte[] bytes = record.toBytes();
+        assertEquals(LogType.UPDATE_PAGE_DELTA.getValue(), bytes[0]);
+        // the after image is stored (almost) as is, the before image as a few bytes of delta
+        assertTrue(bytes.length < 31 + 200 + 20);
+        checkSerialize(record);
+
+        // images of different lengths (e.g. undo-only and redo-only halves of a
+        // large update) are run-length encoded without the XOR delta
+        checkSerialize(new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, new byte[0],
+                                               new byte[BufferManager.EFFECTIVE_PAGE_SIZE]));
+        checkSerialize(new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, new byte[3000],
+                                               new byte[0]));
+
+        // incompressible images are stored as is
+        byte[] random1 = new byte[100];
+        byte[] random2 = new byte[100];
+        random.nextBytes(random1);
+        random.nextBytes(random2);
+        record = new UpdatePageLogRecord(-98765L, -43210L, -12345L, (short) 0, random1, random2);
+        bytes = record.toBytes();
+        assertEquals(LogType.UPDATE_PAGE.getValue(), bytes[0]);
+        assertEquals(31 + 200, bytes.length);
+        checkSerialize(record);
+    }
+
+    @Test
+    public void testUndoUpdatePageDeltaSerialize() {
+        byte[] image = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        Arrays.fill(image, 1000, 1300, (byte) 7);
+        image[2000] = 1;
+        UndoUpdatePageLogRecord record = new UndoUpdatePageLogRecord(-98765L, -43210L, -12345L, -57812L,
+                                                                     (short) 0, image);
+        byte[] bytes = record.toBytes();
+        assertEquals(LogType.UNDO_UPDATE_PAGE_DELTA.getValue(), bytes[0]);
+        assertTrue(bytes.length < 37 + 80);
+        checkSerialize(record);
+
+        // a short literal run and a long run in the same image
+        byte[] mixed = new byte[300];
+        for (int i = 0; i < 150; ++i) {
+            mixed[i] = (byte) i;
+        }
+        checkSerialize(new UndoUpdatePageLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 12, mixed));
+    }
+
     @Test
     public void testBeginCheckpointSerialize() {
         checkSerialize(new BeginCheckpointLogRecord());
     }
 
+    @Test
+    public void testCheckpointPageIndexSerialize() {
+        Map<Long, Pair<Long, Long>> pageIndex = new HashMap<>();
+
+        checkSerialize(new CheckpointPageIndexLogRecord(pageIndex));
+
+        for (long i = 0; i < 100; ++i) {
+            pageIndex.put(i * 10000000000L, new Pair<>(i, i * i));
+        }
+
+        checkSerialize(new CheckpointPageIndexLogRecord(pageIndex));
+        assertTrue(CheckpointPageIndexLogRecord.fitsInOneRecord(170));
+        assertFalse(CheckpointPageIndexLogRecord.fitsInOneRecord(171));
+    }
+
     @Test
     public void testEndCheckpointSerialize() {
         Map<Long, Long> dpt = new HashMap<>();
@@ -0,0 +1,194 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.concurrency.LockType;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestOnlineRestart {
+    private static final byte[] BEFORE = new byte[] { 0, 0, 0, 0 };
+    private static final byte[] AFTER = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+    private static final long PAGE_1 = DiskSpaceManager.getVirtualPageNum(1, 0);
+    private static final long PAGE_2 = DiskSpaceManager.getVirtualPageNum(1, 1);
+    // page that is not covered by any lock context
+    private static final long UNLOCKED_PAGE = DiskSpaceManager.getVirtualPageNum(1, 2);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.seconds(10));
+
+    private File testDir;
+    private LockManager lockManager;
+    private LockContext tableContext;
+
+    @Before
+    public void setup() throws IOException {
+        testDir = tempFolder.newFolder("online-restart");
+        lockManager = new LockManager();
+        tableContext = lockManager.databaseContext().childContext("table");
+        LogRecord.onRedoHandler(record -> {});
+    }
+
+    @After
+    public void cleanup() {
+        LogRecord.onRedoHandler(record -> {});
+        DummyTransaction.cleanupTransactions();
+    }
+
+    private ARIESRecoveryManager load() {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(testDir.getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
+                new LRUEvictionPolicy());
+        boolean isLoaded = true;
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(1);
+            for (int i = 0; i < 3; ++i) {
+                diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+            }
+            isLoaded = false;
+        } catch (IllegalStateException e) {
+            // already loaded
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        if (!isLoaded) {
+            recoveryManager.initialize();
+        }
+        return recoveryManager;
+    }
+
+    private LockContext pageLockContext(long pageNum) {
+        return pageNum == UNLOCKED_PAGE ? null : tableContext.childContext(pageNum);
+    }
+
+    private static byte[] read(ARIESRecoveryManager recoveryManager, long pageNum) {
+        Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            byte[] bytes = new byte[4];
+            page.getBuffer().get(bytes);
+            return bytes;
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Logs updates of T1 to PAGE_1 and PAGE_2 and of T2 to UNLOCKED_PAGE, and
+     * crashes before either transaction commits.
+     */
+    private void crash() {
+        ARIESRecoveryManager recoveryManager = load();
+        long LSN = recoveryManager.logManager.appendToLog(
+                new UpdatePageLogRecord(1L, PAGE_1, 0L, (short) 0, BEFORE, AFTER));
+        recoveryManager.logManager.appendToLog(
+                new UpdatePageLogRecord(2L, UNLOCKED_PAGE, 0L, (short) 0, BEFORE, AFTER));
+        LSN = recoveryManager.logManager.appendToLog(
+                new UpdatePageLogRecord(1L, PAGE_2, LSN, (short) 0, BEFORE, AFTER));
+        recoveryManager.flushToLSN(LSN);
+        shutdown(recoveryManager);
+    }
+
+    private static void shutdown(ARIESRecoveryManager recoveryManager) {
+        recoveryManager.bufferManager.evictAll();
+        recoveryManager.logManager.close();
+        recoveryManager.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    @Test
+    public void testLosersRolledBackInBackground() throws InterruptedException {
+        crash();
+        ARIESRecoveryManager recoveryManager = load();
+
+        // hold T1's rollback at its first CLR
+        CountDownLatch undoStarted = new CountDownLatch(1);
+        CountDownLatch resumeUndo = new CountDownLatch(1);
+        LogRecord.onRedoHandler(record -> {
+            if (record.getType() == LogType.UNDO_UPDATE_PAGE && record.getTransNum().get() == 1L) {
+                undoStarted.countDown();
+                try {
+                    resumeUndo.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        recoveryManager.restartOnline(lockManager, this::pageLockContext);
+
+        // T2 touched a page without a lock context, so was rolled back up front
+        assertEquals(Transaction.Status.COMPLETE, DummyTransaction.create(2L).getStatus());
+        assertArrayEquals(BEFORE, read(recoveryManager, UNLOCKED_PAGE));
+
+        // T1 holds its locks while it is rolled back
+        TransactionContext loser = DummyTransaction.create(1L).getTransactionContext();
+        assertEquals(LockType.IX, lockManager.getLockType(loser, lockManager.databaseContext().getResourceName()));
+        assertEquals(LockType.IX, lockManager.getLockType(loser, tableContext.getResourceName()));
+        assertEquals(LockType.X, lockManager.getLockType(loser, tableContext.childContext(PAGE_1).getResourceName()));
+        assertEquals(LockType.X, lockManager.getLockType(loser, tableContext.childContext(PAGE_2).getResourceName()));
+        undoStarted.await();
+
+        // a new transaction blocks on a page T1 has yet to undo
+        TransactionContext newTransaction = DummyTransaction.create(3L).getTransactionContext();
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            lockManager.acquire(newTransaction, tableContext.childContext(PAGE_1).getResourceName(), LockType.X);
+            acquired.set(true);
+        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+            Thread.yield();
+        }
+        assertFalse(acquired.get());
+
+        resumeUndo.countDown();
+        recoveryManager.awaitUndo();
+        thread.join();
+        assertTrue(acquired.get());
+
+        assertEquals(Transaction.Status.COMPLETE, DummyTransaction.create(1L).getStatus());
+        assertTrue(lockManager.getLocks(loser).isEmpty());
+        assertTrue(recoveryManager.transactionTable.isEmpty());
+        assertArrayEquals(BEFORE, read(recoveryManager, PAGE_1));
+        assertArrayEquals(BEFORE, read(recoveryManager, PAGE_2));
+    }
+
+    @Test
+    public void testNoLosers() {
+        shutdown(load());
+        ARIESRecoveryManager recoveryManager = load();
+        recoveryManager.restartOnline(lockManager, this::pageLockContext);
+        recoveryManager.awaitUndo();
+        assertTrue(recoveryManager.transactionTable.isEmpty());
+    }
+}
@@ -0,0 +1,234 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.records.AllocPartLogRecord;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestParallelRedo {
+    // each page gets UPDATES_PER_PAGE updates, the later ones overwriting the earlier ones
+    private static final int UPDATES_PER_PAGE = 4;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File crashedDir;
+    // page number -> recLSN, as analysis would find it
+    private Map<Long, Long> crashedDPT;
+
+    @Before
+    public void setup() {
+        LogRecord.onRedoHandler(record -> {});
+    }
+
+    @After
+    public void cleanup() {
+        LogRecord.onRedoHandler(record -> {});
+        DummyTransaction.cleanupTransactions();
+    }
+
+    private ARIESRecoveryManager load(File dir, int numPages) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager, 32,
+                new LRUEvictionPolicy());
+        boolean isLoaded = true;
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(1);
+            for (int i = 0; i < numPages; ++i) {
+                diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+            }
+            isLoaded = false;
+        } catch (IllegalStateException e) {
+            // already loaded
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        if (!isLoaded) {
+            recoveryManager.initialize();
+        }
+        return recoveryManager;
+    }
+
+    private static byte[] image(int page, int update) {
+        byte[] b = new byte[16];
+        Arrays.fill(b, (byte) (page * UPDATES_PER_PAGE + update + 1));
+        return b;
+    }
+
+    /**
+     * Logs UPDATES_PER_PAGE updates to the same bytes of each of numPages pages,
+     * interleaved across pages, and crashes with only the first appliedRounds
+     * updates to each page on disk. An AllocPart record is logged halfway through.
+     */
+    private void crash(int numPages, int appliedRounds) throws IOException {
+        crashedDir = tempFolder.newFolder("crashed");
+        ARIESRecoveryManager recoveryManager = load(crashedDir, numPages);
+        DummyTransaction.create(1L);
+        crashedDPT = new HashMap<>();
+        long prevLSN = 0L;
+        for (int u = 0; u < UPDATES_PER_PAGE; ++u) {
+            if (u == UPDATES_PER_PAGE / 2) {
+                prevLSN = recoveryManager.logManager.appendToLog(new AllocPartLogRecord(1L, 2, prevLSN));
+            }
+            for (int p = 0; p < numPages; ++p) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, p);
+                byte[] before = u == 0 ? new byte[16] : image(p, u - 1);
+                prevLSN = recoveryManager.logManager.appendToLog(
+                        new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) 0, before, image(p, u)));
+                crashedDPT.putIfAbsent(pageNum, prevLSN);
+                if (u < appliedRounds) {
+                    recoveryManager.logManager.fetchLogRecord(prevLSN).redo(recoveryManager,
+                            recoveryManager.diskSpaceManager, recoveryManager.bufferManager);
+                }
+            }
+        }
+        recoveryManager.bufferManager.evictAll();
+        // pull the plug: the log is on disk, later updates were never made
+        recoveryManager.logManager.close();
+        recoveryManager.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+    }
+
+    private File copyCrashed() throws IOException {
+        File dir = tempFolder.newFolder();
+        Path from = crashedDir.toPath();
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path to = dir.toPath().resolve(from.relativize(path));
+                if (!Files.isDirectory(path)) {
+                    Files.copy(path, to);
+                } else if (!Files.exists(to)) {
+                    Files.createDirectory(to);
+                }
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Restores a copy of the crashed database and runs redo on it.
+     * @return redo wall-clock time in nanoseconds
+     */
+    private long redo(int numPages, int numWorkers) throws IOException {
+        ARIESRecoveryManager recoveryManager = load(copyCrashed(), numPages);
+        recoveryManager.dirtyPageTable.putAll(crashedDPT);
+        recoveryManager.setRedoWorkers(numWorkers);
+        long start = System.nanoTime();
+        recoveryManager.restartRedo();
+        long elapsed = System.nanoTime() - start;
+
+        try {
+            recoveryManager.diskSpaceManager.allocPart(2);
+            fail("AllocPart was not redone");
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+        for (int p = 0; p < numPages; ++p) {
+            Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(),
+                        DiskSpaceManager.getVirtualPageNum(1, p));
+            try {
+                byte[] actual = new byte[16];
+                page.getBuffer().get(actual);
+                assertArrayEquals("page " + p, image(p, UPDATES_PER_PAGE - 1), actual);
+            } finally {
+                page.unpin();
+            }
+        }
+        recoveryManager.logManager.close();
+        recoveryManager.bufferManager.evictAll();
+        recoveryManager.bufferManager.close();
+        recoveryManager.diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+        return elapsed;
+    }
+
+    @Test
+    public void testParallelRedoMatchesSerial() throws IOException {
+        crash(100, 0);
+        redo(100, 1);
+        redo(100, 4);
+    }
+
+    @Test
+    public void testParallelRedoSkipsAppliedRecords() throws IOException {
+        crash(10, UPDATES_PER_PAGE / 2);
+        List<Long> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(record -> redone.add(record.getLSN()));
+        redo(10, 3);
+        // AllocPart, plus the updates made after it
+        assertEquals(1 + 10 * (UPDATES_PER_PAGE - UPDATES_PER_PAGE / 2), redone.size());
+    }
+
+    @Test
+    public void testRedoBatchesPageReads() throws IOException {
+        crash(10, 0);
+        ARIESRecoveryManager recoveryManager = load(copyCrashed(), 10);
+        recoveryManager.dirtyPageTable.putAll(crashedDPT);
+        // read the log in first, so that only reads of data pages are counted
+        recoveryManager.logManager.scanFrom(0L).forEachRemaining(record -> {});
+        long numIOs = recoveryManager.bufferManager.getNumIOs();
+        recoveryManager.restartRedo();
+        // one read per run of adjacent pages, rather than one per page
+        System.out.printf("redo of 10 pages: %d read(s)%n",
+                          recoveryManager.bufferManager.getNumIOs() - numIOs);
+        assertTrue(recoveryManager.bufferManager.getNumIOs() - numIOs < 10);
+        recoveryManager.logManager.close();
+        recoveryManager.bufferManager.evictAll();
+        recoveryManager.bufferManager.close();
+        recoveryManager.diskSpaceManager.close();
+    }
+
+    @Test
+    public void testRedoWorkersMustBePositive() {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create);
+        try {
+            recoveryManager.setRedoWorkers(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+        recoveryManager.setRedoWorkers(4);
+        assertEquals(4, recoveryManager.getRedoWorkers());
+    }
+
+    /**
+     * Restart-time benchmark: redo of a crash that left every page of a large
+     * dirty page table stale, with 1 to 8 redo workers. Prints wall-clock times
+     * only; on a single core there is little to gain from more workers.
+     */
+    @Test
+    public void testRedoBenchmark() throws IOException {
+        int numPages = 1000;
+        crash(numPages, 0);
+        // warm up
+        redo(numPages, 1);
+        for (int numWorkers : new int[] {1, 2, 4, 8}) {
+            long nanos = redo(numPages, numWorkers);
+            System.out.printf("redo of %d pages (%d records), %d worker(s): %.1f ms%n",
+                              numPages, numPages * UPDATES_PER_PAGE + 1, numWorkers, nanos / 1e6);
+        }
+    }
+}